@@ -1,12 +1,14 @@
 #!/bin/bash
 set -euo pipefail
 
-# configurable: IPFS API base and whether to start peers
+# configurable: IPFS API base, whether to start peers and peers per shard
+# (CLUSTER_PEERS is the quorum base: the leader refuses to commit without it)
 IPFS_API_BASE="${IPFS_API_BASE:-http://ipfs:5001}"
 START_PEERS="${START_PEERS:-true}"
-export IPFS_API_BASE START_PEERS
+CLUSTER_PEERS="${CLUSTER_PEERS:-2}"
+export IPFS_API_BASE START_PEERS CLUSTER_PEERS
 
-echo "Using IPFS_API_BASE=${IPFS_API_BASE}, START_PEERS=${START_PEERS}"
+echo "Using IPFS_API_BASE=${IPFS_API_BASE}, START_PEERS=${START_PEERS}, CLUSTER_PEERS=${CLUSTER_PEERS}"
 
 # wait for IPFS to be ready
 echo "Waiting for IPFS at ${IPFS_API_BASE}..."
@@ -17,7 +19,7 @@ done
 echo "IPFS is ready at ${IPFS_API_BASE}!"
 
 # pass IPFS base to JVM
-JAVA_OPTS="-Dipfs.api.base=${IPFS_API_BASE}"
+JAVA_OPTS="-Dipfs.api.base=${IPFS_API_BASE} -Dcluster.peers=${CLUSTER_PEERS}"
 
 # start Leader
 LEADER_JAR=$(ls target/leader-api-1.0-SNAPSHOT.jar | head -n 1 || true)
@@ -0,0 +1,213 @@
+package com.sdt.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controlo de admissão dos uploads com um limite de concorrência adaptativo (AIMD).
+ *
+ * Cada upload aceite ocupa uma vaga até terminar; a duração (extração, embedding, IPFS e 2PC)
+ * é a medida de congestionamento. Um upload mais lento que {@code admission.target.latency.ms},
+ * ou que falhou, reduz o limite multiplicativamente (no máximo uma vez por janela, para uma rajada
+ * de respostas lentas não o fazer colapsar); uploads rápidos com o limite em uso aumentam-no
+ * em 1/limite (≈ +1 por janela).
+ *
+ * Duas classes de prioridade:
+ *   INTERACTIVE  /upload: sem vaga é rejeitado logo (429 com Retry-After), sem fila.
+ *   BULK         lotes do /bulk: só podem usar {@code admission.bulk.share} do limite e esperam
+ *                pela vaga (o pedido deixa de ler o corpo), pelo que os uploads interativos têm
+ *                sempre margem e passam à frente. Os lotes não contam para a latência (são
+ *                maiores por natureza), só as falhas.
+ *
+ * Propriedades (-D):
+ *   admission.enabled=true
+ *   admission.initial.limit=8, admission.min.limit=1, admission.max.limit=64
+ *   admission.target.latency.ms=5000
+ *   admission.backoff=0.75        fator de redução
+ *   admission.bulk.share=0.5
+ *   admission.bulk.max.streams=2  pedidos /bulk em simultâneo (os seguintes recebem 429)
+ */
+public class AdmissionController {
+
+    public enum Priority { INTERACTIVE, BULK }
+
+    private final boolean enabled;
+    private final double minLimit;
+    private final double maxLimit;
+    private final long targetLatencyMs;
+    private final double backoff;
+    private final double bulkShare;
+    private final int maxBulkStreams;
+
+    // estado protegido pelo monitor do objeto
+    private double limit;
+    private int inFlight;
+    private int bulkInFlight;
+    private int bulkStreams;
+    private long lastDecreaseAt;
+    private double smoothedLatencyMs;
+    private long admitted;
+    private long rejected;
+    private long slow;
+    private long failed;
+
+    public AdmissionController() {
+        this.enabled = Boolean.parseBoolean(System.getProperty("admission.enabled", "true"));
+        this.minLimit = Math.max(1, Double.parseDouble(System.getProperty("admission.min.limit", "1")));
+        this.maxLimit = Math.max(minLimit, Double.parseDouble(System.getProperty("admission.max.limit", "64")));
+        this.targetLatencyMs = Long.parseLong(System.getProperty("admission.target.latency.ms", "5000"));
+        this.backoff = Double.parseDouble(System.getProperty("admission.backoff", "0.75"));
+        this.bulkShare = Double.parseDouble(System.getProperty("admission.bulk.share", "0.5"));
+        this.maxBulkStreams = Integer.parseInt(System.getProperty("admission.bulk.max.streams", "2"));
+        this.limit = Math.min(maxLimit, Math.max(minLimit,
+                Double.parseDouble(System.getProperty("admission.initial.limit", "8"))));
+        this.smoothedLatencyMs = targetLatencyMs / 2.0;
+    }
+
+    /**
+     * Vaga para um upload interativo.
+     *
+     * @return a vaga (fechar quando o upload terminar), ou null se o servidor está no limite
+     */
+    public synchronized Permit tryAcquire() {
+        if (enabled && inFlight >= Math.floor(limit)) {
+            rejected++;
+            return null;
+        }
+        inFlight++;
+        admitted++;
+        return new Permit(Priority.INTERACTIVE);
+    }
+
+    /**
+     * Vaga para um lote de bulk: espera até haver margem dentro da quota do bulk.
+     */
+    public synchronized Permit acquireBulk() throws InterruptedException {
+        while (enabled && (bulkInFlight >= bulkLimit() || inFlight >= Math.floor(limit))) {
+            wait(250);
+        }
+        inFlight++;
+        bulkInFlight++;
+        admitted++;
+        return new Permit(Priority.BULK);
+    }
+
+    /**
+     * Regista um pedido /bulk em curso.
+     *
+     * @return false se já há {@code admission.bulk.max.streams} pedidos a correr
+     */
+    public synchronized boolean tryStartBulkStream() {
+        if (enabled && bulkStreams >= maxBulkStreams) {
+            rejected++;
+            return false;
+        }
+        bulkStreams++;
+        return true;
+    }
+
+    public synchronized void endBulkStream() {
+        bulkStreams--;
+    }
+
+    private int bulkLimit() {
+        return Math.max(1, (int) Math.floor(limit * bulkShare));
+    }
+
+    private synchronized void release(Permit permit, long latencyMs, boolean ok) {
+        inFlight--;
+        if (permit.priority == Priority.BULK) {
+            bulkInFlight--;
+        }
+        boolean congested = !ok;
+        if (permit.priority == Priority.INTERACTIVE) {
+            smoothedLatencyMs = 0.8 * smoothedLatencyMs + 0.2 * latencyMs;
+            congested |= latencyMs > targetLatencyMs;
+        }
+        if (!ok) {
+            failed++;
+        } else if (congested) {
+            slow++;
+        }
+
+        long now = System.currentTimeMillis();
+        if (congested) {
+            // uma redução por janela: as respostas que já estavam em curso não contam de novo
+            if (now - lastDecreaseAt >= Math.max(targetLatencyMs, (long) smoothedLatencyMs)) {
+                limit = Math.max(minLimit, limit * backoff);
+                lastDecreaseAt = now;
+                System.out.println("Admission limit decreased to " + String.format("%.1f", limit) +
+                                   " (" + (ok ? "latency " + latencyMs + "ms" : "failure") + ")");
+            }
+        } else if (permit.priority == Priority.INTERACTIVE && inFlight + 1 >= limit / 2) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Segundos sugeridos ao cliente rejeitado: o tempo típico para libertar uma vaga.
+     */
+    public synchronized long retryAfterSeconds() {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds((long) Math.ceil(smoothedLatencyMs)) + 1;
+        return Math.max(1, Math.min(30, seconds));
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Latência recente dos uploads interativos (média exponencial).
+     */
+    public synchronized long getLatencyMs() {
+        return Math.round(smoothedLatencyMs);
+    }
+
+    public long getTargetLatencyMs() {
+        return targetLatencyMs;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("limit", Math.floor(limit));
+        stats.put("bulkLimit", bulkLimit());
+        stats.put("inFlight", inFlight);
+        stats.put("bulkInFlight", bulkInFlight);
+        stats.put("bulkStreams", bulkStreams);
+        stats.put("latencyMs", Math.round(smoothedLatencyMs));
+        stats.put("targetLatencyMs", targetLatencyMs);
+        stats.put("admitted", admitted);
+        stats.put("rejected", rejected);
+        stats.put("slow", slow);
+        stats.put("failed", failed);
+        return stats;
+    }
+
+    /**
+     * Vaga ocupada por um upload ou lote. {@link #failed()} antes de fechar se o trabalho falhou.
+     */
+    public final class Permit implements AutoCloseable {
+        private final Priority priority;
+        private final long startNanos = System.nanoTime();
+        private boolean ok = true;
+        private boolean closed;
+
+        private Permit(Priority priority) {
+            this.priority = priority;
+        }
+
+        public void failed() {
+            ok = false;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(this, (System.nanoTime() - startNanos) / 1_000_000, ok);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.sdt.api;
+
+import com.sdt.peers.Tracing;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Ingestão em bulk de muitos ficheiros: partes multipart soltas ou entradas de um arquivo
+ * zip/tar/tar.gz lido em streaming (sem extrair o arquivo inteiro para disco).
+ *
+ * Os ficheiros são agrupados em lotes de {@code bulk.batch.size}. Cada lote é adicionado ao IPFS
+ * num só pedido, o texto e os embeddings são calculados em paralelo ({@code bulk.prepare.threads})
+ * e os documentos entram no vetor com uma única ronda de 2PC (uma versão) por shard. Enquanto um
+ * lote está a ser confirmado, o seguinte já está a ser lido e preparado; nunca há mais de um lote
+ * à espera do commit.
+ *
+ * O CID de cada ficheiro é calculado localmente enquanto é gravado ({@link CidCalculator}); o
+ * conteúdo que a coleção já tem é respondido logo, sem ir ao IPFS nem ao 2PC.
+ *
+ * Cada lote ocupa uma vaga BULK do {@link AdmissionController} desde o envio para o IPFS até ao
+ * commit; sem vaga, a leitura do pedido fica parada (backpressure) em vez de acumular lotes.
+ *
+ * O resultado de cada ficheiro é entregue ao {@link ResultSink} pela ordem de chegada, quando o
+ * seu lote termina.
+ *
+ * Cada lote tem o seu id de traço ({@link Tracing}), presente nas threads de preparação e de
+ * commit, nas mensagens do 2PC e nos eventos JFR.
+ */
+public class BulkIngestor implements AutoCloseable {
+
+    public interface ResultSink {
+        void accept(String filename, UploadResult result) throws IOException;
+    }
+
+    private final DocumentCollection collection;
+    private final IPFSClient ipfsClient;
+    private final AdmissionController admission;
+    private final NearDuplicateIndex.Policy duplicatePolicy;
+    private final ResultSink sink;
+    private final int batchSize;
+    private final long maxEntryBytes;
+    private final ExecutorService preparePool;
+    private final ExecutorService commitExecutor;
+
+    // ficheiros do lote atual, pela ordem de chegada; os já conhecidos têm file null e o resultado em pendingKnown
+    private List<String> pendingNames = new ArrayList<>();
+    private List<File> pendingFiles = new ArrayList<>();
+    private List<String> pendingCids = new ArrayList<>();
+    private List<UploadResult> pendingKnown = new ArrayList<>();
+    private int pendingUploads;
+    private Future<?> inFlight;
+
+    // contadores (atualizados só na thread de commit)
+    private final Map<String, Integer> statusCounts = new LinkedHashMap<>();
+    private int files;
+    private int batches;
+
+    public BulkIngestor(DocumentCollection collection, IPFSClient ipfsClient, AdmissionController admission,
+                        NearDuplicateIndex.Policy duplicatePolicy, ResultSink sink) {
+        this.collection = collection;
+        this.ipfsClient = ipfsClient;
+        this.admission = admission;
+        this.duplicatePolicy = duplicatePolicy;
+        this.sink = sink;
+        // cada lote segue numa só mensagem pubsub (limite do IPFS ~1 MiB): não exagerar no tamanho
+        this.batchSize = Math.max(1, Integer.parseInt(System.getProperty("bulk.batch.size", "64")));
+        this.maxEntryBytes = Long.parseLong(System.getProperty("bulk.max.entry.bytes", String.valueOf(256L << 20)));
+        int threads = Integer.parseInt(System.getProperty("bulk.prepare.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        AtomicInteger counter = new AtomicInteger();
+        this.preparePool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-prepare-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.commitExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "bulk-commit");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Formato de arquivo ("zip", "tar" ou "tgz") pelo nome do ficheiro, ou null se não for um arquivo.
+     */
+    public static String formatForFilename(String filename) {
+        if (filename == null) return null;
+        String lower = filename.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".zip")) return "zip";
+        if (lower.endsWith(".tar")) return "tar";
+        if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) return "tgz";
+        return null;
+    }
+
+    /**
+     * Formato de arquivo pelo Content-Type do corpo do pedido, ou null se não for reconhecido.
+     */
+    public static String formatForContentType(String contentType) {
+        if (contentType == null) return null;
+        switch (contentType.split(";")[0].trim().toLowerCase(Locale.ROOT)) {
+            case "application/zip":
+            case "application/x-zip-compressed":
+                return "zip";
+            case "application/x-tar":
+                return "tar";
+            case "application/gzip":
+            case "application/x-gzip":
+            case "application/x-gtar":
+            case "application/x-compressed-tar":
+                return "tgz";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Lê um arquivo em streaming e ingere cada ficheiro regular que contém.
+     *
+     * @param format "zip", "tar" ou "tgz"
+     */
+    public void addArchive(InputStream in, String format) throws Exception {
+        switch (format) {
+            case "zip":
+                try (ZipInputStream zip = new ZipInputStream(in)) {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        if (!entry.isDirectory() && !isJunk(entry.getName())) {
+                            add(entry.getName(), zip);
+                        }
+                    }
+                }
+                break;
+            case "tar":
+                addTar(new TarArchiveInputStream(in));
+                break;
+            case "tgz":
+                addTar(new TarArchiveInputStream(new GZIPInputStream(in)));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown archive format " + format + " (use zip, tar or tgz)");
+        }
+    }
+
+    private void addTar(TarArchiveInputStream tar) throws Exception {
+        try (tar) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (entry.isFile() && !isJunk(entry.getName())) {
+                    add(entry.getName(), tar);
+                }
+            }
+        }
+    }
+
+    /**
+     * Metadados que os compressores do macOS/Windows acrescentam aos arquivos.
+     */
+    private static boolean isJunk(String name) {
+        String base = name.substring(name.lastIndexOf('/') + 1);
+        return name.startsWith("__MACOSX/") || base.startsWith("._") || base.equals(".DS_Store") || base.equals("Thumbs.db");
+    }
+
+    /**
+     * Acrescenta um ficheiro ao lote atual (o conteúdo é copiado para um ficheiro temporário;
+     * o stream não é fechado). Quando o lote fica cheio é enviado para processamento.
+     */
+    public void add(String filename, InputStream content) throws Exception {
+        files++;
+        File temp;
+        CidCalculator localCid = new CidCalculator();
+        try {
+            temp = spool(filename, content, localCid);
+        } catch (IOException e) {
+            System.err.println("Bulk: failed to read " + filename + ": " + e.getMessage());
+            submitResults(List.of(filename), List.of(UploadResult.failed(null, e.getMessage())));
+            return;
+        }
+        String precomputedCid = ipfsClient.precomputeCid(temp, localCid);
+        UploadResult known = collection.findExisting(precomputedCid);
+        pendingNames.add(filename);
+        pendingCids.add(precomputedCid);
+        pendingKnown.add(known);
+        if (known != null) {
+            Files.deleteIfExists(temp.toPath());
+            pendingFiles.add(null);
+        } else {
+            pendingFiles.add(temp);
+            pendingUploads++;
+        }
+        // ficheiros já conhecidos não contam para o lote, mas a lista de resultados por entregar é limitada
+        if (pendingUploads >= batchSize || pendingNames.size() >= 16 * batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Processa o lote parcial que falta e espera que todos os lotes terminem.
+     *
+     * @return resumo (ficheiros, lotes e contagem por estado)
+     */
+    public Map<String, Object> finish() throws Exception {
+        flush();
+        awaitCommit();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("files", files);
+        summary.put("batches", batches);
+        summary.putAll(statusCounts);
+        return summary;
+    }
+
+    private void flush() throws Exception {
+        if (pendingNames.isEmpty()) return;
+        List<String> names = pendingNames;
+        List<File> batch = pendingFiles;
+        List<String> precomputed = pendingCids;
+        List<UploadResult> known = pendingKnown;
+        pendingNames = new ArrayList<>();
+        pendingFiles = new ArrayList<>();
+        pendingCids = new ArrayList<>();
+        pendingKnown = new ArrayList<>();
+        pendingUploads = 0;
+
+        List<File> uploads = new ArrayList<>(batch.size());
+        for (File file : batch) {
+            if (file != null) uploads.add(file);
+        }
+        AdmissionController.Permit permit = uploads.isEmpty() ? null : admission.acquireBulk();
+        String traceId = Tracing.newTraceId();
+
+        // Fase 1 (thread do pedido): IPFS num só pedido; texto e embeddings em paralelo
+        List<Future<DocumentCollection.PreparedDocument>> prepared = new ArrayList<>(batch.size());
+        try {
+            Tracing.Scope scope = Tracing.open(traceId);
+            try {
+                List<String> cids = uploads.isEmpty() ? List.of() : ipfsClient.uploadFiles(uploads);
+                if (!uploads.isEmpty()) {
+                    System.out.println(Tracing.tag(traceId) + "Bulk: added " + uploads.size() + " file(s) to IPFS");
+                }
+                int next = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    File file = batch.get(i);
+                    if (file == null) {
+                        prepared.add(null);
+                        continue;
+                    }
+                    String cid = cids.get(next++);
+                    String name = names.get(i);
+                    ipfsClient.checkPrecomputedCid(precomputed.get(i), cid);
+                    prepared.add(preparePool.submit(() -> {
+                        Tracing.Scope prepareScope = Tracing.open(traceId);
+                        try {
+                            return collection.prepare(file, cid, name);
+                        } finally {
+                            prepareScope.close();
+                        }
+                    }));
+                }
+            } finally {
+                scope.close();
+            }
+        } catch (Exception e) {
+            System.err.println("Bulk: IPFS batch upload failed: " + e.getMessage());
+            if (permit != null) {
+                permit.failed();
+                permit.close();
+            }
+            deleteAll(batch);
+            List<UploadResult> results = new ArrayList<>(names.size());
+            for (UploadResult result : known) {
+                results.add(result != null ? result : UploadResult.failed(null, e.getMessage()));
+            }
+            submitResults(names, results);
+            return;
+        }
+
+        // Fase 2 (thread de commit): no máximo um lote a confirmar enquanto o seguinte é preparado
+        awaitCommit();
+        inFlight = commitExecutor.submit(() -> {
+            Tracing.Scope scope = Tracing.open(traceId);
+            try (permit) {
+                commitBatch(names, batch, prepared, known, permit);
+            } finally {
+                scope.close();
+            }
+            return null;
+        });
+    }
+
+    private void commitBatch(List<String> names, List<File> batch,
+                             List<Future<DocumentCollection.PreparedDocument>> prepared,
+                             List<UploadResult> known, AdmissionController.Permit permit) throws Exception {
+        try {
+            UploadResult[] results = new UploadResult[batch.size()];
+            List<DocumentCollection.PreparedDocument> ready = new ArrayList<>(batch.size());
+            List<Integer> readyIndexes = new ArrayList<>(batch.size());
+            for (int i = 0; i < prepared.size(); i++) {
+                if (known.get(i) != null) {
+                    results[i] = known.get(i);
+                    continue;
+                }
+                try {
+                    ready.add(prepared.get(i).get());
+                    readyIndexes.add(i);
+                } catch (ExecutionException e) {
+                    System.err.println("Bulk: failed to prepare " + names.get(i) + ": " + e.getCause().getMessage());
+                    results[i] = UploadResult.failed(null, e.getCause().getMessage());
+                }
+            }
+            if (!ready.isEmpty()) {
+                List<UploadResult> committed = collection.addDocumentsAndPropagate(ready, duplicatePolicy);
+                for (int j = 0; j < committed.size(); j++) {
+                    results[readyIndexes.get(j)] = committed.get(j);
+                    if (UploadResult.FAILED.equals(committed.get(j).getStatus()) && permit != null) {
+                        permit.failed(); // shard sem commit: sinal de congestionamento
+                    }
+                }
+            }
+            batches++;
+            for (int i = 0; i < results.length; i++) {
+                report(names.get(i), results[i]);
+            }
+        } finally {
+            deleteAll(batch);
+        }
+    }
+
+    /**
+     * Resultados sem commit (falhas de leitura ou de IPFS) também passam pela thread de commit,
+     * para manter a ordem dos resultados.
+     */
+    private void submitResults(List<String> names, List<UploadResult> results) throws Exception {
+        awaitCommit();
+        inFlight = commitExecutor.submit(() -> {
+            for (int i = 0; i < names.size(); i++) {
+                report(names.get(i), results.get(i));
+            }
+            return null;
+        });
+    }
+
+    private void report(String filename, UploadResult result) throws IOException {
+        statusCounts.merge(result.getStatus(), 1, Integer::sum);
+        sink.accept(filename, result);
+    }
+
+    private void awaitCommit() throws Exception {
+        if (inFlight == null) return;
+        try {
+            inFlight.get();
+        } catch (ExecutionException e) {
+            // ex.: cliente desligou-se a meio da resposta
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        } finally {
+            inFlight = null;
+        }
+    }
+
+    private File spool(String filename, InputStream in, CidCalculator localCid) throws IOException {
+        // manter a extensão ajuda a deteção do tipo pelo Tika
+        String base = filename.substring(filename.lastIndexOf('/') + 1);
+        int dot = base.lastIndexOf('.');
+        String suffix = dot >= 0 && base.length() - dot <= 10 ? base.substring(dot) : null;
+        File temp = Files.createTempFile("bulk-", suffix).toFile();
+        try (OutputStream out = new FileOutputStream(temp)) {
+            byte[] buf = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                total += n;
+                if (total > maxEntryBytes) {
+                    throw new IOException("file larger than bulk.max.entry.bytes=" + maxEntryBytes);
+                }
+                out.write(buf, 0, n);
+                localCid.write(buf, 0, n);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        return temp;
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            if (file == null) continue;
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                System.err.println("Bulk: failed to delete temp file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        preparePool.shutdownNow();
+        commitExecutor.shutdownNow();
+        deleteAll(pendingFiles);
+    }
+}
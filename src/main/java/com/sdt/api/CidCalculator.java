@@ -0,0 +1,208 @@
+package com.sdt.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Calcula localmente o CID que o {@code ipfs add} devolveria para um ficheiro, à medida que os
+ * bytes são escritos (sem enviar nada ao daemon).
+ *
+ * Reproduz os parâmetros por omissão do add: CIDv0 (sha2-256, base58), chunker size-262144,
+ * folhas dag-pb/UnixFS (sem raw-leaves) e layout balanceado com 174 ligações por nó. Se o daemon
+ * estiver configurado de outra forma os CIDs não coincidem; por isso o resultado só serve para
+ * reconhecer conteúdo já conhecido, nunca como CID de um documento novo.
+ */
+public class CidCalculator extends OutputStream {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_LINKS = 174;
+    private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    /**
+     * Nó já serializado: multihash, tamanho acumulado dos blocos (Tsize) e bytes de ficheiro que cobre.
+     */
+    private static final class Link {
+        final byte[] multihash;
+        final long blockSize;
+        final long fileSize;
+
+        Link(byte[] multihash, long blockSize, long fileSize) {
+            this.multihash = multihash;
+            this.blockSize = blockSize;
+            this.fileSize = fileSize;
+        }
+    }
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkFill;
+    // levels.get(0) são folhas; levels.get(n) nós com profundidade n ainda não agrupados
+    private final List<List<Link>> levels = new ArrayList<>();
+    private final MessageDigest sha256;
+    private String cid;
+
+    public CidCalculator() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (cid != null) throw new IllegalStateException("CID already computed");
+        while (len > 0) {
+            if (chunkFill == CHUNK_SIZE) {
+                flushChunk();
+            }
+            int n = Math.min(len, CHUNK_SIZE - chunkFill);
+            System.arraycopy(b, off, chunk, chunkFill, n);
+            chunkFill += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return o CIDv0 ("Qm...") do conteúdo escrito; depois disto não se pode escrever mais
+     */
+    public String getCid() {
+        if (cid != null) return cid;
+        if (chunkFill > 0 || levels.isEmpty()) {
+            flushChunk();
+        }
+        // fechar os níveis de baixo para cima; um nível sozinho com uma entrada é a raiz
+        for (int depth = 0; ; depth++) {
+            List<Link> level = levels.get(depth);
+            if (level.isEmpty()) continue;
+            boolean top = depth == levels.size() - 1;
+            if (top && level.size() == 1) {
+                cid = base58(level.get(0).multihash);
+                return cid;
+            }
+            seal(depth);
+        }
+    }
+
+    @Override
+    public void close() {
+        getCid();
+    }
+
+    private void flushChunk() {
+        byte[] data = Arrays.copyOf(chunk, chunkFill);
+        // UnixFS {Type=File, Data, filesize}; um ficheiro vazio não leva o campo Data
+        ByteArrayOutputStream unixfs = new ByteArrayOutputStream(chunkFill + 16);
+        writeVarintField(unixfs, 1, 2);
+        if (data.length > 0) {
+            writeBytesField(unixfs, 2, data);
+        }
+        writeVarintField(unixfs, 3, data.length);
+        byte[] node = pbNode(new ByteArrayOutputStream(), unixfs.toByteArray());
+        chunkFill = 0;
+        add(0, new Link(multihash(node), node.length, data.length));
+    }
+
+    private void add(int depth, Link link) {
+        while (levels.size() <= depth) {
+            levels.add(new ArrayList<>());
+        }
+        List<Link> level = levels.get(depth);
+        if (level.size() == MAX_LINKS) {
+            // só agrupa quando chega a entrada seguinte: um nível cheio no fim pode ser a raiz
+            seal(depth);
+        }
+        level.add(link);
+    }
+
+    /**
+     * Agrupa as entradas de um nível num nó interno e passa-o ao nível de cima.
+     */
+    private void seal(int depth) {
+        List<Link> children = levels.get(depth);
+        ByteArrayOutputStream links = new ByteArrayOutputStream();
+        ByteArrayOutputStream unixfs = new ByteArrayOutputStream();
+        long fileSize = 0;
+        long blockSize = 0;
+        for (Link child : children) {
+            fileSize += child.fileSize;
+            blockSize += child.blockSize;
+        }
+        writeVarintField(unixfs, 1, 2);
+        writeVarintField(unixfs, 3, fileSize);
+        for (Link child : children) {
+            writeVarintField(unixfs, 4, child.fileSize);
+            // PBLink {Hash, Name="", Tsize}
+            ByteArrayOutputStream pbLink = new ByteArrayOutputStream();
+            writeBytesField(pbLink, 1, child.multihash);
+            writeBytesField(pbLink, 2, new byte[0]);
+            writeVarintField(pbLink, 3, child.blockSize);
+            writeBytesField(links, 2, pbLink.toByteArray());
+        }
+        byte[] node = pbNode(links, unixfs.toByteArray());
+        children.clear();
+        add(depth + 1, new Link(multihash(node), node.length + blockSize, fileSize));
+    }
+
+    /**
+     * PBNode serializado como no dag-pb: ligações (campo 2) antes dos dados (campo 1).
+     */
+    private static byte[] pbNode(ByteArrayOutputStream links, byte[] data) {
+        writeBytesField(links, 1, data);
+        return links.toByteArray();
+    }
+
+    private byte[] multihash(byte[] node) {
+        byte[] digest = sha256.digest(node);
+        byte[] mh = new byte[digest.length + 2];
+        mh[0] = 0x12; // sha2-256
+        mh[1] = 0x20; // 32 bytes
+        System.arraycopy(digest, 0, mh, 2, digest.length);
+        return mh;
+    }
+
+    private static void writeVarintField(ByteArrayOutputStream out, int field, long value) {
+        writeVarint(out, (long) field << 3);
+        writeVarint(out, value);
+    }
+
+    private static void writeBytesField(ByteArrayOutputStream out, int field, byte[] value) {
+        writeVarint(out, ((long) field << 3) | 2);
+        writeVarint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static String base58(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        BigInteger value = new BigInteger(1, bytes);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divRem = value.divideAndRemainder(base);
+            sb.append(BASE58.charAt(divRem[1].intValue()));
+            value = divRem[0];
+        }
+        for (int i = 0; i < bytes.length && bytes[i] == 0; i++) {
+            sb.append('1');
+        }
+        return sb.reverse().toString();
+    }
+}
@@ -0,0 +1,581 @@
+package com.sdt.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sdt.peers.LeaderElection;
+import com.sdt.peers.Sharding;
+import com.sdt.peers.StageEvent;
+import com.sdt.peers.Tracing;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Coleção de documentos independente: tópico(s), versões, coordenadores, storage e índices próprios.
+ *
+ * Encaminha cada documento para o shard dono do seu CID ({@link Sharding#shardFor}).
+ * Os metadados e a deteção de quase-duplicados são da coleção; versões, 2PC, embeddings e
+ * índice lexical vivem em cada {@link DocumentShard}.
+ *
+ * Com -Dleader.election.enabled=true várias instâncias servem a mesma coleção: a eleita
+ * ({@link LeaderElection}, votada pelos peers do shard 0) aceita escritas e as outras ficam em
+ * standby, a seguir o 2PC do líder e a indexar em segundo plano os documentos que ele confirma.
+ */
+public class DocumentCollection {
+    private final String name;
+    private final Path storageRoot;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final EmbeddingService embeddingService;
+    private final List<DocumentShard> shards;
+    private final MetadataStore metadataStore;
+    private final SearchService searchService;
+    // substituído por inteiro quando os embeddings são reindexados
+    private volatile NearDuplicateIndex nearDuplicateIndex;
+    private final NearDuplicateIndex.Policy defaultDuplicatePolicy;
+    private final IPFSClient ipfsClient;
+    private final LeaderElection election;
+    // indexação (texto, metadados, quase-duplicados) dos documentos confirmados por outro líder
+    private final ExecutorService standbyIndexer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "standby-indexer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param importLegacy migrar o layout antigo (storage/<cid>/...) para esta coleção
+     */
+    public DocumentCollection(String name, Path storageRoot, EmbeddingService embeddingService,
+                              IPFSClient ipfsClient, boolean importLegacy) throws Exception {
+        this.name = name;
+        this.storageRoot = storageRoot;
+        this.embeddingService = embeddingService;
+        this.ipfsClient = ipfsClient;
+        Files.createDirectories(storageRoot);
+        
+        // Shards: com um único shard mantém-se o layout antigo (<root>/embeddings, <root>/lexical.log)
+        int shardCount = Sharding.shardCount();
+        List<DocumentShard> created = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Path dir = shardCount == 1 ? storageRoot : storageRoot.resolve("shard-" + i);
+            created.add(new DocumentShard(i, Sharding.topicFor(Sharding.collectionTopic(name), i, shardCount), dir));
+        }
+        this.shards = Collections.unmodifiableList(created);
+        System.out.println("Collection " + name + " started " + shardCount + " shard(s) in " + storageRoot);
+        if (importLegacy) {
+            importLegacyEmbeddings();
+        }
+        
+        // Metadados num log compacto com índice em memória (substitui storage/<cid>/.name)
+        this.metadataStore = new MetadataStore(storageRoot.resolve("metadata.log"));
+        if (importLegacy) {
+            metadataStore.importLegacyLayout(storageRoot);
+        }
+        
+        // Pesquisa lexical (BM25) + vetorial sobre os documentos confirmados de todos os shards
+        this.searchService = new SearchService(shards, embeddingService, metadataStore);
+        
+        // Deteção de quase-duplicados (LSH) global, reconstruída a partir dos EmbeddingStores
+        this.defaultDuplicatePolicy = NearDuplicateIndex.Policy.valueOf(
+                System.getProperty("dedup.policy", "TAG").toUpperCase());
+        this.nearDuplicateIndex = buildNearDuplicateIndex();
+        
+        // Eleição do líder nos tópicos da coleção (desligada: esta instância é sempre o líder)
+        DocumentShard votingShard = shards.get(0);
+        List<String> topics = new ArrayList<>();
+        for (DocumentShard shard : shards) {
+            topics.add(shard.getTopic());
+        }
+        this.election = new LeaderElection(votingShard.getMessageBus(), votingShard.getTopic(), topics,
+                votingShard.getCoordinator().getMembership(), votingShard::getCurrentVersion);
+        if (election.isEnabled()) {
+            DocumentShard.Learner learner = new StandbyLearner();
+            for (DocumentShard shard : shards) {
+                shard.setElection(election, learner);
+            }
+            election.addListener((leader, term) -> {
+                if (!leader) {
+                    System.out.println("Collection " + name + ": now standby in term " + term);
+                    return;
+                }
+                for (DocumentShard shard : shards) {
+                    shard.takeOver(term);
+                }
+                System.out.println("Collection " + name + ": accepting writes as leader of term " + term);
+            });
+            election.start();
+        }
+    }
+
+    /**
+     * Documentos confirmados por outro líder: o embedding de um CID sem pedido de 2PC é
+     * recalculado a partir do IPFS; texto, metadados e quase-duplicados são indexados em
+     * segundo plano (o nome original do ficheiro não chega aos peers, fica o CID).
+     */
+    private class StandbyLearner implements DocumentShard.Learner {
+        @Override
+        public float[] embed(String cid) throws Exception {
+            File temp = Files.createTempFile("standby-", null).toFile();
+            try {
+                ipfsClient.download(cid, temp);
+                return embeddingService.generateEmbedding(temp, embeddingService.extractText(temp, cid));
+            } finally {
+                if (!temp.delete()) {
+                    temp.deleteOnExit();
+                }
+            }
+        }
+
+        @Override
+        public void onLearned(DocumentShard shard, int version, List<String> cids, List<float[]> embeddings) {
+            standbyIndexer.execute(() -> {
+                for (int i = 0; i < cids.size(); i++) {
+                    String cid = cids.get(i);
+                    File temp = null;
+                    try {
+                        if (i < embeddings.size() && embeddings.get(i) != null) {
+                            nearDuplicateIndex.add(cid, embeddings.get(i));
+                        }
+                        temp = Files.createTempFile("standby-", null).toFile();
+                        ipfsClient.download(cid, temp);
+                        shard.getLexicalIndex().addDocument(cid, embeddingService.extractText(temp, cid));
+                        metadataStore.put(cid, cid, temp.length(), embeddingService.detectMimeType(temp), version, null);
+                    } catch (Exception e) {
+                        System.err.println("Collection " + name + ": failed to index learned " + cid + ": " + e.getMessage());
+                    } finally {
+                        if (temp != null && !temp.delete()) {
+                            temp.deleteOnExit();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Eleição do líder da coleção; sem eleição ativa esta instância é sempre o líder.
+     */
+    public LeaderElection getElection() {
+        return election;
+    }
+
+    public Map<String, Object> getLeaderStatus() {
+        Map<String, Object> status = new LinkedHashMap<>(election.getStatus());
+        int[] versions = new int[shards.size()];
+        for (DocumentShard shard : shards) {
+            versions[shard.getShardId()] = shard.getCurrentVersion();
+        }
+        status.put("version", versionToken(versions));
+        return status;
+    }
+
+    private NearDuplicateIndex buildNearDuplicateIndex() {
+        // os vetores dos candidatos são lidos dos stores dos shards (sem cópia no heap)
+        NearDuplicateIndex index = new NearDuplicateIndex(EmbeddingService.EMBEDDING_DIM,
+                Double.parseDouble(System.getProperty("dedup.threshold", "0.97")),
+                cid -> shardFor(cid).getEmbeddingStore().view(cid));
+        for (DocumentShard shard : shards) {
+            shard.getEmbeddingStore().scan((storedCid, storedVersion, vec) -> {
+                float[] copy = new float[vec.remaining()];
+                vec.get(copy);
+                index.add(storedCid, copy);
+            });
+        }
+        return index;
+    }
+
+    /**
+     * Reconstrói o índice de quase-duplicados depois de os shards trocarem de embeddings.
+     */
+    public void rebuildNearDuplicateIndex() {
+        nearDuplicateIndex = buildNearDuplicateIndex();
+    }
+
+    public DocumentShard shardFor(String cid) {
+        return shards.get(Sharding.shardFor(cid, shards.size()));
+    }
+
+    public UploadResult addDocumentAndPropagate(File storedFile, String cid) throws Exception {
+        return addDocumentAndPropagate(storedFile, cid, storedFile.getName(), defaultDuplicatePolicy);
+    }
+
+    public UploadResult addDocumentAndPropagate(File storedFile, String cid, String filename,
+                                                             NearDuplicateIndex.Policy duplicatePolicy) throws Exception {
+        UploadResult result = addDocumentsAndPropagate(List.of(prepare(storedFile, cid, filename)), duplicatePolicy).get(0);
+        if (UploadResult.FAILED.equals(result.getStatus())) {
+            throw new RuntimeException(result.getError());
+        }
+        return result;
+    }
+
+    /**
+     * Resultado para um CID que já está na coleção, sem repetir IPFS, embedding nem 2PC:
+     * ALREADY_COMMITTED se está no vetor, DUPLICATE_LINKED se foi registado como alias.
+     *
+     * @return o resultado, ou null se o CID é novo
+     */
+    public UploadResult findExisting(String cid) {
+        if (cid == null) return null;
+        DocumentShard shard = shardFor(cid);
+        DocumentMetadata meta = metadataStore.get(cid);
+        int version = shard.committedVersionOf(cid);
+        if (version >= 0) {
+            return new UploadResult(cid, version, UploadResult.ALREADY_COMMITTED,
+                    meta != null ? meta.getDuplicateOf() : null, null, readToken(shard, version));
+        }
+        if (meta != null && meta.getDuplicateOf() != null) {
+            // o alias só vale se o original estiver no vetor desta execução
+            DocumentShard originalShard = shardFor(meta.getDuplicateOf());
+            int originalVersion = originalShard.committedVersionOf(meta.getDuplicateOf());
+            if (originalVersion < 0) return null;
+            return new UploadResult(cid, originalVersion, UploadResult.DUPLICATE_LINKED, meta.getDuplicateOf(), null,
+                    readToken(originalShard, originalVersion));
+        }
+        return null;
+    }
+
+    /**
+     * Documento já adicionado ao IPFS, com texto e embedding calculados, pronto para entrar numa versão.
+     */
+    public static class PreparedDocument {
+        private final File file;
+        private final String cid;
+        private final String filename;
+        private final String text;
+        private final float[] embedding;
+
+        public PreparedDocument(File file, String cid, String filename, String text, float[] embedding) {
+            this.file = file;
+            this.cid = cid;
+            this.filename = filename;
+            this.text = text;
+            this.embedding = embedding;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public String getCid() {
+            return cid;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+    }
+
+    /**
+     * Extrai o texto e gera o embedding (pode correr em paralelo para vários documentos).
+     */
+    public PreparedDocument prepare(File storedFile, String cid, String filename) throws Exception {
+        // Gerar embeddings semânticos REAIS usando all-MiniLM-L6-v2
+        String trace = Tracing.tag(Tracing.current());
+        System.out.println(trace + "Generating semantic embeddings for " + storedFile.getName() + "...");
+        StageEvent extract = Tracing.stage("text.extract", "leader");
+        String text = embeddingService.extractText(storedFile, cid);
+        extract.finish(null, 0, cid + " (" + (text != null ? text.length() : 0) + " chars)");
+        StageEvent inference = Tracing.stage("embedding.inference", "leader");
+        float[] embedding = embeddingService.generateEmbedding(storedFile, text);
+        inference.finish(null, 0, cid);
+        System.out.println(trace + "Embeddings generated: " + embedding.length + " dimensions");
+        return new PreparedDocument(storedFile, cid, filename, text, embedding);
+    }
+
+    /**
+     * Aplica a política de quase-duplicados a cada documento e confirma os restantes com uma
+     * única ronda de 2PC (uma versão) por shard envolvido.
+     *
+     * @return um resultado por documento, pela ordem recebida (FAILED se o 2PC do shard falhar)
+     */
+    public List<UploadResult> addDocumentsAndPropagate(List<PreparedDocument> documents,
+                                                       NearDuplicateIndex.Policy duplicatePolicy) {
+        UploadResult[] results = new UploadResult[documents.size()];
+        String[] duplicateOf = new String[documents.size()];
+        // quase-duplicado de um documento anterior do mesmo pedido (índice do original), resolvido após o commit
+        int[] sameBatchOriginal = new int[documents.size()];
+        Double[] similarity = new Double[documents.size()];
+        Arrays.fill(sameBatchOriginal, -1);
+        Map<DocumentShard, List<Integer>> toCommit = new LinkedHashMap<>();
+        Map<String, Integer> seenInBatch = new HashMap<>();
+        // os documentos do pedido só entram no índice global depois do commit
+        NearDuplicateIndex batchIndex = new NearDuplicateIndex(EmbeddingService.EMBEDDING_DIM, nearDuplicateIndex.getThreshold());
+
+        for (int i = 0; i < documents.size(); i++) {
+            PreparedDocument doc = documents.get(i);
+            // O mesmo conteúdo duas vezes no mesmo pedido: só entra uma vez
+            if (seenInBatch.putIfAbsent(doc.cid, i) != null) {
+                continue;
+            }
+            // Já confirmado num pedido anterior: não voltar a acrescentá-lo ao vetor
+            UploadResult existing = findExisting(doc.cid);
+            if (existing != null) {
+                results[i] = existing;
+                continue;
+            }
+            try {
+                // Verificar quase-duplicados antes de gastar uma ronda de 2PC
+                if (duplicatePolicy != NearDuplicateIndex.Policy.OFF) {
+                    NearDuplicateIndex.Match match = nearDuplicateIndex.findNearDuplicate(doc.cid, doc.embedding);
+                    // um original que não está no vetor desta execução (ver findExisting) não conta
+                    if (match != null && shardFor(match.getCid()).committedVersionOf(match.getCid()) < 0) {
+                        match = null;
+                    }
+                    NearDuplicateIndex.Match batchMatch = match == null ? batchIndex.findNearDuplicate(doc.cid, doc.embedding) : null;
+                    if (match != null) {
+                        System.out.println("Collection " + name + ": " + doc.cid + " is a near-duplicate of " + match.getCid() +
+                                           " (similarity=" + match.getSimilarity() + ", policy=" + duplicatePolicy + ")");
+                        DocumentShard originalShard = shardFor(match.getCid());
+                        int originalVersion = originalShard.committedVersionOf(match.getCid());
+                        String originalToken = readToken(originalShard, originalVersion);
+                        switch (duplicatePolicy) {
+                            case SKIP:
+                                results[i] = new UploadResult(match.getCid(), originalVersion, UploadResult.DUPLICATE_SKIPPED,
+                                        match.getCid(), match.getSimilarity(), originalToken);
+                                continue;
+                            case LINK:
+                                // Não entra no vetor: fica só registado como alias do original
+                                metadataStore.put(doc.cid, doc.filename, doc.file.length(), embeddingService.detectMimeType(doc.file),
+                                        originalVersion, match.getCid());
+                                results[i] = new UploadResult(doc.cid, originalVersion, UploadResult.DUPLICATE_LINKED,
+                                        match.getCid(), match.getSimilarity(), originalToken);
+                                continue;
+                            default:
+                                duplicateOf[i] = match.getCid();
+                        }
+                    } else if (batchMatch != null) {
+                        System.out.println("Collection " + name + ": " + doc.cid + " is a near-duplicate of " + batchMatch.getCid() +
+                                           " in the same request (similarity=" + batchMatch.getSimilarity() +
+                                           ", policy=" + duplicatePolicy + ")");
+                        if (duplicatePolicy != NearDuplicateIndex.Policy.TAG) {
+                            sameBatchOriginal[i] = seenInBatch.get(batchMatch.getCid());
+                            similarity[i] = batchMatch.getSimilarity();
+                            continue;
+                        }
+                        duplicateOf[i] = batchMatch.getCid();
+                    }
+                }
+            } catch (Exception e) {
+                results[i] = UploadResult.failed(doc.cid, e.getMessage());
+                continue;
+            }
+            batchIndex.add(doc.cid, doc.embedding);
+            toCommit.computeIfAbsent(shardFor(doc.cid), s -> new ArrayList<>()).add(i);
+        }
+
+        // 2PC no grupo de peers de cada shard (uma versão com todos os documentos do shard)
+        for (Map.Entry<DocumentShard, List<Integer>> entry : toCommit.entrySet()) {
+            DocumentShard shard = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            List<String> cids = new ArrayList<>(indexes.size());
+            List<float[]> embeddings = new ArrayList<>(indexes.size());
+            List<String> texts = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                PreparedDocument doc = documents.get(i);
+                cids.add(doc.cid);
+                embeddings.add(doc.embedding);
+                texts.add(doc.text);
+            }
+            try {
+                DocumentShard.CommitResult commit = shard.commit(cids, embeddings, texts);
+                int newVersion = commit.getVersion();
+                String token = readToken(shard, newVersion);
+                for (int i : indexes) {
+                    PreparedDocument doc = documents.get(i);
+                    int existingVersion = commit.existingVersionOf(doc.cid);
+                    if (existingVersion >= 0) {
+                        // confirmado por um pedido concorrente depois do findExisting
+                        DocumentMetadata meta = metadataStore.get(doc.cid);
+                        results[i] = new UploadResult(doc.cid, existingVersion, UploadResult.ALREADY_COMMITTED,
+                                meta != null ? meta.getDuplicateOf() : null, null, readToken(shard, existingVersion));
+                        continue;
+                    }
+                    metadataStore.put(doc.cid, doc.filename, doc.file.length(), embeddingService.detectMimeType(doc.file),
+                            newVersion, duplicateOf[i]);
+                    nearDuplicateIndex.add(doc.cid, doc.embedding);
+                    results[i] = new UploadResult(doc.cid, newVersion, UploadResult.COMMITTED, duplicateOf[i], null, token);
+                }
+            } catch (Exception e) {
+                System.err.println("Collection " + name + ": commit of " + cids.size() + " document(s) on shard " +
+                                   shard.getShardId() + " failed: " + e.getMessage());
+                for (int i : indexes) {
+                    results[i] = UploadResult.failed(documents.get(i).cid, e.getMessage());
+                }
+            }
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) continue;
+            PreparedDocument doc = documents.get(i);
+            if (sameBatchOriginal[i] < 0) {
+                // Repetição exata dentro do pedido: o resultado da primeira ocorrência
+                results[i] = results[seenInBatch.get(doc.cid)];
+                continue;
+            }
+            UploadResult original = results[sameBatchOriginal[i]];
+            if (!UploadResult.COMMITTED.equals(original.getStatus())) {
+                results[i] = UploadResult.failed(doc.cid, "near-duplicate of " + original.getCid() + " which was not committed");
+            } else if (duplicatePolicy == NearDuplicateIndex.Policy.SKIP) {
+                results[i] = new UploadResult(original.getCid(), original.getVersion(), UploadResult.DUPLICATE_SKIPPED,
+                        original.getCid(), similarity[i], original.getReadToken());
+            } else {
+                try {
+                    metadataStore.put(doc.cid, doc.filename, doc.file.length(), embeddingService.detectMimeType(doc.file),
+                            original.getVersion(), original.getCid());
+                    results[i] = new UploadResult(doc.cid, original.getVersion(), UploadResult.DUPLICATE_LINKED,
+                            original.getCid(), similarity[i], original.getReadToken());
+                } catch (Exception e) {
+                    results[i] = UploadResult.failed(doc.cid, e.getMessage());
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Token read-your-writes: "v" com um único shard, "shard:v" com vários.
+     */
+    private String readToken(DocumentShard shard, int version) {
+        return shards.size() == 1 ? String.valueOf(version) : shard.getShardId() + ":" + version;
+    }
+
+    /**
+     * Token com uma versão por shard ("v" com um único shard, "0:v0,1:v1,..." com vários).
+     */
+    public String versionToken(int[] versionsPerShard) {
+        if (shards.size() == 1) return String.valueOf(versionsPerShard[0]);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < versionsPerShard.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(i).append(':').append(versionsPerShard[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converte um ou mais tokens de versão ("v", "shard:v", separados por vírgulas) na versão
+     * de cada shard. Um "v" sem shard aplica-se a todos os shards. Usado para minVersion e since.
+     *
+     * @throws IllegalArgumentException se o token for inválido
+     */
+    public int[] parseVersionToken(String token) {
+        int[] minVersions = new int[shards.size()];
+        if (token == null || token.isBlank()) return minVersions;
+        for (String part : token.split(",")) {
+            String[] fields = part.trim().split(":");
+            if (fields.length == 1) {
+                int version = Integer.parseInt(fields[0]);
+                for (int i = 0; i < minVersions.length; i++) {
+                    minVersions[i] = Math.max(minVersions[i], version);
+                }
+            } else if (fields.length == 2) {
+                int shard = Integer.parseInt(fields[0]);
+                if (shard < 0 || shard >= minVersions.length) {
+                    throw new IllegalArgumentException("Unknown shard " + shard);
+                }
+                minVersions[shard] = Math.max(minVersions[shard], Integer.parseInt(fields[1]));
+            } else {
+                throw new IllegalArgumentException("Invalid version token " + part);
+            }
+        }
+        return minVersions;
+    }
+
+    /**
+     * Migra uma única vez os antigos storage/<cid>/.embedding.json para o EmbeddingStore
+     * do shard dono de cada CID.
+     */
+    private void importLegacyEmbeddings() {
+        for (DocumentShard shard : shards) {
+            if (shard.getEmbeddingStore().size() > 0) return;
+        }
+        try (Stream<Path> dirs = Files.list(storageRoot)) {
+            List<Path> legacy = dirs.map(d -> d.resolve(".embedding.json")).filter(Files::exists).toList();
+            for (Path embPath : legacy) {
+                try {
+                    JsonNode node = mapper.readTree(embPath.toFile());
+                    float[] embedding = mapper.convertValue(node.get("embedding"), float[].class);
+                    if (embedding.length != EmbeddingService.EMBEDDING_DIM) continue;
+                    String legacyCid = node.get("cid").asText();
+                    shardFor(legacyCid).getEmbeddingStore().append(legacyCid, node.get("version").asInt(), embedding);
+                } catch (Exception e) {
+                    System.err.println("Collection " + name + ": failed to import " + embPath + ": " + e.getMessage());
+                }
+            }
+            if (!legacy.isEmpty()) {
+                System.out.println("Collection " + name + ": imported " + legacy.size() + " legacy embeddings");
+            }
+        } catch (Exception e) {
+            System.err.println("Collection " + name + ": legacy embedding import failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Vetor atual do shard 0 (com um único shard é o vetor completo de documentos).
+     */
+    public List<String> getVector() {
+        return shards.get(0).getVector();
+    }
+    
+    public int getCurrentVersion() {
+        return shards.get(0).getCurrentVersion();
+    }
+    
+    public List<DocumentShard> getShards() {
+        return shards;
+    }
+    
+    public NearDuplicateIndex.Policy getDefaultDuplicatePolicy() {
+        return defaultDuplicatePolicy;
+    }
+    
+    public List<SearchService.SearchResult> search(String query, int k, SearchService.Mode mode, double alpha) throws Exception {
+        return searchService.search(query, k, mode, alpha);
+    }
+    
+    public Map<String, Object> getSearchCacheStats() {
+        return searchService.getCacheStats();
+    }
+
+    public List<SearchService.SearchResult> search(String query, int k, SearchService.Mode mode, double alpha,
+                                                   int[] minVersions) throws Exception {
+        return searchService.search(query, k, mode, alpha, minVersions);
+    }
+    
+    public DocumentMetadata getMetadata(String cid) {
+        return metadataStore.get(cid);
+    }
+    
+    public Collection<DocumentMetadata> listDocuments() {
+        return metadataStore.list();
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public Path getStorageRoot() {
+        return storageRoot;
+    }
+    
+    public void shutdown() {
+        election.shutdown();
+        standbyIndexer.shutdownNow();
+        searchService.shutdown();
+        for (DocumentShard shard : shards) {
+            shard.shutdown();
+        }
+        metadataStore.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package com.sdt.api;
+
+/**
+ * Metadados de um documento guardados no MetadataStore.
+ */
+public final class DocumentMetadata {
+    private final String cid;
+    private final String filename;
+    private final long size;
+    private final String mimeType;
+    private final int version;
+    private final long createdAt;
+    private final long updatedAt;
+    private final String duplicateOf;
+
+    public DocumentMetadata(String cid, String filename, long size, String mimeType,
+                            int version, long createdAt, long updatedAt) {
+        this(cid, filename, size, mimeType, version, createdAt, updatedAt, null);
+    }
+
+    public DocumentMetadata(String cid, String filename, long size, String mimeType,
+                            int version, long createdAt, long updatedAt, String duplicateOf) {
+        this.cid = cid;
+        this.filename = filename;
+        this.size = size;
+        this.mimeType = mimeType;
+        this.version = version;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.duplicateOf = duplicateOf;
+    }
+
+    public String getCid() {
+        return cid;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * CID do documento de que este é quase-duplicado (ou null).
+     */
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+}
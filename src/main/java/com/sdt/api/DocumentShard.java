@@ -0,0 +1,814 @@
+package com.sdt.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sdt.peers.ClusterMembership;
+import com.sdt.peers.LeaderCoordinator;
+import com.sdt.peers.LeaderElection;
+import com.sdt.peers.MessageBus;
+import com.sdt.peers.StageEvent;
+import com.sdt.peers.Tracing;
+import com.sdt.peers.VersionHistory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Um shard do espaço de documentos: tópico pubsub, sequência de versões, grupo de 2PC
+ * (LeaderCoordinator + peers do tópico), EmbeddingStore e índice lexical próprios.
+ * Shards diferentes confirmam em paralelo; dentro de um shard os commits são sequenciais.
+ *
+ * Com eleição do líder ativa, um shard de uma instância em standby aprende as versões do líder
+ * (guarda os pedidos do 2PC e aplica-os quando chega o commit), para que ao ser eleito só tenha
+ * de recuperar o que perdeu e decidir a versão que o líder anterior deixou em curso.
+ */
+public class DocumentShard {
+
+    /**
+     * Ligação à coleção para os documentos confirmados por outro líder.
+     */
+    public interface Learner {
+        /**
+         * Embedding de um CID cujo pedido de 2PC não foi visto (ex. recuperado de um peer).
+         */
+        float[] embed(String cid) throws Exception;
+
+        /**
+         * Documentos aplicados na versão (o resto da indexação corre em segundo plano).
+         */
+        void onLearned(DocumentShard shard, int version, List<String> cids, List<float[]> embeddings);
+    }
+
+    /**
+     * Pedido de 2PC de outro líder, à espera do commit.
+     */
+    private static final class LearnedVersion {
+        final List<String> cids;
+        final List<float[]> embeddings;
+
+        LearnedVersion(List<String> cids, List<float[]> embeddings) {
+            this.cids = cids;
+            this.embeddings = embeddings;
+        }
+    }
+
+    private static final int MAX_LEARNED_PENDING = 64;
+    private static final int CATCH_UP_PAGE = 1000;
+
+    private final int shardId;
+    private final String topic;
+    private final Path storageDir;
+    // alterações (versão, CID): o vetor na versão v são os CIDs com versão <= v; as versões
+    // antigas vivem em segmentos no disco (ver VersionHistory). Lê-se sempre até à versão confirmada.
+    private final VersionHistory history;
+    private final ObjectMapper mapper = new ObjectMapper();
+    // versão confirmada, store de embeddings e geração, publicados juntos (ver Committed)
+    private volatile Committed committed;
+    private final LexicalIndex lexicalIndex;
+    private final LeaderCoordinator coordinator;
+    private final FollowerReadRouter readRouter;
+    private final VectorSearchCache searchCache = new VectorSearchCache();
+    // serializa as rondas de 2PC; o monitor do shard só protege o estado (as leituras não esperam pelo 2PC)
+    private final Object commitLock = new Object();
+    // eleição do líder (null = este processo é sempre o líder) e estado de standby
+    private volatile LeaderElection election;
+    private volatile Learner learner;
+    private final Map<Integer, LearnedVersion> learned = new TreeMap<>();
+    private final ExecutorService standbyExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "shard-standby");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final MessageBus bus = MessageBus.fromSystemProperties();
+    private static final String EMBEDDINGS_POINTER = "embeddings.current";
+    private MessageBus.Subscription subscription;
+
+    public DocumentShard(int shardId, String topic, Path storageDir) throws Exception {
+        this.shardId = shardId;
+        this.topic = topic;
+        this.storageDir = storageDir;
+        Files.createDirectories(storageDir);
+
+        // Embeddings num único ficheiro binário append-only (substitui os .embedding.json por CID).
+        // O diretório em uso vem de embeddings.current ("embeddings" até à primeira reindexação).
+        Path pointer = storageDir.resolve(EMBEDDINGS_POINTER);
+        String embeddingsDir = Files.exists(pointer) ? Files.readString(pointer).trim() : "embeddings";
+        int generation = embeddingsDir.startsWith("embeddings-g") ? Integer.parseInt(embeddingsDir.substring(12)) : 0;
+        this.committed = new Committed(0, openEmbeddingStore(embeddingsDir), generation, new ConcurrentHashMap<>());
+
+        this.history = new VersionHistory(storageDir.resolve("history"));
+
+        // Índice lexical (BM25) dos documentos confirmados neste shard
+        this.lexicalIndex = new LexicalIndex(storageDir.resolve("lexical.log"));
+
+        // Coordenador do grupo de peers deste shard (membros vistos nos heartbeats, guardados em "members")
+        this.coordinator = new LeaderCoordinator(ClusterMembership.fromSystemProperties(storageDir.resolve("members")),
+                topic, bus);
+        this.readRouter = new FollowerReadRouter(coordinator.getMembership());
+
+        startPubSubSubscriber();
+    }
+
+    /**
+     * Corre o 2PC para acrescentar o CID ao vetor deste shard e, se houver consenso,
+     * guarda o embedding e indexa o texto.
+     *
+     * @return a nova versão do shard, ou a versão em que o CID já estava confirmado
+     */
+    public int commit(String cid, float[] embedding, String text) throws Exception {
+        CommitResult result = commit(List.of(cid), List.of(embedding), Collections.singletonList(text));
+        int existing = result.existingVersionOf(cid);
+        return existing >= 0 ? existing : result.getVersion();
+    }
+
+    /**
+     * Resultado de {@link #commit(List, List, List)}: a versão criada (ou a atual, se todos os CIDs
+     * já estavam confirmados) e a versão dos CIDs que já estavam no vetor e ficaram fora da ronda.
+     */
+    public static final class CommitResult {
+        private final int version;
+        private final Map<String, Integer> existing;
+
+        CommitResult(int version, Map<String, Integer> existing) {
+            this.version = version;
+            this.existing = existing;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return versão em que o CID já estava confirmado, ou -1 se entrou nesta versão
+         */
+        public int existingVersionOf(String cid) {
+            return existing.getOrDefault(cid, -1);
+        }
+    }
+
+    /**
+     * Uma única ronda de 2PC (uma versão) que acrescenta vários CIDs ao vetor, pela ordem dada.
+     * Usado pelo upload em bulk para não gastar uma ronda por documento.
+     *
+     * Os CIDs já confirmados são verificados de novo com o commitLock (o findExisting do pedido
+     * corre antes e dois uploads do mesmo conteúdo podem passar ambos por ele) e ficam fora da ronda.
+     */
+    public CommitResult commit(List<String> requestedCids, List<float[]> requestedEmbeddings,
+                               List<String> requestedTexts) throws Exception {
+        LeaderElection current = election;
+        if (current != null && !current.isLeader()) {
+            throw new NotLeaderException("Shard " + shardId + " is not the leader", current.getLeaderUrl());
+        }
+        String trace = Tracing.tag(Tracing.current());
+        // inclui a espera pelo commitLock (rondas anteriores do mesmo shard)
+        StageEvent commitStage = Tracing.stage("shard.commit", "leader");
+        synchronized (commitLock) {
+            Map<String, Integer> existing = new HashMap<>();
+            List<String> cids = new ArrayList<>(requestedCids.size());
+            List<float[]> embeddings = new ArrayList<>(requestedCids.size());
+            List<String> texts = new ArrayList<>(requestedCids.size());
+            for (int i = 0; i < requestedCids.size(); i++) {
+                String cid = requestedCids.get(i);
+                int version = committedVersionOf(cid);
+                if (version >= 0) {
+                    existing.put(cid, version);
+                } else {
+                    cids.add(cid);
+                    embeddings.add(requestedEmbeddings.get(i));
+                    texts.add(requestedTexts.get(i));
+                }
+            }
+            if (cids.isEmpty()) {
+                System.out.println(trace + "Shard " + shardId + ": " + existing.size() + " cid(s) already committed, no 2PC");
+                commitStage.finish(topic, getCurrentVersion(), "already committed");
+                return new CommitResult(getCurrentVersion(), existing);
+            }
+
+            // Calcular próxima versão
+            int newVersion = getCurrentVersion() + 1;
+            String label = cids.size() == 1 ? "cid=" + cids.get(0) : "cids=" + cids.size();
+
+            // Fase 1 e 2 do 2PC: Coordenar atualização com peers
+            System.out.println(trace + "Shard " + shardId + ": Starting 2PC for v" + newVersion + " " + label);
+            boolean consensusAchieved = coordinator.coordinateUpdate(newVersion, cids, embeddings);
+
+            if (!consensusAchieved) {
+                System.err.println(trace + "Shard " + shardId + ": Failed to achieve consensus for v" + newVersion);
+                commitStage.finish(topic, newVersion, "no consensus");
+                throw new RuntimeException("Failed to achieve consensus with peers");
+            }
+
+            // Consensus alcançado! Guardar embeddings e atualizar versão local
+            StageEvent indexStage = Tracing.stage("shard.index", "leader");
+            // registados antes de entrarem no store: as pesquisas do snapshot atual ignoram-nos
+            committed.addCids(cids, newVersion);
+            try {
+                for (int i = 0; i < cids.size(); i++) {
+                    String cid = cids.get(i);
+                    committed.store.append(cid, newVersion, embeddings.get(i));
+                    try {
+                        lexicalIndex.addDocument(cid, texts.get(i));
+                    } catch (Exception e) {
+                        System.err.println("Shard " + shardId + ": failed to index " + cid + ": " + e.getMessage());
+                    }
+                }
+
+                // fora do monitor (pode compactar para o disco); só fica visível com o novo snapshot
+                history.append(newVersion, cids);
+            } catch (IOException | RuntimeException e) {
+                // a versão não é publicada e o número será reutilizado pelo próximo commit
+                committed.removeCids(cids, newVersion);
+                throw e;
+            }
+            int size;
+            synchronized (this) {
+                committed = committed.withVersion(newVersion);
+                size = history.size();
+            }
+            indexStage.finish(topic, newVersion, label);
+            commitStage.finish(topic, newVersion, label);
+
+            System.out.println(trace + "Shard " + shardId + ": Committed v" + newVersion + " " + label + " vectorSize=" + size);
+
+            return new CommitResult(newVersion, existing);
+        }
+    }
+
+    private EmbeddingStore openEmbeddingStore(String dirName) throws IOException {
+        int rowsPerSegment = Integer.parseInt(System.getProperty("embeddings.segment.rows", "65536"));
+        return new EmbeddingStore(storageDir.resolve(dirName), EmbeddingService.EMBEDDING_DIM, rowsPerSegment);
+    }
+
+    /**
+     * Store sombra onde a reindexação escreve a geração seguinte (reaberto se já existir, para retomar).
+     */
+    public EmbeddingStore openShadowStore(int generation) throws IOException {
+        return openEmbeddingStore("embeddings-g" + generation);
+    }
+
+    /**
+     * Apaga o store sombra de uma reindexação abandonada.
+     */
+    public void discardShadowStore(int generation) throws IOException {
+        deleteRecursively(storageDir.resolve("embeddings-g" + generation));
+    }
+
+    /**
+     * Envia aos peers um lote de embeddings da geração seguinte (aplicados só no embedding_switch).
+     */
+    public void publishEmbeddingRefresh(int generation, List<String> cids, List<float[]> embeddings) throws Exception {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", "embedding_refresh");
+        root.put("generation", generation);
+        root.set("cids", mapper.valueToTree(cids));
+        root.set("embeddings", mapper.valueToTree(embeddings));
+        bus.publish(topic, "leader", mapper.writeValueAsString(root));
+    }
+
+    /**
+     * Passa a usar o store sombra (troca atómica do ficheiro embeddings.current).
+     *
+     * Os CIDs confirmados depois de {@code baseVersion} (início da reindexação) já foram embebidos
+     * com o modelo atual e são copiados do store em uso; todos os outros do store em uso
+     * (incluindo os de execuções anteriores) têm de estar no sombra, porque o store em uso é
+     * apagado. Corre com os commits parados, pelo que nenhum documento fica de fora.
+     */
+    public void switchEmbeddings(EmbeddingStore shadow, int generation, int baseVersion) throws Exception {
+        synchronized (commitLock) {
+            EmbeddingStore current = committed.store;
+            List<String> toCopy = new ArrayList<>();
+            int[] missing = {0};
+            current.scan((cid, version, vector) -> {
+                if (shadow.contains(cid)) return;
+                if (committedVersionOf(cid) > baseVersion) {
+                    toCopy.add(cid);
+                } else {
+                    missing[0]++;
+                }
+            });
+            if (missing[0] > 0) {
+                throw new IllegalStateException(missing[0] + " document(s) of shard " + shardId + " not reindexed");
+            }
+            for (String cid : toCopy) {
+                shadow.append(cid, current.getVersion(cid), current.get(cid));
+            }
+
+            Path pointer = storageDir.resolve(EMBEDDINGS_POINTER);
+            Path tmp = storageDir.resolve(EMBEDDINGS_POINTER + ".tmp");
+            Files.writeString(tmp, "embeddings-g" + generation);
+            Files.move(tmp, pointer, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            int previousGeneration;
+            synchronized (this) {
+                previousGeneration = committed.generation;
+                committed = new Committed(committed.version, shadow, generation, committed.versions);
+            }
+            searchCache.clear();
+
+            ObjectNode root = mapper.createObjectNode();
+            root.put("type", "embedding_switch");
+            root.put("generation", generation);
+            root.put("baseVersion", baseVersion);
+            bus.publish(topic, "leader", mapper.writeValueAsString(root));
+            System.out.println("Shard " + shardId + ": switched to embedding generation " + generation +
+                               " (" + shadow.size() + " vectors)");
+
+            // pesquisas em curso continuam válidas: os buffers mapeados sobrevivem ao fecho do canal
+            current.close();
+            deleteRecursively(storageDir.resolve(previousGeneration == 0 ? "embeddings" : "embeddings-g" + previousGeneration));
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public int getEmbeddingGeneration() {
+        return committed.generation;
+    }
+
+    /**
+     * @return a versão em que o CID entrou no vetor deste shard, ou -1 se não está no vetor
+     *         confirmado (o EmbeddingStore guarda também documentos de execuções anteriores, que
+     *         já não estão no vetor nem no histórico)
+     */
+    public int committedVersionOf(String cid) {
+        return committed.versionOf(cid);
+    }
+
+    /**
+     * Alterações depois de {@code since} (no máximo {@code limit}, sem partir uma versão a meio),
+     * servidas por um peer quando possível, senão pelo líder. Inclui sempre pelo menos {@code minVersion}.
+     */
+    public VersionsPage readChanges(int since, int limit, int minVersion) {
+        JsonNode fromPeer = readRouter.readChanges(since, limit, minVersion, getCurrentVersion());
+        if (fromPeer != null) {
+            List<VersionChange> changes = new ArrayList<>();
+            for (JsonNode change : fromPeer.path("changes")) {
+                changes.add(new VersionChange(change.get("version").asInt(), change.get("cid").asText()));
+            }
+            return new VersionsPage(shardId, topic, fromPeer.path("currentVersion").asInt(), since,
+                    changes, fromPeer.path("hasMore").asBoolean(), fromPeer.path("peer").asText());
+        }
+        return localPage(since, getCurrentVersion(), limit);
+    }
+
+    /**
+     * CIDs do vetor na versão {@code upTo}, sempre lidos no líder: o histórico é lido à medida que
+     * o iterador avança, em páginas de {@code pageSize} alterações (mais o resto de uma versão),
+     * pelo que a memória usada não depende do tamanho do vetor.
+     */
+    public Iterator<String> vectorIterator(int upTo, int pageSize) {
+        return new Iterator<>() {
+            private int since = 0;
+            private boolean more = true;
+            private Iterator<VersionHistory.Change> page = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && more) {
+                    VersionHistory.Page next;
+                    try {
+                        next = history.read(since, upTo, pageSize);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    List<VersionHistory.Change> changes = next.getChanges();
+                    more = next.hasMore() && !changes.isEmpty();
+                    if (!changes.isEmpty()) {
+                        since = changes.get(changes.size() - 1).getVersion();
+                    }
+                    page = changes.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.next().getCid();
+            }
+        };
+    }
+
+    /**
+     * Alterações em (since, upTo]; as versões antigas são lidas dos segmentos do histórico e
+     * uma versão nunca fica partida entre páginas.
+     */
+    private VersionsPage localPage(int since, int upTo, int limit) {
+        VersionHistory.Page page;
+        try {
+            page = history.read(since, upTo, limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<VersionChange> changes = new ArrayList<>(page.getChanges().size());
+        for (VersionHistory.Change change : page.getChanges()) {
+            changes.add(new VersionChange(change.getVersion(), change.getCid()));
+        }
+        return new VersionsPage(shardId, topic, upTo, since, changes, page.hasMore(), "leader");
+    }
+
+    /**
+     * Top-k vetorial deste shard, servido por um peer quando possível, senão pelo EmbeddingStore local.
+     */
+    public List<SearchHit> vectorSearch(float[] query, int k, int minVersion) {
+        // versão, store e geração do mesmo snapshot (sem esperar por um commit ou uma troca de geração)
+        Committed snapshot = committed;
+        EmbeddingStore store = snapshot.store;
+        int generation = snapshot.generation;
+        int version = snapshot.version;
+
+        // Cache: só os CIDs confirmados desde a versão da entrada são comparados com a query
+        int cachedVersion = searchCache.cachedVersion(query, k, generation);
+        if (cachedVersion >= 0) {
+            List<String> added;
+            try {
+                added = history.read(cachedVersion, version, Integer.MAX_VALUE).getCids();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (version >= minVersion) {
+                List<SearchHit> hits = searchCache.refresh(query, k, generation, added, version, store);
+                if (hits != null) return hits;
+            }
+        }
+
+        FollowerReadRouter.ReplicaHits fromPeer = readRouter.vectorSearch(query, k, minVersion, version, generation);
+        if (fromPeer != null) {
+            // um peer à frente do snapshot pode devolver CIDs que o líder ainda não publicou: a
+            // entrada passaria ao lado do filtro de visibilidade nas pesquisas locais seguintes
+            if (fromPeer.getVersion() <= version) {
+                searchCache.put(query, k, generation, fromPeer.getVersion(), fromPeer.getHits());
+            }
+            return fromPeer.getHits();
+        }
+        // as linhas de um commit a meio (versão superior à do snapshot) ficam de fora
+        List<SearchHit> hits = SearchService.vectorSearch(store, query, k, snapshot::isVisible);
+        searchCache.put(query, k, generation, version, hits);
+        return hits;
+    }
+
+    public VectorSearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    private void startPubSubSubscriber() {
+        subscription = bus.subscribe(topic, "Shard " + shardId, msgJson -> {
+            try {
+                JsonNode msg = mapper.readTree(msgJson);
+                // Mensagens "doc_update_request", "doc_update_prepare_response"
+                // e "doc_update_commit" são tratadas por LeaderCoordinator e PeerNode;
+                // em standby o shard também as segue para acompanhar o líder
+                String type = msg.path("type").asText();
+                if ("doc_update".equals(type)) {
+                    applyRemoteUpdate(msg);
+                } else if (isStandby() && msg.has("leader") && type.startsWith("doc_update_")) {
+                    standbyExecutor.execute(() -> learn(type, msg));
+                }
+            } catch (Exception exInner) {
+                System.err.println("Shard " + shardId + ": failed to parse msg: " + exInner.getMessage());
+            }
+        });
+    }
+
+    private boolean isStandby() {
+        LeaderElection current = election;
+        return current != null && !current.isLeader();
+    }
+
+    /**
+     * Segue o 2PC do líder (thread de standby, pela ordem das mensagens).
+     */
+    private void learn(String type, JsonNode msg) {
+        int version = msg.path("version").asInt();
+        try {
+            switch (type) {
+                case "doc_update_request":
+                    List<String> cids = new ArrayList<>();
+                    List<float[]> embeddings = new ArrayList<>();
+                    if (msg.has("cids")) {
+                        for (JsonNode c : msg.get("cids")) {
+                            cids.add(c.asText());
+                        }
+                        for (JsonNode e : msg.path("embeddings")) {
+                            embeddings.add(mapper.convertValue(e, float[].class));
+                        }
+                    } else {
+                        cids.add(msg.get("cid").asText());
+                        embeddings.add(mapper.convertValue(msg.get("embedding"), float[].class));
+                    }
+                    synchronized (learned) {
+                        learned.put(version, new LearnedVersion(cids, embeddings));
+                        while (learned.size() > MAX_LEARNED_PENDING) {
+                            learned.remove(learned.keySet().iterator().next());
+                        }
+                    }
+                    break;
+                case "doc_update_abort":
+                    synchronized (learned) {
+                        learned.remove(version);
+                    }
+                    break;
+                case "doc_update_commit":
+                    LearnedVersion prepared;
+                    synchronized (learned) {
+                        prepared = learned.remove(version);
+                    }
+                    synchronized (commitLock) {
+                        if (version <= getCurrentVersion() || !isStandby()) return;
+                        if (prepared == null || version != getCurrentVersion() + 1) {
+                            // pedido perdido ou versões em falta: recuperar dos peers
+                            catchUp();
+                        } else {
+                            applyLearned(version, prepared.cids, prepared.embeddings);
+                        }
+                    }
+                    break;
+            }
+        } catch (Exception e) {
+            System.err.println("Shard " + shardId + ": standby failed to follow " + type + " v" + version + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Aplica uma versão confirmada por outro líder (com o commitLock). Os CIDs sem embedding
+     * (não foi possível calculá-lo) ficam no vetor mas fora da pesquisa vetorial.
+     */
+    private void applyLearned(int version, List<String> cids, List<float[]> embeddings) throws IOException {
+        EmbeddingStore store = committed.store;
+        committed.addCids(cids, version);
+        try {
+            for (int i = 0; i < cids.size(); i++) {
+                float[] embedding = i < embeddings.size() ? embeddings.get(i) : null;
+                if (embedding != null && !store.contains(cids.get(i))) {
+                    store.append(cids.get(i), version, embedding);
+                }
+            }
+            history.append(version, cids);
+        } catch (IOException | RuntimeException e) {
+            committed.removeCids(cids, version);
+            throw e;
+        }
+        synchronized (this) {
+            committed = committed.withVersion(version);
+        }
+        Learner current = learner;
+        if (current != null) {
+            current.onLearned(this, version, cids, embeddings);
+        }
+    }
+
+    /**
+     * Lê dos peers as versões confirmadas que este shard não tem (com o commitLock). Os
+     * embeddings vêm dos pedidos de 2PC guardados ou são recalculados pelo {@link Learner}.
+     *
+     * @return número de versões recuperadas
+     */
+    private int catchUp() throws IOException {
+        int recovered = 0;
+        while (true) {
+            int since = getCurrentVersion();
+            JsonNode page = readRouter.readChanges(since, CATCH_UP_PAGE, since + 1, since);
+            if (page == null || page.path("changes").isEmpty()) break;
+            Map<Integer, List<String>> versions = new TreeMap<>();
+            for (JsonNode change : page.path("changes")) {
+                versions.computeIfAbsent(change.get("version").asInt(), v -> new ArrayList<>()).add(change.get("cid").asText());
+            }
+            for (Map.Entry<Integer, List<String>> entry : versions.entrySet()) {
+                int version = entry.getKey();
+                List<String> cids = entry.getValue();
+                LearnedVersion prepared;
+                synchronized (learned) {
+                    prepared = learned.remove(version);
+                }
+                List<float[]> embeddings = prepared != null && prepared.cids.equals(cids) ? prepared.embeddings : embed(cids);
+                applyLearned(version, cids, embeddings);
+                recovered++;
+            }
+            if (getCurrentVersion() == since) break; // nada aplicável (ex. versões que não estendem as locais)
+            if (!page.path("hasMore").asBoolean() && getCurrentVersion() >= page.path("currentVersion").asInt()) break;
+        }
+        if (recovered > 0) {
+            System.out.println("Shard " + shardId + ": recovered " + recovered + " version(s) from peers, now at v" +
+                               getCurrentVersion());
+        }
+        return recovered;
+    }
+
+    private List<float[]> embed(List<String> cids) {
+        List<float[]> embeddings = new ArrayList<>(cids.size());
+        Learner current = learner;
+        for (String cid : cids) {
+            float[] embedding = null;
+            if (current != null) {
+                try {
+                    embedding = current.embed(cid);
+                } catch (Exception e) {
+                    System.err.println("Shard " + shardId + ": failed to embed recovered " + cid + ": " + e.getMessage());
+                }
+            }
+            embeddings.add(embedding);
+        }
+        return embeddings;
+    }
+
+    /**
+     * Tomada de posse depois de eleito: recupera as versões confirmadas que faltam e decide a
+     * versão que o líder anterior deixou em curso, repetindo o 2PC no novo termo (os peers que
+     * já a tinham confirmado aceitam de novo) ou abortando-a. Os commits esperam que termine.
+     */
+    public void takeOver(int term) {
+        synchronized (commitLock) {
+            try {
+                System.out.println("Shard " + shardId + ": taking over in term " + term + " at v" + getCurrentVersion());
+                catchUp();
+                int next = getCurrentVersion() + 1;
+                LearnedVersion inFlight;
+                synchronized (learned) {
+                    inFlight = learned.get(next);
+                    learned.clear();
+                }
+                if (inFlight == null) return;
+                if (coordinator.coordinateUpdate(next, inFlight.cids, inFlight.embeddings)) {
+                    applyLearned(next, inFlight.cids, inFlight.embeddings);
+                    System.out.println("Shard " + shardId + ": finished in-flight v" + next + " of the previous leader");
+                } else {
+                    System.err.println("Shard " + shardId + ": aborted in-flight v" + next + " of the previous leader");
+                }
+            } catch (Exception e) {
+                System.err.println("Shard " + shardId + ": takeover failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void setElection(LeaderElection election, Learner learner) {
+        this.election = election;
+        this.learner = learner;
+        coordinator.setElection(election);
+    }
+
+    public MessageBus getMessageBus() {
+        return bus;
+    }
+
+    private synchronized void applyRemoteUpdate(JsonNode msg) {
+        try {
+            int remoteVersion = msg.get("version").asInt();
+            int localVersion = committed.version;
+            if (remoteVersion <= localVersion) return;
+
+            List<String> vector = mapper.convertValue(msg.get("vector"), new TypeReference<List<String>>() {});
+            // O vetor só cresce: o novo tem de começar pelo atual
+            List<String> local = history.vectorAt(localVersion);
+            for (int i = 0; i < local.size(); i++) {
+                if (i >= vector.size() || !vector.get(i).equals(local.get(i))) {
+                    System.err.println("Shard " + shardId + " ignoring remote update v" + remoteVersion +
+                                       ": vector does not extend the local one");
+                    return;
+                }
+            }
+            List<String> added = vector.subList(local.size(), vector.size());
+            history.append(remoteVersion, added);
+            committed.addCids(added, remoteVersion);
+            committed = committed.withVersion(remoteVersion);
+
+            System.out.println("Shard " + shardId + " applied remote update: version=" + remoteVersion);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Vetor atual de CIDs.
+     */
+    public List<String> getVector() {
+        try {
+            return history.vectorAt(getCurrentVersion());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Versão confirmada, sem bloquear (os escritores só tomam o monitor para trocar o snapshot).
+     */
+    public int getCurrentVersion() {
+        return committed.version;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public Path getStorageDir() {
+        return storageDir;
+    }
+
+    public EmbeddingStore getEmbeddingStore() {
+        return committed.store;
+    }
+
+    public LexicalIndex getLexicalIndex() {
+        return lexicalIndex;
+    }
+
+    public LeaderCoordinator getCoordinator() {
+        return coordinator;
+    }
+
+    public void shutdown() {
+        subscription.close();
+        standbyExecutor.shutdownNow();
+        coordinator.shutdown();
+        lexicalIndex.close();
+        committed.store.close();
+    }
+
+    /**
+     * Estado confirmado lido pelas pesquisas: trocado inteiro (com o monitor do shard) num commit,
+     * numa versão aprendida ou remota e no fim de uma reindexação, e lido sem locks através da
+     * referência volatile.
+     *
+     * O mapa CID -> versão do vetor é partilhado pelos snapshots: os CIDs de uma versão entram
+     * antes de as suas linhas serem escritas no store, e cada snapshot ignora os que têm versão
+     * superior à sua (no vetor e no scan do store). As linhas que não estão no mapa vêm de uma
+     * execução anterior e são sempre visíveis.
+     */
+    private static final class Committed {
+        final int version;
+        final EmbeddingStore store;
+        final int generation;
+        final Map<String, Integer> versions;
+
+        Committed(int version, EmbeddingStore store, int generation, Map<String, Integer> versions) {
+            this.version = version;
+            this.store = store;
+            this.generation = generation;
+            this.versions = versions;
+        }
+
+        Committed withVersion(int version) {
+            return new Committed(version, store, generation, versions);
+        }
+
+        /**
+         * Regista os CIDs da versão {@code version} (ainda não publicada); um CID repetido
+         * mantém a versão em que entrou.
+         */
+        void addCids(List<String> cids, int version) {
+            for (String cid : cids) {
+                versions.putIfAbsent(cid, version);
+            }
+        }
+
+        /**
+         * Desfaz {@link #addCids} de uma versão que não chegou a ser publicada.
+         */
+        void removeCids(List<String> cids, int version) {
+            for (String cid : cids) {
+                versions.remove(cid, version);
+            }
+        }
+
+        int versionOf(String cid) {
+            Integer v = versions.get(cid);
+            return v != null && v <= version ? v : -1;
+        }
+
+        /**
+         * Se a linha do store de {@code cid} pertence a este snapshot.
+         */
+        boolean isVisible(String cid) {
+            Integer v = versions.get(cid);
+            return v == null || v <= version;
+        }
+    }
+}
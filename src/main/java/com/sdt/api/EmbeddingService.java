@@ -14,10 +14,19 @@ import org.apache.tika.Tika;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * Serviço de geração de embeddings semânticos usando all-MiniLM-L6-v2
@@ -25,64 +34,372 @@ import java.util.Arrays;
  */
 public class EmbeddingService {
     private static final int MAX_LENGTH = 128; // Reduzido de 256 para evitar problemas de shape
-    private static final int EMBEDDING_DIM = 384;
+    public static final int EMBEDDING_DIM = 384;
     
-    private ZooModel<String, float[]> model;
+    /**
+     * Estado do modelo: LOADING até ao fim do carregamento e do warm-up; READY com o modelo;
+     * DEGRADED sem modelo mas com embeddings determinísticos (só com -Dembedding.fallback=true);
+     * FAILED sem modelo (uploads e pesquisas vetoriais recusados).
+     */
+    public enum State { LOADING, READY, DEGRADED, FAILED }
+
+    private volatile ZooModel<String, float[]> model;
     private final Tika tika;
-    private boolean modelLoaded = false;
+    private final TextExtractor textExtractor;
+    private volatile boolean modelLoaded = false;
+    private volatile State state = State.LOADING;
+    private volatile String stateDetail = "loading model";
+    private volatile String modelInfo = "none";
+    private final CountDownLatch loadDone = new CountDownLatch(1);
+    private final int queryCacheSize = Integer.parseInt(System.getProperty("embedding.query.cache", "10000"));
+    private final Map<String, float[]> queryCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > queryCacheSize;
+        }
+    };
+    private final ExecutorService loader;
+    
+    private final Path modelDir;
+    private final boolean offline;
+    private final boolean allowFallback;
     
     public EmbeddingService() throws Exception {
         System.out.println("Initializing EmbeddingService...");
-        System.out.println("Engines disponíveis: " + ai.djl.engine.Engine.getAllEngines());
 
         this.tika = new Tika();
+        this.textExtractor = TextExtractor.fromSystemProperties();
+        
+        // Modelo pré-instalado (ex.: volume montado); sem ele, djl:// com cache persistente
+        this.modelDir = Paths.get(System.getProperty("embedding.model.dir",
+                System.getenv().getOrDefault("EMBEDDING_MODEL_DIR", "models/all-MiniLM-L6-v2")));
+        this.offline = Boolean.parseBoolean(System.getProperty("embedding.model.offline",
+                System.getenv().getOrDefault("EMBEDDING_MODEL_OFFLINE", "false")));
+        this.allowFallback = Boolean.parseBoolean(System.getProperty("embedding.fallback", "false"));
+        String cacheDir = System.getProperty("embedding.model.cache", "models/djl-cache");
+        if (System.getProperty("DJL_CACHE_DIR") == null && System.getenv("DJL_CACHE_DIR") == null) {
+            System.setProperty("DJL_CACHE_DIR", cacheDir);
+        }
+        if (offline) {
+            System.setProperty("ai.djl.offline", "true");
+        }
         
+        // O carregamento (e um eventual download) corre em segundo plano; o resto do líder arranca já
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "embedding-model-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        loader.submit(this::loadModel);
+    }
+    
+    private void loadModel() {
+        long start = System.currentTimeMillis();
+        try {
+            System.out.println("Engines disponíveis: " + ai.djl.engine.Engine.getAllEngines());
+            ZooModel<String, float[]> loadedModel = loadLocalModel();
+            if (loadedModel == null) {
+                if (offline) {
+                    throw new IllegalStateException("No model in " + modelDir.toAbsolutePath() +
+                                                    " and embedding.model.offline=true");
+                }
+                loadedModel = loadRemoteModel();
+            }
+            this.model = loadedModel;
+            warmUp();
+            this.modelLoaded = true;
+            this.stateDetail = "model ready";
+            this.state = State.READY;
+            System.out.println("EmbeddingService ready in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("Failed to load embedding model: " + e.getMessage());
+            this.modelLoaded = false;
+            if (allowFallback) {
+                System.err.println("WARNING: No model loaded. Using deterministic embeddings only (embedding.fallback=true).");
+                this.stateDetail = "no model, deterministic embeddings: " + e.getMessage();
+                this.state = State.DEGRADED;
+            } else {
+                System.err.println("ERROR: No model loaded; uploads and vector search are disabled " +
+                                   "(set -Dembedding.fallback=true to use deterministic embeddings).");
+                this.stateDetail = "model failed to load: " + e.getMessage();
+                this.state = State.FAILED;
+            }
+        } finally {
+            loadDone.countDown();
+        }
+    }
+    
+    /**
+     * Modelo num diretório local (ficheiro .onnx ou .pt + tokenizer.json), sem rede.
+     *
+     * Com vários .onnx no diretório, {@code embedding.model.variant} escolhe entre o fp32 e uma
+     * variante int8 quantizada dinamicamente (nome com "int8" ou "quant", ex. model_quint8_avx2.onnx
+     * do repositório sentence-transformers, ou gerada com onnxruntime.quantization.quantize_dynamic);
+     * {@code embedding.model.name} indica o ficheiro explicitamente. A variante int8 é comparada com
+     * o fp32 no arranque (ver {@link #checkQuantizedAccuracy}).
+     *
+     * @return o modelo, ou null se o diretório não tiver um modelo
+     */
+    private ZooModel<String, float[]> loadLocalModel() throws Exception {
+        if (!Files.isDirectory(modelDir)) {
+            System.out.println("No local model in " + modelDir.toAbsolutePath());
+            return null;
+        }
+        List<String> onnxModels;
+        boolean hasTorchModel;
+        try (Stream<Path> files = Files.list(modelDir)) {
+            List<String> names = files.map(f -> f.getFileName().toString()).toList();
+            onnxModels = names.stream().filter(n -> n.endsWith(".onnx"))
+                    .map(n -> n.substring(0, n.length() - ".onnx".length())).sorted().toList();
+            hasTorchModel = names.stream().anyMatch(n -> n.endsWith(".pt"));
+        }
+        if (onnxModels.isEmpty()) {
+            if (!hasTorchModel) {
+                System.out.println("No .onnx or .pt model in " + modelDir.toAbsolutePath());
+                return null;
+            }
+            System.out.println("Loading local PyTorch model from " + modelDir.toAbsolutePath() + "...");
+            ZooModel<String, float[]> loaded = Criteria.builder()
+                    .setTypes(String.class, float[].class)
+                    .optModelPath(modelDir)
+                    .optTranslator(new SentenceTransformer(offline))
+                    .optEngine("PyTorch")
+                    .build()
+                    .loadModel();
+            this.modelInfo = "PyTorch " + modelDir;
+            return loaded;
+        }
+
+        String fp32Name = System.getProperty("embedding.model.name",
+                onnxModels.stream().filter(n -> !isQuantized(n)).findFirst().orElse(null));
+        String variant = System.getProperty("embedding.model.variant", "fp32").toLowerCase();
+        String name = fp32Name;
+        if ("int8".equals(variant) && System.getProperty("embedding.model.name") == null) {
+            name = onnxModels.stream().filter(EmbeddingService::isQuantized).findFirst().orElse(null);
+            if (name == null) {
+                System.err.println("No int8 model (*int8*.onnx / *quant*.onnx) in " + modelDir + ", using fp32");
+                name = fp32Name;
+            }
+        }
+        if (name == null) {
+            name = onnxModels.get(0);
+        }
+        System.out.println("Loading local ONNX model " + name + ".onnx from " + modelDir.toAbsolutePath() + "...");
+        ZooModel<String, float[]> loaded = loadOnnx(name);
+        this.modelInfo = "OnnxRuntime " + modelDir.resolve(name + ".onnx");
+        if (isQuantized(name) && fp32Name != null && !fp32Name.equals(name)) {
+            loaded = checkQuantizedAccuracy(loaded, name, fp32Name);
+        }
+        return loaded;
+    }
+
+    private static boolean isQuantized(String modelName) {
+        String lower = modelName.toLowerCase();
+        return lower.contains("int8") || lower.contains("quant");
+    }
+
+    private ZooModel<String, float[]> loadOnnx(String modelName) throws Exception {
+        Criteria.Builder<String, float[]> builder = Criteria.builder()
+                .setTypes(String.class, float[].class)
+                .optModelPath(modelDir)
+                .optModelName(modelName)
+                .optTranslator(new SentenceTransformer(offline))
+                .optEngine("OnnxRuntime");
+        return withOnnxSessionOptions(builder).build().loadModel();
+    }
+
+    /**
+     * Opções da sessão do ONNX Runtime (só as indicadas; as restantes ficam com o valor do runtime):
+     *   embedding.onnx.opt.level       NO_OPT, BASIC_OPT, EXTENDED_OPT ou ALL_OPT
+     *   embedding.onnx.intra.threads   threads por operador (com vários pedidos em paralelo, ex. bulk,
+     *                                  convém cores / pedidos concorrentes para não sobre-subscrever)
+     *   embedding.onnx.inter.threads   threads entre operadores (só em modo PARALLEL)
+     *   embedding.onnx.execution.mode  SEQUENTIAL ou PARALLEL
+     *   embedding.onnx.memory.arena    true/false, arena de memória do CPU
+     *   embedding.onnx.memory.pattern  true/false, pré-alocação pelo padrão de memória (shapes fixos)
+     */
+    private static Criteria.Builder<String, float[]> withOnnxSessionOptions(Criteria.Builder<String, float[]> builder) {
+        String[][] options = {
+                {"embedding.onnx.opt.level", "optLevel"},
+                {"embedding.onnx.intra.threads", "intraOpNumThreads"},
+                {"embedding.onnx.inter.threads", "interOpNumThreads"},
+                {"embedding.onnx.execution.mode", "executionMode"},
+                {"embedding.onnx.memory.arena", "cpuArenaAllocator"},
+                {"embedding.onnx.memory.pattern", "memoryPatternOptimization"},
+        };
+        for (String[] option : options) {
+            String value = System.getProperty(option[0]);
+            if (value != null) {
+                builder.optOption(option[1], value.trim());
+                System.out.println("ONNX session option " + option[1] + "=" + value.trim());
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Compara os embeddings do modelo int8 com os do fp32 num conjunto fixo de frases. Abaixo de
+     * {@code embedding.quantized.min.cosine} (0.98) usa o fp32, exceto com
+     * {@code embedding.quantized.strict=false}. Com {@code embedding.quantized.check=false} não compara.
+     */
+    private ZooModel<String, float[]> checkQuantizedAccuracy(ZooModel<String, float[]> quantized, String quantizedName,
+                                                            String fp32Name) throws Exception {
+        if (!Boolean.parseBoolean(System.getProperty("embedding.quantized.check", "true"))) {
+            return quantized;
+        }
+        double minCosineAllowed = Double.parseDouble(System.getProperty("embedding.quantized.min.cosine", "0.98"));
+        boolean strict = Boolean.parseBoolean(System.getProperty("embedding.quantized.strict", "true"));
+        String[] probes = {
+                "The leader coordinates document updates with a two-phase commit.",
+                "Relatório anual de atividades do departamento de sistemas distribuídos.",
+                "def add(a, b):\n    return a + b",
+                "Invoice 2024-117: 3 x consulting hours, total EUR 450.00",
+                "Peers store the committed embeddings and answer vector searches.",
+                "a",
+        };
+        double sum = 0;
+        double min = 1;
+        try (ZooModel<String, float[]> reference = loadOnnx(fp32Name);
+             Predictor<String, float[]> expected = reference.newPredictor();
+             Predictor<String, float[]> actual = quantized.newPredictor()) {
+            for (String probe : probes) {
+                float[] a = expected.predict(probe);
+                float[] b = actual.predict(probe);
+                if (b.length != EMBEDDING_DIM) {
+                    throw new IllegalStateException(quantizedName + " produces " + b.length + " dimensions");
+                }
+                double dot = 0, na = 0, nb = 0;
+                for (int i = 0; i < EMBEDDING_DIM; i++) {
+                    dot += a[i] * b[i];
+                    na += a[i] * a[i];
+                    nb += b[i] * b[i];
+                }
+                double cosine = dot / (Math.sqrt(na) * Math.sqrt(nb) + 1e-12);
+                sum += cosine;
+                min = Math.min(min, cosine);
+            }
+        }
+        double mean = sum / probes.length;
+        String report = String.format(java.util.Locale.ROOT, "int8 vs fp32 cosine mean=%.4f min=%.4f", mean, min);
+        System.out.println("Quantized model " + quantizedName + ": " + report);
+        if (min < minCosineAllowed && strict) {
+            System.err.println("Quantized model below embedding.quantized.min.cosine=" + minCosineAllowed + ", using " + fp32Name);
+            quantized.close();
+            this.modelInfo = "OnnxRuntime " + modelDir.resolve(fp32Name + ".onnx") + " (int8 rejected: " + report + ")";
+            return loadOnnx(fp32Name);
+        }
+        this.modelInfo = this.modelInfo + " (" + report + ")";
+        return quantized;
+    }
+    
+    /**
+     * Modelo do model zoo do DJL (descarregado uma vez para DJL_CACHE_DIR).
+     */
+    private ZooModel<String, float[]> loadRemoteModel() throws Exception {
         try {
             // Tentar ONNX primeiro (mais estável que PyTorch JIT)
             System.out.println("Attempting to load ONNX model...");
-            Criteria<String, float[]> criteria = Criteria.builder()
+            if ("int8".equalsIgnoreCase(System.getProperty("embedding.model.variant", "fp32"))) {
+                System.err.println("The djl:// model zoo only has the fp32 model; put the int8 model in " + modelDir);
+            }
+            Criteria<String, float[]> criteria = withOnnxSessionOptions(Criteria.builder()
                     .setTypes(String.class, float[].class)
                     .optModelUrls("djl://ai.djl.huggingface.onnxruntime/sentence-transformers/all-MiniLM-L6-v2")
-                    .optTranslator(new SentenceTransformer())
+                    .optTranslator(new SentenceTransformer(offline))
                     .optEngine("OnnxRuntime")
-                    .optProgress(new ai.djl.training.util.ProgressBar())
+                    .optProgress(new ai.djl.training.util.ProgressBar()))
                     .build();
             
-            this.model = criteria.loadModel();
-            this.modelLoaded = true;
-            System.out.println("EmbeddingService initialized successfully with ONNX!");
+            ZooModel<String, float[]> loaded = criteria.loadModel();
+            this.modelInfo = "OnnxRuntime djl://sentence-transformers/all-MiniLM-L6-v2";
+            System.out.println("Loaded ONNX model");
+            return loaded;
         } catch (Exception e) {
             System.err.println("Failed to load ONNX model: " + e.getMessage());
             
-            try {
-                // Fallback: tentar PyTorch
-                System.out.println("Attempting to load PyTorch model...");
-                Criteria<String, float[]> criteria = Criteria.builder()
-                        .setTypes(String.class, float[].class)
-                        .optModelUrls("djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2")
-                        .optTranslator(new SentenceTransformer())
-                        .optEngine("PyTorch")
-                        .optProgress(new ai.djl.training.util.ProgressBar())
-                        .build();
-                
-                this.model = criteria.loadModel();
-                this.modelLoaded = true;
-                System.out.println("EmbeddingService initialized successfully with PyTorch!");
-            } catch (Exception ex) {
-                System.err.println("Failed to load PyTorch model: " + ex.getMessage());
-                System.err.println("WARNING: No model loaded. Using deterministic embeddings only.");
-                this.modelLoaded = false;
+            // Fallback: tentar PyTorch
+            System.out.println("Attempting to load PyTorch model...");
+            Criteria<String, float[]> criteria = Criteria.builder()
+                    .setTypes(String.class, float[].class)
+                    .optModelUrls("djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2")
+                    .optTranslator(new SentenceTransformer(offline))
+                    .optEngine("PyTorch")
+                    .optProgress(new ai.djl.training.util.ProgressBar())
+                    .build();
+            
+            ZooModel<String, float[]> loaded = criteria.loadModel();
+            this.modelInfo = "PyTorch djl://sentence-transformers/all-MiniLM-L6-v2";
+            System.out.println("Loaded PyTorch model");
+            return loaded;
+        }
+    }
+    
+    /**
+     * Primeiras inferências antes de aceitar tráfego (inicialização lazy do runtime e JIT).
+     */
+    private void warmUp() throws Exception {
+        int runs = Integer.parseInt(System.getProperty("embedding.warmup.runs", "3"));
+        long start = System.currentTimeMillis();
+        try (Predictor<String, float[]> predictor = model.newPredictor()) {
+            for (int i = 0; i < runs; i++) {
+                predictor.predict("warm up the embedding model before serving requests");
             }
         }
+        System.out.println("Embedding warm-up (" + runs + " runs) took " + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Espera que o carregamento termine (com ou sem modelo).
+     *
+     * @return true se é possível gerar embeddings (READY ou DEGRADED)
+     */
+    public boolean awaitReady(long timeoutMs) throws InterruptedException {
+        loadDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+        return isReady();
+    }
+    
+    public boolean isReady() {
+        State current = state;
+        return current == State.READY || current == State.DEGRADED;
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    public String getStateDetail() {
+        return stateDetail;
+    }
+    
+    /**
+     * Engine e ficheiro do modelo em uso (e o resultado da verificação da variante int8).
+     */
+    public String getModelInfo() {
+        return modelInfo;
+    }
+    
+    /**
+     * Falha se o modelo ainda não estiver pronto (os controllers devolvem 503 antes de chegar aqui).
+     */
+    private void requireReady() throws InterruptedException {
+        long waitMs = Long.parseLong(System.getProperty("embedding.ready.wait.ms", "30000"));
+        if (!awaitReady(waitMs)) {
+            throw new IllegalStateException("Embedding model not available (" + state + ": " + stateDetail + ")");
+        }
     }
     
     /**
      * Gera embeddings para um arquivo
      */
     public float[] generateEmbedding(File file) throws Exception {
-        // Extrair texto do arquivo
-        String text = extractText(file);
-        
+        return generateEmbedding(file, extractText(file));
+    }
+    
+    /**
+     * Gera embeddings a partir do texto já extraído do arquivo
+     */
+    public float[] generateEmbedding(File file, String text) throws Exception {
+        requireReady();
         if (text == null || text.trim().isEmpty()) {
             System.err.println("Warning: Empty text extracted from " + file.getName());
             return new float[EMBEDDING_DIM]; // retorna vetor zero
@@ -97,7 +414,7 @@ public class EmbeddingService {
         // Se modelo não carregou, usar fallback
         if (!modelLoaded) {
             System.out.println("Model not available, using fallback para " + file.getName());
-            return generateFallbackEmbedding(file);
+            return generateFallbackEmbedding(Files.readAllBytes(file.toPath()));
         }
         
         // Gerar embedding
@@ -110,16 +427,47 @@ public class EmbeddingService {
             e.printStackTrace();
             // Fallback: retorna embedding determinístico baseado em hash
             System.out.println("Using fallback deterministic embedding para " + file.getName());
-            return generateFallbackEmbedding(file);
+            return generateFallbackEmbedding(Files.readAllBytes(file.toPath()));
+        }
+    }
+    
+    /**
+     * Gera o embedding de uma query de pesquisa. As queries repetidas vêm de uma cache LRU
+     * ({@code embedding.query.cache} entradas) indexada pelo texto com os espaços normalizados;
+     * o embedding é calculado sobre esse mesmo texto, para a chave o determinar por inteiro.
+     * O array devolvido é partilhado: não pode ser alterado.
+     */
+    public float[] embedQuery(String query) throws Exception {
+        requireReady();
+        String normalized = normalizeQuery(query);
+        boolean fallback = !modelLoaded;
+        String key = (fallback ? "F|" : "M|") + normalized;
+        synchronized (queryCache) {
+            float[] cached = queryCache.get(key);
+            if (cached != null) return cached;
+        }
+        float[] embedding;
+        if (fallback) {
+            embedding = generateFallbackEmbedding(normalized.getBytes(StandardCharsets.UTF_8));
+        } else {
+            try (Predictor<String, float[]> predictor = model.newPredictor()) {
+                embedding = predictor.predict(normalized);
+            }
+        }
+        synchronized (queryCache) {
+            queryCache.put(key, embedding);
         }
+        return embedding;
+    }
+
+    static String normalizeQuery(String query) {
+        return query.trim().replaceAll("\\s+", " ");
     }
     
     /**
      * Embedding fallback se o modelo falhar
      */
-    private float[] generateFallbackEmbedding(File file) throws Exception {
-        System.out.println("Using fallback deterministic embedding para " + file.getName());
-        byte[] data = Files.readAllBytes(file.toPath());
+    private float[] generateFallbackEmbedding(byte[] data) throws Exception {
         java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
         byte[] hash = md.digest(data);
         
@@ -146,21 +494,35 @@ public class EmbeddingService {
     /**
      * Extrai texto de qualquer tipo de arquivo usando Apache Tika
      */
-    private String extractText(File file) {
+    public String extractText(File file) throws InterruptedException {
+        return extractText(file, null);
+    }
+    
+    /**
+     * Extrai texto no pool de extração (com limites de tempo e tamanho), usando a cache por CID
+     */
+    public String extractText(File file, String cid) throws InterruptedException {
+        return textExtractor.extract(file, cid);
+    }
+    
+    public TextExtractor getTextExtractor() {
+        return textExtractor;
+    }
+    
+    /**
+     * Deteta o mime type do arquivo (só lê o início do ficheiro)
+     */
+    public String detectMimeType(File file) {
         try {
-            return tika.parseToString(file);
-        } catch (Exception e) {
-            System.err.println("Error extracting text from " + file.getName() + ": " + e.getMessage());
-            // Fallback: ler como texto simples
-            try {
-                return Files.readString(file.toPath());
-            } catch (IOException ex) {
-                return "";
-            }
+            return tika.detect(file);
+        } catch (IOException e) {
+            return "application/octet-stream";
         }
     }
     
     public void close() {
+        loader.shutdownNow();
+        textExtractor.shutdown();
         if (model != null) {
             model.close();
         }
@@ -170,10 +532,15 @@ public class EmbeddingService {
      * Translator para o modelo sentence-transformers
      */
     private static class SentenceTransformer implements Translator<String, float[]> {
+        private final boolean offline;
         private HuggingFaceTokenizer tokenizer;
         private static final int MAX_LENGTH = 128;
         private static final int EMBEDDING_DIM = 384;
 
+        SentenceTransformer(boolean offline) {
+            this.offline = offline;
+        }
+
         @Override
         public void prepare(TranslatorContext ctx) throws IOException {
             try {
@@ -183,10 +550,17 @@ public class EmbeddingService {
                 if (Files.exists(tokenizerPath)) {
                     tokenizer = HuggingFaceTokenizer.newInstance(tokenizerPath);
                     System.out.println("✅ Loaded tokenizer from model path");
+                } else if (offline) {
+                    // o fallback abaixo descarrega o tokenizer do Hugging Face
+                    throw new IOException("tokenizer.json not found in " + modelPath + " (offline)");
                 } else {
                     System.out.println("⚠️ Tokenizer not found in model path, using fallback: bert-base-uncased");
                     tokenizer = HuggingFaceTokenizer.newInstance("bert-base-uncased");
                 }
+            } catch (IOException e) {
+                if (offline) throw e;
+                System.err.println("❌ Error loading tokenizer: " + e.getMessage());
+                tokenizer = HuggingFaceTokenizer.newInstance("bert-base-uncased");
             } catch (Exception e) {
                 System.err.println("❌ Error loading tokenizer: " + e.getMessage());
                 tokenizer = HuggingFaceTokenizer.newInstance("bert-base-uncased");
@@ -0,0 +1,342 @@
+package com.sdt.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Armazenamento append-only de embeddings em ficheiros binários mapeados em memória.
+ *
+ * Cada segmento ({@code segment-NNNNN.vec}) tem um cabeçalho fixo seguido de linhas de
+ * tamanho fixo: magic, versão, CID (até 62 bytes), {@code dim} floats e um CRC32.
+ * Ao abrir, as linhas são verificadas pela ordem e o ficheiro é cortado na primeira
+ * linha inválida (escrita interrompida). Quando um segmento enche é criado o seguinte.
+ * A capacidade de cada segmento é a do seu cabeçalho: mudar {@code rowsPerSegment} só afeta
+ * os segmentos criados depois.
+ *
+ * O índice CID -> linha fica em memória, empacotado num long (segmento << 32 | linha);
+ * se o mesmo CID for escrito mais do que uma vez vale a última linha.
+ */
+public class EmbeddingStore implements AutoCloseable {
+
+    private static final int FILE_MAGIC = 0x53445456;   // "SDTV"
+    private static final int ROW_MAGIC = 0x53445452;    // "SDTR"
+    private static final int HEADER_SIZE = 16;          // magic, dim, rowsPerSegment, reservado
+    private static final int CID_FIELD = 64;            // short comprimento + 62 bytes
+    private static final int MAX_CID_BYTES = CID_FIELD - 2;
+
+    private final Path dir;
+    private final int dim;
+    private final int rowsPerSegment;
+    private final int stride;
+    private final int vectorOffset;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    /**
+     * Visitante para varrimentos completos. O FloatBuffer é uma vista só de leitura
+     * sobre o ficheiro mapeado (sem cópia) e só é válido durante a chamada.
+     */
+    public interface RowVisitor {
+        void visit(String cid, int version, FloatBuffer vector);
+    }
+
+    public EmbeddingStore(Path dir, int dim, int rowsPerSegment) throws IOException {
+        this.dir = dir;
+        this.dim = dim;
+        this.rowsPerSegment = rowsPerSegment;
+        this.vectorOffset = 4 + 4 + CID_FIELD;
+        this.stride = vectorOffset + dim * Float.BYTES + 4;
+        if (HEADER_SIZE + (long) stride * rowsPerSegment > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment too large to map: " + rowsPerSegment + " rows of " + stride + " bytes");
+        }
+        Files.createDirectories(dir);
+        openExistingSegments();
+    }
+
+    private void openExistingSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().matches("segment-\\d{5}\\.vec"))
+             .sorted()
+             .forEach(files::add);
+        }
+        for (Path file : files) {
+            int id = Integer.parseInt(file.getFileName().toString().substring(8, 13));
+            Segment seg = Segment.open(file, id, this);
+            segments.add(seg);
+            for (int row = 0; row < seg.rows; row++) {
+                index.put(seg.readCid(row), pack(seg.id, row));
+            }
+            System.out.println("EmbeddingStore: opened " + file.getFileName() + " rows=" + seg.rows);
+        }
+    }
+
+    /**
+     * Acrescenta um embedding. A linha fica persistida (force) antes de entrar no índice.
+     */
+    public synchronized void append(String cid, int version, float[] embedding) throws IOException {
+        if (embedding.length != dim) {
+            throw new IllegalArgumentException("Expected " + dim + " dimensions but got " + embedding.length);
+        }
+        byte[] cidBytes = cid.getBytes(StandardCharsets.UTF_8);
+        if (cidBytes.length > MAX_CID_BYTES) {
+            throw new IllegalArgumentException("CID too long for embedding store: " + cid);
+        }
+
+        Segment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || active.rows >= active.capacity) {
+            int nextId = active == null ? 0 : active.id + 1;
+            active = Segment.create(dir.resolve(String.format("segment-%05d.vec", nextId)), nextId, this);
+            segments.add(active);
+            System.out.println("EmbeddingStore: created segment " + nextId);
+        }
+
+        ByteBuffer row = ByteBuffer.allocate(stride).order(ByteOrder.LITTLE_ENDIAN);
+        row.putInt(ROW_MAGIC);
+        row.putInt(version);
+        row.putShort((short) cidBytes.length);
+        row.put(cidBytes);
+        row.position(vectorOffset);
+        for (float v : embedding) {
+            row.putFloat(v);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(row.array(), 0, stride - 4);
+        row.putInt((int) crc.getValue());
+
+        int rowIndex = active.rows;
+        active.write(rowIndex, row.array());
+        active.rows++;
+        index.put(cid, pack(active.id, rowIndex));
+    }
+
+    public boolean contains(String cid) {
+        return index.containsKey(cid);
+    }
+
+    /**
+     * Vista sem cópia do embedding mais recente de um CID, ou null.
+     */
+    public FloatBuffer view(String cid) {
+        Long pos = index.get(cid);
+        if (pos == null) {
+            return null;
+        }
+        return segment(pos).vector(row(pos));
+    }
+
+    public float[] get(String cid) {
+        FloatBuffer view = view(cid);
+        if (view == null) {
+            return null;
+        }
+        float[] out = new float[dim];
+        view.get(out);
+        return out;
+    }
+
+    public int getVersion(String cid) {
+        Long pos = index.get(cid);
+        return pos == null ? -1 : segment(pos).readVersion(row(pos));
+    }
+
+    /**
+     * Percorre o embedding mais recente de cada CID, lendo diretamente dos ficheiros mapeados.
+     */
+    public void scan(RowVisitor visitor) {
+        for (Segment seg : segments) {
+            int rows = seg.rows;
+            for (int row = 0; row < rows; row++) {
+                String cid = seg.readCid(row);
+                Long latest = index.get(cid);
+                if (latest != null && latest == pack(seg.id, row)) {
+                    visitor.visit(cid, seg.readVersion(row), seg.vector(row));
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    private Segment segment(long pos) {
+        int id = (int) (pos >>> 32);
+        // os ids dos segmentos são sequenciais a partir de 0
+        return segments.get(id);
+    }
+
+    private static int row(long pos) {
+        return (int) pos;
+    }
+
+    private static long pack(int segmentId, int row) {
+        return ((long) segmentId << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment seg : segments) {
+            seg.close();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    /**
+     * Um ficheiro de segmento mapeado com a capacidade total ({@code capacity} linhas, gravada no
+     * cabeçalho quando o segmento é criado).
+     */
+    private static final class Segment {
+        final int id;
+        final int capacity;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final EmbeddingStore store;
+        volatile int rows;
+
+        private Segment(int id, int capacity, FileChannel channel, MappedByteBuffer buffer, EmbeddingStore store) {
+            this.id = id;
+            this.capacity = capacity;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.store = store;
+        }
+
+        static Segment create(Path file, int id, EmbeddingStore store) throws IOException {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buf = map(ch, store, store.rowsPerSegment);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, FILE_MAGIC);
+            buf.putInt(4, store.dim);
+            buf.putInt(8, store.rowsPerSegment);
+            buf.force(0, HEADER_SIZE);
+            return new Segment(id, store.rowsPerSegment, ch, buf, store);
+        }
+
+        /**
+         * Abre um segmento existente com a capacidade do seu cabeçalho (que pode ser diferente
+         * do rowsPerSegment atual).
+         */
+        static Segment open(Path file, int id, EmbeddingStore store) throws IOException {
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining()) {
+                    if (ch.read(header, header.position()) < 0) break;
+                }
+                if (header.hasRemaining() || header.getInt(0) != FILE_MAGIC || header.getInt(4) != store.dim) {
+                    throw new IOException("Invalid embedding segment " + file + " (magic/dimension mismatch)");
+                }
+                int capacity = header.getInt(8);
+                if (capacity <= 0 || HEADER_SIZE + (long) store.stride * capacity > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid embedding segment " + file + " (capacity " + capacity + " rows)");
+                }
+                if (capacity != store.rowsPerSegment) {
+                    System.out.println("EmbeddingStore: " + file.getFileName() + " keeps its capacity of " + capacity +
+                                       " rows (rowsPerSegment=" + store.rowsPerSegment + ")");
+                }
+                MappedByteBuffer buf = map(ch, store, capacity);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                Segment seg = new Segment(id, capacity, ch, buf, store);
+                seg.rows = seg.recoverRows(file);
+                return seg;
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        private static MappedByteBuffer map(FileChannel ch, EmbeddingStore store, int rows) throws IOException {
+            long capacity = HEADER_SIZE + (long) store.stride * rows;
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        /**
+         * Conta as linhas válidas e limpa o que estiver depois da primeira linha corrompida.
+         */
+        private int recoverRows(Path file) {
+            int valid = 0;
+            while (valid < capacity && isValid(valid)) {
+                valid++;
+            }
+            int offset = offset(valid);
+            if (valid < capacity && buffer.getInt(offset) != 0) {
+                System.err.println("EmbeddingStore: discarding torn tail of " + file.getFileName() + " at row " + valid);
+                for (int i = 0; i < store.stride; i++) {
+                    buffer.put(offset + i, (byte) 0);
+                }
+                buffer.force(offset, store.stride);
+            }
+            return valid;
+        }
+
+        private boolean isValid(int row) {
+            int offset = offset(row);
+            if (buffer.getInt(offset) != ROW_MAGIC) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(offset, store.stride - 4));
+            return (int) crc.getValue() == buffer.getInt(offset + store.stride - 4);
+        }
+
+        void write(int row, byte[] bytes) {
+            int offset = offset(row);
+            buffer.put(offset, bytes);
+            buffer.force(offset, bytes.length);
+        }
+
+        String readCid(int row) {
+            int offset = offset(row) + 8;
+            int len = buffer.getShort(offset);
+            byte[] cid = new byte[len];
+            buffer.get(offset + 2, cid);
+            return new String(cid, StandardCharsets.UTF_8);
+        }
+
+        int readVersion(int row) {
+            return buffer.getInt(offset(row) + 4);
+        }
+
+        FloatBuffer vector(int row) {
+            return buffer.slice(offset(row) + store.vectorOffset, store.dim * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asFloatBuffer()
+                    .asReadOnlyBuffer();
+        }
+
+        private int offset(int row) {
+            return HEADER_SIZE + row * store.stride;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("EmbeddingStore: failed to close segment " + id + ": " + e.getMessage());
+            }
+        }
+    }
+}
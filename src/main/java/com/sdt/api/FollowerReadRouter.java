@@ -0,0 +1,146 @@
+package com.sdt.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sdt.peers.ClusterMembership;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encaminha leituras de um shard para os peers (follower reads) com staleness limitada.
+ *
+ * Um peer só é elegível se estiver vivo, servir leituras e tiver confirmado pelo menos
+ * {@code max(minVersion, versãoDoLíder - maxLag)}. Os peers elegíveis são escolhidos em
+ * round-robin. Se nenhum servir (sem peers, atrasado, timeout ou erro) devolve null e o
+ * líder responde localmente.
+ */
+public class FollowerReadRouter {
+
+    private final ClusterMembership membership;
+    private final boolean enabled;
+    private final int maxLag;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public FollowerReadRouter(ClusterMembership membership) {
+        this.membership = membership;
+        this.enabled = Boolean.parseBoolean(System.getProperty("read.followers", "true"));
+        this.maxLag = Integer.parseInt(System.getProperty("read.max.lag", "2"));
+        this.timeout = Duration.ofMillis(Long.parseLong(System.getProperty("read.follower.timeout.ms", "500")));
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    /**
+     * Lê de um peer as alterações de versão depois de {@code since} (no máximo {@code limit}).
+     *
+     * @return corpo da resposta do peer, ou null se a leitura tiver de ser feita no líder
+     */
+    public JsonNode readChanges(int since, int limit, int minVersion, int leaderVersion) {
+        for (ClusterMembership.ReadReplica replica : pickReplicas(minVersion, leaderVersion)) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://" + replica.getAddress() + "/versions?since=" + since +
+                                   "&limit=" + limit + "&minVersion=" + minVersion))
+                        .timeout(timeout).GET().build();
+                JsonNode body = send(replica, request);
+                if (body != null) return body;
+            } catch (Exception e) {
+                System.err.println("FollowerReadRouter: versions read from " + replica.getPeer() + " failed: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pesquisa vetorial num peer (o embedding da query já vem calculado pelo líder). Só servem
+     * peers com embeddings da mesma geração que o líder ({@code generation}).
+     *
+     * @return top-k do peer e a versão a que foi calculado, ou null se a leitura tiver de ser feita no líder
+     */
+    public ReplicaHits vectorSearch(float[] query, int k, int minVersion, int leaderVersion, int generation) {
+        for (ClusterMembership.ReadReplica replica : pickReplicas(minVersion, leaderVersion)) {
+            try {
+                ObjectNode payload = mapper.createObjectNode();
+                payload.set("embedding", mapper.valueToTree(query));
+                payload.put("k", k);
+                payload.put("minVersion", minVersion);
+                payload.put("generation", generation);
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + replica.getAddress() + "/search"))
+                        .timeout(timeout)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(payload)))
+                        .build();
+                JsonNode body = send(replica, request);
+                if (body == null) continue;
+                List<SearchHit> hits = new ArrayList<>();
+                for (JsonNode hit : body.path("hits")) {
+                    hits.add(new SearchHit(hit.get("cid").asText(), hit.get("score").asDouble()));
+                }
+                return new ReplicaHits(hits, body.path("currentVersion").asInt());
+            } catch (Exception e) {
+                System.err.println("FollowerReadRouter: search on " + replica.getPeer() + " failed: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Até dois peers elegíveis, a começar pelo próximo da rotação.
+     */
+    private List<ClusterMembership.ReadReplica> pickReplicas(int minVersion, int leaderVersion) {
+        if (!enabled) return List.of();
+        List<ClusterMembership.ReadReplica> eligible =
+                membership.readReplicas(Math.max(minVersion, leaderVersion - maxLag));
+        if (eligible.isEmpty()) return eligible;
+        int start = Math.floorMod(nextReplica.getAndIncrement(), eligible.size());
+        List<ClusterMembership.ReadReplica> picked = new ArrayList<>(2);
+        for (int i = 0; i < Math.min(2, eligible.size()); i++) {
+            picked.add(eligible.get((start + i) % eligible.size()));
+        }
+        return picked;
+    }
+
+    private JsonNode send(ClusterMembership.ReadReplica replica, HttpRequest request) throws Exception {
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 412) {
+            // peer ainda sem a versão pedida (o heartbeat pode estar desatualizado): tentar outro / o líder
+            return null;
+        }
+        if (response.statusCode() >= 400) {
+            System.err.println("FollowerReadRouter: " + replica.getPeer() + " returned status " + response.statusCode());
+            return null;
+        }
+        return mapper.readTree(response.body());
+    }
+
+    /**
+     * Top-k devolvido por um peer e a versão do shard no peer quando respondeu.
+     */
+    public static class ReplicaHits {
+        private final List<SearchHit> hits;
+        private final int version;
+
+        public ReplicaHits(List<SearchHit> hits, int version) {
+            this.hits = hits;
+            this.version = version;
+        }
+
+        public List<SearchHit> getHits() {
+            return hits;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+}
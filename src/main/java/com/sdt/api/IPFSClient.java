@@ -1,20 +1,74 @@
 package com.sdt.api;
 
+import com.sdt.peers.StageEvent;
+import com.sdt.peers.Tracing;
+
 import java.io.File;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class IPFSClient {
     private final String ipfsApiBase;
+    // Como saber o CID antes do add: "local" (CidCalculator), "daemon" (add com only-hash) ou "off"
+    private final String cidPrecompute = System.getProperty("ipfs.cid.precompute", "local").toLowerCase();
+    private final AtomicLong cidMismatches = new AtomicLong();
 
     public IPFSClient(String ipfsApiBase) {
         this.ipfsApiBase = ipfsApiBase;
     }
 
+    /**
+     * CID que o ficheiro terá no IPFS, para reconhecer conteúdo já conhecido antes de o enviar.
+     *
+     * @param local calculador por onde o ficheiro já passou ao ser gravado
+     * @return o CID, ou null se a pré-computação estiver desligada ou falhar
+     */
+    public String precomputeCid(File file, CidCalculator local) {
+        switch (cidPrecompute) {
+            case "local":
+                return local.getCid();
+            case "daemon":
+                try {
+                    return add(file, "?only-hash=true");
+                } catch (Exception e) {
+                    System.err.println("IPFS only-hash failed for " + file.getName() + ": " + e.getMessage());
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compara o CID pré-calculado com o devolvido pelo add. Se forem diferentes o daemon usa
+     * outros parâmetros (CIDv1, raw-leaves, chunker) e o atalho nunca vai encontrar nada.
+     */
+    public void checkPrecomputedCid(String precomputed, String actual) {
+        if (precomputed == null || precomputed.equals(actual)) return;
+        long count = cidMismatches.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            System.err.println("IPFS CID mismatch: precomputed " + precomputed + " but daemon returned " + actual +
+                               " (" + count + " so far; check the daemon add defaults or set -Dipfs.cid.precompute=daemon)");
+        }
+    }
+
     public String uploadFile(File file) throws Exception {
-        URL url = new URL(ipfsApiBase + "/api/v0/add");
+        StageEvent stage = Tracing.stage("ipfs.add", "leader");
+        String cid = add(file, "");
+        stage.finish(null, 0, cid + " (" + file.length() + " bytes)");
+        return cid;
+    }
+
+    private String add(File file, String query) throws Exception {
+        URL url = new URL(ipfsApiBase + "/api/v0/add" + query);
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         conn.setRequestMethod("POST");
         conn.setDoOutput(true);
@@ -48,4 +102,99 @@ public class IPFSClient {
             return response.substring(start, end);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Descarrega o conteúdo de um CID (/api/v0/cat) para um ficheiro.
+     */
+    public void download(String cid, File target) throws Exception {
+        URL url = new URL(ipfsApiBase + "/api/v0/cat?arg=" + URLEncoder.encode(cid, StandardCharsets.UTF_8));
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        
+        int responseCode = conn.getResponseCode();
+        if (responseCode >= 400) {
+            try (InputStream errorStream = conn.getErrorStream()) {
+                String error = errorStream != null ? new String(errorStream.readAllBytes()) : "status " + responseCode;
+                throw new RuntimeException("IPFS cat failed for " + cid + ": " + error);
+            }
+        }
+        try (InputStream is = conn.getInputStream()) {
+            Files.copy(is, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Adiciona vários ficheiros num único pedido /api/v0/add (uma ronda HTTP por lote).
+     * Cada parte recebe o seu índice como nome, para associar as linhas da resposta aos ficheiros.
+     *
+     * @return os CIDs pela ordem dos ficheiros
+     */
+    public List<String> uploadFiles(List<File> files) throws Exception {
+        if (files.isEmpty()) return new ArrayList<>();
+        StageEvent stage = Tracing.stage("ipfs.add", "leader");
+        List<String> cids = addFiles(files);
+        stage.finish(null, 0, files.size() + " file(s)");
+        return cids;
+    }
+
+    private List<String> addFiles(List<File> files) throws Exception {
+        URL url = new URL(ipfsApiBase + "/api/v0/add");
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setChunkedStreamingMode(64 * 1024);
+        
+        String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
+        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        
+        try (var os = conn.getOutputStream()) {
+            for (int i = 0; i < files.size(); i++) {
+                os.write(("--" + boundary + "\r\n").getBytes());
+                os.write(("Content-Disposition: form-data; name=\"file\"; filename=\"" + i + "\"\r\n").getBytes());
+                os.write("Content-Type: application/octet-stream\r\n\r\n".getBytes());
+                Files.copy(files.get(i).toPath(), os);
+                os.write("\r\n".getBytes());
+            }
+            os.write(("--" + boundary + "--\r\n").getBytes());
+        }
+        
+        int responseCode = conn.getResponseCode();
+        if (responseCode >= 400) {
+            try (InputStream errorStream = conn.getErrorStream()) {
+                String error = new String(errorStream.readAllBytes());
+                throw new RuntimeException("IPFS batch upload failed: " + error);
+            }
+        }
+        
+        // Resposta: uma linha JSON por ficheiro ({"Name":"<índice>","Hash":"<cid>",...})
+        String[] cids = new String[files.size()];
+        try (InputStream is = conn.getInputStream()) {
+            String response = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            for (String line : response.split("\n")) {
+                String name = jsonField(line, "Name");
+                String hash = jsonField(line, "Hash");
+                if (name == null || hash == null) continue;
+                try {
+                    int index = Integer.parseInt(name);
+                    if (index >= 0 && index < cids.length) cids[index] = hash;
+                } catch (NumberFormatException ignored) {
+                    // entrada de diretório ou nome inesperado
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(files.size());
+        for (int i = 0; i < cids.length; i++) {
+            if (cids[i] == null) throw new RuntimeException("No CID in batch response for " + files.get(i).getName());
+            result.add(cids[i]);
+        }
+        return result;
+    }
+
+    private static String jsonField(String line, String field) {
+        int index = line.indexOf("\"" + field + "\":\"");
+        if (index == -1) return null;
+        int start = index + field.length() + 4;
+        int end = line.indexOf("\"", start);
+        return end == -1 ? null : line.substring(start, end);
+    }
+}
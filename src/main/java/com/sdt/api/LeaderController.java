@@ -1,62 +1,292 @@
 package com.sdt.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sdt.peers.LeaderElection;
+import com.sdt.peers.Sharding;
+import com.sdt.peers.StageEvent;
+import com.sdt.peers.Tracing;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/files")
 public class LeaderController {
     
+    private static final int VERSIONS_PAGE_DEFAULT = Integer.parseInt(System.getProperty("versions.page.default", "1000"));
+    private static final int VERSIONS_PAGE_MAX = Integer.parseInt(System.getProperty("versions.page.max", "10000"));
+    // quanto tempo um upload espera pelo modelo de embeddings antes de responder 503
+    private static final long MODEL_WAIT_MS = Long.parseLong(System.getProperty("embedding.ready.wait.ms", "30000"));
+    
     private final DocumentManager documentManager;
+    private final ObjectMapper jsonMapper = new ObjectMapper();
     
     @Autowired
     public LeaderController(DocumentManager documentManager) {
         this.documentManager = documentManager;
     }
     
+    /**
+     * Upload de um documento. A resposta leva o id de traço do pedido (X-Trace-Id), que também
+     * aparece nos logs e nos eventos JFR do líder e dos peers (ver {@link Tracing}).
+     */
     @PostMapping("/upload")
-    public ResponseEntity<?> uploadDocument(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> uploadDocument(HttpServletRequest request, HttpServletResponse response,
+                                            @RequestParam("file") MultipartFile file,
+                                            @RequestParam(value = "duplicates", required = false) String duplicates,
+                                            @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        String traceId = Tracing.newTraceId();
+        response.setHeader("X-Trace-Id", traceId);
+        Tracing.Scope scope = Tracing.open(traceId);
+        try {
+            return upload(request, file, duplicates, collectionName);
+        } finally {
+            scope.close();
+        }
+    }
+    
+    private ResponseEntity<?> upload(HttpServletRequest request, MultipartFile file, String duplicates, String collectionName) {
+        String trace = Tracing.tag(Tracing.current());
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        if (!collection.getElection().isLeader()) {
+            return notLeader(collection, request);
+        }
+        
+        // Política para quase-duplicados (skip, link, tag ou off)
+        NearDuplicateIndex.Policy policy = duplicatePolicy(duplicates, collection);
+        if (policy == null) {
+            return invalidDuplicatePolicy(duplicates);
+        }
+        if (!awaitModel()) {
+            return modelNotReady();
+        }
+        
+        Path tempFile = null;
+        String precomputedCid;
         try {
-            System.out.println("Received upload request for file: " + file.getOriginalFilename());
+            System.out.println(trace + "Received upload request for file: " + file.getOriginalFilename() +
+                               " (collection " + collectionName + ")");
             
-            // Salvar arquivo temporariamente
-            Path tempFile = Files.createTempFile("upload-", file.getOriginalFilename());
-            file.transferTo(tempFile.toFile());
+            // Salvar arquivo temporariamente, calculando o CID pelo caminho
+            StageEvent receive = Tracing.stage("upload.receive", "leader");
+            tempFile = Files.createTempFile("upload-", file.getOriginalFilename());
+            CidCalculator localCid = new CidCalculator();
+            try (InputStream in = file.getInputStream(); OutputStream out = Files.newOutputStream(tempFile)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                    localCid.write(buf, 0, n);
+                }
+            }
             
+            // Conteúdo já conhecido: responder já, sem IPFS, embedding nem 2PC
+            precomputedCid = documentManager.getIpfsClient().precomputeCid(tempFile.toFile(), localCid);
+            receive.finish(null, 0, file.getOriginalFilename() + " (" + file.getSize() + " bytes)");
+            UploadResult existing = collection.findExisting(precomputedCid);
+            if (existing != null) {
+                System.out.println("Upload " + file.getOriginalFilename() + " is already known as " + precomputedCid);
+                deleteQuietly(tempFile);
+                return ResponseEntity.ok(existing.toResponse(file.getOriginalFilename()));
+            }
+        } catch (Exception e) {
+            System.err.println("Upload failed: " + e.getMessage());
+            deleteQuietly(tempFile);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+        
+        // Sem vaga: rejeitar já, em vez de ocupar uma thread à espera do commit
+        AdmissionController.Permit permit = documentManager.getAdmissionController().tryAcquire();
+        if (permit == null) {
+            deleteQuietly(tempFile);
+            return overloaded();
+        }
+        
+        // a vaga só é libertada no finally, depois de uma falha ficar registada (um
+        // try-with-resources fechava-a antes do catch e a falha não chegava ao limite AIMD)
+        try {
             // Upload para IPFS
             String cid = documentManager.getIpfsClient().uploadFile(tempFile.toFile());
-            System.out.println("Uploaded to IPFS: " + cid);
+            System.out.println(trace + "Uploaded to IPFS: " + cid);
+            documentManager.getIpfsClient().checkPrecomputedCid(precomputedCid, cid);
             
             // Adicionar documento e propagar com 2PC
-            int version = documentManager.addDocumentAndPropagate(tempFile.toFile(), cid);
+            UploadResult result = collection.addDocumentAndPropagate(tempFile.toFile(), cid, file.getOriginalFilename(), policy);
             
             // Limpar arquivo temporário
             Files.deleteIfExists(tempFile);
             
-            return ResponseEntity.ok(Map.of(
-                "cid", cid,
-                "version", version,
-                "status", "committed",
-                "filename", file.getOriginalFilename()
-            ));
+            return ResponseEntity.ok(result.toResponse(file.getOriginalFilename()));
             
+        } catch (NotLeaderException e) {
+            // deposto entretanto: o cliente repete no novo líder
+            deleteQuietly(tempFile);
+            return notLeader(collection, request);
         } catch (Exception e) {
-            System.err.println("Upload failed: " + e.getMessage());
+            System.err.println(trace + "Upload failed: " + e.getMessage());
             e.printStackTrace();
+            permit.failed();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(Map.of("error", e.getMessage()));
+        } finally {
+            permit.close();
+        }
+    }
+    
+    /**
+     * Upload em bulk com várias partes "files": ficheiros soltos e/ou arquivos .zip, .tar e .tar.gz
+     * (desempacotados em streaming). Resposta em NDJSON, ver {@link #streamBulk}.
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> bulkUpload(HttpServletRequest request,
+                                        @RequestParam("files") List<MultipartFile> files,
+                                        @RequestParam(value = "duplicates", required = false) String duplicates,
+                                        @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        if (!collection.getElection().isLeader()) {
+            return notLeader(collection, request);
+        }
+        NearDuplicateIndex.Policy policy = duplicatePolicy(duplicates, collection);
+        if (policy == null) {
+            return invalidDuplicatePolicy(duplicates);
+        }
+        if (!awaitModel()) {
+            return modelNotReady();
+        }
+        if (!documentManager.getAdmissionController().tryStartBulkStream()) {
+            return overloaded();
+        }
+        System.out.println("Received bulk upload with " + files.size() + " part(s) (collection " + collectionName + ")");
+        return streamBulk(collection, policy, ingestor -> {
+            for (MultipartFile file : files) {
+                String filename = file.getOriginalFilename() != null ? file.getOriginalFilename() : file.getName();
+                String format = BulkIngestor.formatForFilename(filename);
+                try (InputStream in = file.getInputStream()) {
+                    if (format != null) {
+                        ingestor.addArchive(in, format);
+                    } else {
+                        ingestor.add(filename, in);
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * Upload em bulk de um único arquivo no corpo do pedido (Content-Type zip/tar/gzip, ou
+     * application/octet-stream com {@code format=zip|tar|tgz}), lido em streaming.
+     */
+    @PostMapping(value = "/bulk", consumes = {"application/zip", "application/x-zip-compressed", "application/x-tar",
+                                              "application/gzip", "application/x-gzip", "application/x-gtar",
+                                              "application/x-compressed-tar", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> bulkUploadArchive(HttpServletRequest request,
+                                               @RequestParam(value = "format", required = false) String format,
+                                               @RequestParam(value = "duplicates", required = false) String duplicates,
+                                               @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        if (!collection.getElection().isLeader()) {
+            return notLeader(collection, request);
+        }
+        NearDuplicateIndex.Policy policy = duplicatePolicy(duplicates, collection);
+        if (policy == null) {
+            return invalidDuplicatePolicy(duplicates);
+        }
+        String archiveFormat = format != null ? format.toLowerCase() : BulkIngestor.formatForContentType(request.getContentType());
+        if (archiveFormat == null || !List.of("zip", "tar", "tgz").contains(archiveFormat)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "Unknown archive format (use format=zip, tar or tgz)"));
+        }
+        if (!awaitModel()) {
+            return modelNotReady();
+        }
+        if (!documentManager.getAdmissionController().tryStartBulkStream()) {
+            return overloaded();
+        }
+        System.out.println("Received bulk " + archiveFormat + " archive (collection " + collectionName + ")");
+        return streamBulk(collection, policy, ingestor -> ingestor.addArchive(request.getInputStream(), archiveFormat));
+    }
+    
+    private interface BulkSource {
+        void feed(BulkIngestor ingestor) throws Exception;
+    }
+    
+    /**
+     * Resposta NDJSON do bulk: uma linha por ficheiro, à medida que cada lote é confirmado
+     * (os campos do /upload mais "filename" e, se falhou, "error"), e uma linha final
+     * {"summary": {...}} com a contagem por estado. Termina o pedido registado com
+     * {@link AdmissionController#tryStartBulkStream()}.
+     */
+    private ResponseEntity<StreamingResponseBody> streamBulk(DocumentCollection collection, NearDuplicateIndex.Policy policy,
+                                                             BulkSource source) {
+        AdmissionController admission = documentManager.getAdmissionController();
+        StreamingResponseBody body = out -> {
+            BulkIngestor.ResultSink sink = (filename, result) -> writeLine(out, result.toResponse(filename));
+            try (BulkIngestor ingestor = new BulkIngestor(collection, documentManager.getIpfsClient(), admission, policy, sink)) {
+                try {
+                    source.feed(ingestor);
+                } catch (Exception e) {
+                    // ex.: arquivo corrompido; os ficheiros já lidos continuam a ser processados
+                    System.err.println("Bulk upload input failed: " + e.getMessage());
+                    writeLine(out, Map.of("error", "Failed to read upload: " + e.getMessage()));
+                }
+                writeLine(out, Map.of("summary", ingestor.finish()));
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                System.err.println("Bulk upload failed: " + e.getMessage());
+                writeLine(out, Map.of("error", String.valueOf(e.getMessage())));
+            } finally {
+                admission.endBulkStream();
+            }
+        };
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
+    }
+    
+    private void writeLine(OutputStream out, Object value) throws IOException {
+        synchronized (out) {
+            out.write(jsonMapper.writeValueAsBytes(value));
+            out.write('\n');
+            out.flush();
         }
     }
     
     @GetMapping("/download/{cid}")
-    public ResponseEntity<?> downloadDocument(@PathVariable String cid) {
+    public ResponseEntity<?> downloadDocument(@PathVariable String cid,
+                                              @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        if (documentManager.getCollection(collectionName) == null) {
+            return unknownCollection(collectionName);
+        }
         try {
             // Implementar download se necessário
             return ResponseEntity.ok(Map.of("cid", cid, "message", "Download not implemented yet"));
@@ -66,16 +296,414 @@ public class LeaderController {
         }
     }
     
-    @GetMapping("/versions")
-    public ResponseEntity<?> getVersions() {
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@RequestParam("q") String query,
+                                    @RequestParam(value = "k", defaultValue = "10") int k,
+                                    @RequestParam(value = "mode", defaultValue = "hybrid") String mode,
+                                    @RequestParam(value = "alpha", defaultValue = "0.5") double alpha,
+                                    @RequestParam(value = "minVersion", required = false) String minVersion,
+                                    @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        SearchService.Mode searchMode;
+        int[] minVersions;
+        try {
+            searchMode = SearchService.Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "Invalid mode: " + mode + " (use lexical, vector or hybrid)"));
+        }
+        try {
+            minVersions = collection.parseVersionToken(minVersion);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "Invalid minVersion: " + minVersion));
+        }
+        // a pesquisa lexical não precisa do modelo; as outras não esperam por ele
+        if (searchMode != SearchService.Mode.LEXICAL && !documentManager.getEmbeddingService().isReady()) {
+            return modelNotReady();
+        }
+        
         try {
             return ResponseEntity.ok(Map.of(
-                "currentVersion", documentManager.getCurrentVersion(),
-                "versions", documentManager.getVersions()
+                "query", query,
+                "collection", collectionName,
+                "mode", searchMode.name().toLowerCase(),
+                "results", collection.search(query, k, searchMode, alpha, minVersions)
             ));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(Map.of("error", e.getMessage()));
         }
     }
-}
\ No newline at end of file
+    
+    @GetMapping("/documents")
+    public ResponseEntity<?> listDocuments(@RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        return ResponseEntity.ok(collection.listDocuments());
+    }
+    
+    @GetMapping("/documents/{cid}")
+    public ResponseEntity<?> getDocument(@PathVariable String cid,
+                                         @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        DocumentMetadata meta = collection.getMetadata(cid);
+        if (meta == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(Map.of("error", "Unknown cid " + cid));
+        }
+        return ResponseEntity.ok(meta);
+    }
+    
+    /**
+     * Vetor de CIDs e alterações incrementais, em streaming e com ETag.
+     *
+     * Sem {@code since} devolve o vetor atual, lido do histórico do líder à medida que é escrito;
+     * com {@code since} devolve as alterações (versão, CID) depois dessa versão, em páginas de
+     * {@code limit} (continuar com {@code next}), que podem ser servidas por um peer (follower
+     * read); {@code minVersion} (o readToken do upload) garante read-your-writes. Com {@code atVersion} devolve o vetor tal como estava nessa
+     * versão (time travel; as versões antigas são lidas do histórico no disco). {@code since},
+     * {@code minVersion}, {@code atVersion} e {@code next} usam o formato "v" ou "shard:v,...".
+     */
+    @GetMapping("/versions")
+    public ResponseEntity<?> getVersions(@RequestParam(value = "since", required = false) String since,
+                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                         @RequestParam(value = "minVersion", required = false) String minVersion,
+                                         @RequestParam(value = "atVersion", required = false) String atVersion,
+                                         @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                                         @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        int[] sinceVersions;
+        int[] minVersions;
+        int[] atVersions;
+        try {
+            sinceVersions = collection.parseVersionToken(since);
+            minVersions = collection.parseVersionToken(minVersion);
+            atVersions = collection.parseVersionToken(atVersion);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "Invalid version token: " + e.getMessage()));
+        }
+        if (atVersion != null && since != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "atVersion cannot be combined with since"));
+        }
+        if (limit != null && limit <= 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", "limit must be positive"));
+        }
+        boolean incremental = since != null;
+        int pageSize = Math.min(limit != null ? limit : VERSIONS_PAGE_DEFAULT, VERSIONS_PAGE_MAX);
+        
+        try {
+            List<DocumentShard> shards = collection.getShards();
+            
+            // O líder tem sempre o estado mais recente: se o cliente já o tem, não há nada a ler
+            int[] leaderVersions = new int[shards.size()];
+            for (DocumentShard shard : shards) {
+                leaderVersions[shard.getShardId()] = shard.getCurrentVersion();
+            }
+            String leaderETag = "\"" + collection.versionToken(leaderVersions) + "\"";
+            if (leaderETag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(leaderETag).build();
+            }
+            
+            // Alterações: uma página limitada por shard (pode vir de um peer). Vetor completo: só a
+            // versão é fixada aqui; os CIDs são lidos do histórico do líder enquanto são escritos
+            List<VersionsPage> pages = new ArrayList<>();
+            int[] servedVersions = new int[shards.size()];
+            int[] nextVersions = new int[shards.size()];
+            for (DocumentShard shard : shards) {
+                int id = shard.getShardId();
+                if (incremental) {
+                    VersionsPage page = shard.readChanges(sinceVersions[id], pageSize, minVersions[id]);
+                    pages.add(page);
+                    servedVersions[id] = page.getCurrentVersion();
+                    nextVersions[id] = page.getNext();
+                } else {
+                    servedVersions[id] = atVersion != null ? Math.min(atVersions[id], leaderVersions[id]) : leaderVersions[id];
+                }
+            }
+            String eTag = "\"" + collection.versionToken(servedVersions) + "\"";
+            if (eTag.equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+            String next = collection.versionToken(nextVersions);
+            
+            StreamingResponseBody body = out -> {
+                try (JsonGenerator gen = jsonMapper.getFactory().createGenerator(out)) {
+                    gen.writeStartObject();
+                    if (shards.size() == 1) {
+                        if (incremental) {
+                            writeVersionsPage(gen, pages.get(0));
+                        } else {
+                            writeVector(gen, shards.get(0), servedVersions[0]);
+                        }
+                    } else {
+                        gen.writeArrayFieldStart("shards");
+                        for (DocumentShard shard : shards) {
+                            int id = shard.getShardId();
+                            gen.writeStartObject();
+                            gen.writeNumberField("shard", id);
+                            gen.writeStringField("topic", shard.getTopic());
+                            if (incremental) {
+                                writeVersionsPage(gen, pages.get(id));
+                            } else {
+                                writeVector(gen, shard, servedVersions[id]);
+                            }
+                            gen.writeEndObject();
+                        }
+                        gen.writeEndArray();
+                    }
+                    if (incremental) {
+                        gen.writeStringField("next", next);
+                    }
+                    gen.writeEndObject();
+                }
+            };
+            return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Readiness: 200 quando é possível gerar embeddings (modelo carregado, ou fallback
+     * determinístico explicitamente ativado), 503 enquanto o modelo carrega ou se falhou.
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<?> ready() {
+        EmbeddingService embeddingService = documentManager.getEmbeddingService();
+        return ResponseEntity.status(embeddingService.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+            .body(Map.of(
+                "status", embeddingService.getState().name().toLowerCase(),
+                "detail", embeddingService.getStateDetail(),
+                "model", embeddingService.getModelInfo(),
+                "collections", documentManager.getCollections().keySet()
+            ));
+    }
+    
+    /**
+     * Inicia (ou retoma) a reindexação dos embeddings da coleção com o modelo atual, ex. depois
+     * de mudar de modelo. Corre em segundo plano; o progresso está em GET /reindex.
+     */
+    @PostMapping("/reindex")
+    public ResponseEntity<?> startReindex(HttpServletRequest request,
+                                          @RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        ReindexJob job = documentManager.getReindexJob(collectionName);
+        if (job == null) {
+            return unknownCollection(collectionName);
+        }
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (!collection.getElection().isLeader()) {
+            return notLeader(collection, request);
+        }
+        job.start();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.getStatus());
+    }
+    
+    @GetMapping("/reindex")
+    public ResponseEntity<?> reindexStatus(@RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        ReindexJob job = documentManager.getReindexJob(collectionName);
+        if (job == null) {
+            return unknownCollection(collectionName);
+        }
+        return ResponseEntity.ok(job.getStatus());
+    }
+    
+    /**
+     * Pausa a reindexação no fim do lote atual (retoma com POST /reindex).
+     */
+    @DeleteMapping("/reindex")
+    public ResponseEntity<?> pauseReindex(@RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        ReindexJob job = documentManager.getReindexJob(collectionName);
+        if (job == null) {
+            return unknownCollection(collectionName);
+        }
+        job.pause();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.getStatus());
+    }
+    
+    /**
+     * Estado das caches de pesquisa de uma coleção (entradas, acertos, atualizações incrementais).
+     */
+    @GetMapping("/search/cache")
+    public ResponseEntity<?> searchCache(@RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        return ResponseEntity.ok(collection.getSearchCacheStats());
+    }
+    
+    /**
+     * Líder da coleção: papel desta instância, termo, líder atual e a sua URL, e versão dos shards.
+     */
+    @GetMapping("/leader")
+    public ResponseEntity<?> leader(@RequestParam(value = "collection", defaultValue = Sharding.DEFAULT_COLLECTION) String collectionName) {
+        DocumentCollection collection = documentManager.getCollection(collectionName);
+        if (collection == null) {
+            return unknownCollection(collectionName);
+        }
+        return ResponseEntity.ok(collection.getLeaderStatus());
+    }
+    
+    /**
+     * Estado do controlo de admissão dos uploads (limite atual, vagas ocupadas, rejeições).
+     */
+    @GetMapping("/admission")
+    public ResponseEntity<?> admission() {
+        return ResponseEntity.ok(documentManager.getAdmissionController().getStats());
+    }
+    
+    /**
+     * Coleções servidas por este líder, com a versão atual de cada shard e o número de documentos.
+     */
+    @GetMapping("/collections")
+    public ResponseEntity<?> listCollections() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (DocumentCollection collection : documentManager.getCollections().values()) {
+            int[] versions = new int[collection.getShards().size()];
+            for (DocumentShard shard : collection.getShards()) {
+                versions[shard.getShardId()] = shard.getCurrentVersion();
+            }
+            result.add(Map.of(
+                "name", collection.getName(),
+                "shards", versions.length,
+                "version", collection.versionToken(versions),
+                "documents", collection.listDocuments().size()
+            ));
+        }
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * @return a política pedida, a da coleção se não for indicada, ou null se for inválida
+     */
+    private static NearDuplicateIndex.Policy duplicatePolicy(String duplicates, DocumentCollection collection) {
+        if (duplicates == null) {
+            return collection.getDefaultDuplicatePolicy();
+        }
+        try {
+            return NearDuplicateIndex.Policy.valueOf(duplicates.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static ResponseEntity<?> invalidDuplicatePolicy(String duplicates) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .body(Map.of("error", "Invalid duplicates policy: " + duplicates + " (use skip, link, tag or off)"));
+    }
+    
+    /**
+     * Segura o pedido até o modelo estar pronto (no máximo embedding.ready.wait.ms).
+     */
+    private boolean awaitModel() {
+        try {
+            return documentManager.getEmbeddingService().awaitReady(MODEL_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private ResponseEntity<?> modelNotReady() {
+        EmbeddingService embeddingService = documentManager.getEmbeddingService();
+        EmbeddingService.State state = embeddingService.getState();
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE);
+        if (state == EmbeddingService.State.LOADING) {
+            response.header("Retry-After", "5");
+        }
+        return response.body(Map.of(
+            "error", "Embedding model not ready",
+            "status", state.name().toLowerCase(),
+            "detail", embeddingService.getStateDetail()
+        ));
+    }
+    
+    private ResponseEntity<?> overloaded() {
+        AdmissionController admission = documentManager.getAdmissionController();
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header("Retry-After", String.valueOf(admission.retryAfterSeconds()))
+            .body(Map.of("error", "Server busy, retry later", "admission", admission.getStats()));
+    }
+    
+    /**
+     * Escrita numa instância em standby: 307 para o líder eleito (o cliente repete o pedido com
+     * o mesmo método e corpo), ou 503 enquanto não há líder (eleição em curso).
+     */
+    private static ResponseEntity<?> notLeader(DocumentCollection collection, HttpServletRequest request) {
+        LeaderElection election = collection.getElection();
+        String leaderUrl = election.getLeaderUrl();
+        if (leaderUrl != null) {
+            String target = leaderUrl.replaceAll("/+$", "") + request.getRequestURI() +
+                            (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+            return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                .location(URI.create(target))
+                .body(Map.of("error", "Not the leader", "leader", leaderUrl, "term", election.getTerm()));
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header("Retry-After", String.valueOf(Math.max(1, (election.getMaxElectionMs() + 999) / 1000)))
+            .body(Map.of("error", "No leader elected yet", "term", election.getTerm()));
+    }
+    
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Failed to delete temp file " + file + ": " + e.getMessage());
+        }
+    }
+    
+    private static ResponseEntity<?> unknownCollection(String name) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+            .body(Map.of("error", "Unknown collection " + name));
+    }
+    
+    /**
+     * Vetor de um shard na versão {@code version}, escrito à medida que é lido do histórico.
+     */
+    private static void writeVector(JsonGenerator gen, DocumentShard shard, int version) throws IOException {
+        gen.writeNumberField("currentVersion", version);
+        gen.writeStringField("servedBy", "leader");
+        gen.writeArrayFieldStart("vector");
+        Iterator<String> cids = shard.vectorIterator(version, VERSIONS_PAGE_MAX);
+        while (cids.hasNext()) {
+            gen.writeString(cids.next());
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeVersionsPage(JsonGenerator gen, VersionsPage page) throws IOException {
+        gen.writeNumberField("currentVersion", page.getCurrentVersion());
+        gen.writeStringField("servedBy", page.getServedBy());
+        gen.writeNumberField("since", page.getSince());
+        gen.writeArrayFieldStart("changes");
+        for (VersionChange change : page.getChanges()) {
+            gen.writeStartObject();
+            gen.writeNumberField("version", change.getVersion());
+            gen.writeStringField("cid", change.getCid());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeBooleanField("hasMore", page.hasMore());
+    }
+}
@@ -0,0 +1,464 @@
+package com.sdt.api;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Índice invertido BM25 sobre o texto extraído dos documentos.
+ *
+ * As postings de cada termo são guardadas comprimidas (deltas de docId + tf em varint)
+ * com uma skip list a cada {@link #SKIP_INTERVAL} postings. Os documentos recebem ids
+ * crescentes, por isso o índice cresce só por append. As pesquisas usam DAAT com
+ * MaxScore: os termos que sozinhos não chegam ao top-k só são avaliados (via skip list)
+ * nos documentos candidatos.
+ *
+ * Cada documento indexado é também escrito num log ({@code lexical.log}) para o índice
+ * ser reconstruído no arranque: um cabeçalho "SDTL" e registos [int tamanho][int crc32][payload],
+ * como no MetadataStore. O replay pára no primeiro registo incompleto, com tamanho impossível ou
+ * com o CRC errado, e trunca o log nesse ponto. Um log antigo (sem cabeçalho nem CRC) é
+ * convertido no arranque. Cada registo é sincronizado (fsync) antes de add() retornar, como
+ * nos outros stores, para o índice não ficar atrás do EmbeddingStore/MetadataStore após um crash.
+ */
+public class LexicalIndex implements AutoCloseable {
+
+    static final int SKIP_INTERVAL = 64;
+    private static final int LOG_MAGIC = 0x5344544C; // "SDTL"
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // palavras, números e identificadores como "XJ-900" ou "v1.2"
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+(?:[-_./][\\p{L}\\p{N}]+)*");
+    private static final Pattern SUBTOKEN = Pattern.compile("[-_./]");
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final Map<String, Integer> docIds = new HashMap<>();
+    private final List<String> cids = new ArrayList<>();
+    private int[] docLengths = new int[1024];
+    private long totalLength = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Path logPath;
+    private final FileChannel logChannel;
+    private DataOutputStream log;
+
+    public LexicalIndex(Path logPath) throws IOException {
+        this.logPath = logPath;
+        Files.createDirectories(logPath.getParent());
+        replayLog();
+        this.logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(logChannel)));
+        if (Files.size(logPath) == 0) {
+            log.writeInt(LOG_MAGIC);
+            log.flush();
+            logChannel.force(false);
+        }
+    }
+
+    /**
+     * Tokenização simples: minúsculas, e identificadores compostos são indexados
+     * inteiros e também por partes ("xj-900", "xj", "900").
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        Matcher m = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (m.find()) {
+            String token = m.group();
+            tokens.add(token);
+            if (SUBTOKEN.matcher(token).find()) {
+                for (String part : SUBTOKEN.split(token)) {
+                    if (!part.isEmpty()) tokens.add(part);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Indexa o texto de um documento confirmado. CIDs já indexados são ignorados
+     * (o mesmo CID tem sempre o mesmo conteúdo).
+     */
+    public void addDocument(String cid, String text) throws IOException {
+        Map<String, Integer> termFreqs = new LinkedHashMap<>();
+        List<String> tokens = tokenize(text);
+        for (String t : tokens) {
+            termFreqs.merge(t, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (docIds.containsKey(cid)) return;
+            index(cid, tokens.size(), termFreqs);
+            writeLogRecord(cid, tokens.size(), termFreqs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(String cid, int length, Map<String, Integer> termFreqs) {
+        int docId = cids.size();
+        cids.add(cid);
+        docIds.put(cid, docId);
+        if (docId >= docLengths.length) {
+            docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+        }
+        docLengths[docId] = length;
+        totalLength += length;
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new PostingList()).add(docId, e.getValue());
+        }
+    }
+
+    /**
+     * Top-k BM25 (disjuntivo) para a query.
+     */
+    public List<SearchHit> search(String query, int k) {
+        lock.readLock().lock();
+        try {
+            int n = cids.size();
+            if (n == 0 || k <= 0) return new ArrayList<>();
+            double avgLength = Math.max(1.0, (double) totalLength / n);
+
+            List<TermCursor> terms = new ArrayList<>();
+            for (String term : new LinkedHashSet<>(tokenize(query))) {
+                PostingList list = postings.get(term);
+                if (list == null) continue;
+                double idf = Math.log(1 + (n - list.size + 0.5) / (list.size + 0.5));
+                terms.add(new TermCursor(list, idf));
+            }
+            if (terms.isEmpty()) return new ArrayList<>();
+
+            // MaxScore: ordenar por contribuição máxima e acumular prefixos
+            terms.sort(Comparator.comparingDouble(t -> t.upperBound));
+            double[] prefix = new double[terms.size() + 1];
+            for (int i = 0; i < terms.size(); i++) {
+                prefix[i + 1] = prefix[i] + terms.get(i).upperBound;
+                terms.get(i).next();
+            }
+
+            PriorityQueue<double[]> heap = new PriorityQueue<>(Comparator.comparingDouble(h -> h[1]));
+            double threshold = 0;
+            int firstEssential = 0;
+
+            while (true) {
+                int candidate = Integer.MAX_VALUE;
+                for (int i = firstEssential; i < terms.size(); i++) {
+                    candidate = Math.min(candidate, terms.get(i).doc);
+                }
+                if (candidate == Integer.MAX_VALUE) break;
+
+                double norm = K1 * (1 - B + B * docLengths[candidate] / avgLength);
+                double score = 0;
+                for (int i = firstEssential; i < terms.size(); i++) {
+                    TermCursor t = terms.get(i);
+                    if (t.doc == candidate) {
+                        score += t.score(norm);
+                        t.next();
+                    }
+                }
+                for (int i = firstEssential - 1; i >= 0; i--) {
+                    if (score + prefix[i + 1] <= threshold) break;
+                    TermCursor t = terms.get(i);
+                    t.advance(candidate);
+                    if (t.doc == candidate) {
+                        score += t.score(norm);
+                    }
+                }
+
+                if (heap.size() < k) {
+                    heap.add(new double[]{candidate, score});
+                } else if (score > heap.peek()[1]) {
+                    heap.poll();
+                    heap.add(new double[]{candidate, score});
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek()[1];
+                    while (firstEssential < terms.size() && prefix[firstEssential + 1] <= threshold) {
+                        firstEssential++;
+                    }
+                }
+            }
+
+            List<SearchHit> hits = new ArrayList<>(heap.size());
+            for (double[] h : heap) {
+                hits.add(new SearchHit(cids.get((int) h[0]), h[1]));
+            }
+            hits.sort(Comparator.comparingDouble(SearchHit::getScore).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return cids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void writeLogRecord(String cid, int length, Map<String, Integer> termFreqs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(cid);
+        out.writeInt(length);
+        out.writeInt(termFreqs.size());
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue());
+        }
+        writeRecord(log, bytes.toByteArray());
+        log.flush();
+        logChannel.force(false);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private void replayLog() throws IOException {
+        if (!Files.exists(logPath) || Files.size(logPath) == 0) return;
+        long validBytes = 0;
+        try (FileChannel ch = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            if (readFully(ch, magic) == 4 && magic.getInt(0) != LOG_MAGIC) {
+                ch.position(0);
+                migrateLegacyLog(ch);
+                return;
+            }
+            if (magic.position() == 4) {
+                validBytes = 4;
+                ByteBuffer header = ByteBuffer.allocate(8);
+                while (true) {
+                    header.clear();
+                    if (readFully(ch, header) < 8) break;
+                    int length = header.getInt(0);
+                    int crc = header.getInt(4);
+                    if (length <= 0 || length > ch.size() - ch.position()) break;
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    if (readFully(ch, payload) < length) break;
+                    CRC32 check = new CRC32();
+                    check.update(payload.array());
+                    if ((int) check.getValue() != crc || !replayRecord(payload.array())) break;
+                    validBytes = ch.position();
+                }
+            }
+        }
+        if (validBytes < Files.size(logPath)) {
+            System.err.println("LexicalIndex: truncating torn tail of " + logPath + " at " + validBytes);
+            try (FileChannel ch = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                ch.truncate(validBytes);
+            }
+        }
+        System.out.println("LexicalIndex: loaded " + cids.size() + " documents, " + postings.size() + " terms");
+    }
+
+    /**
+     * Log do formato anterior ([int tamanho][payload], sem cabeçalho nem CRC): indexa os registos
+     * válidos e reescreve-os no formato atual (troca atómica do ficheiro).
+     */
+    private void migrateLegacyLog(FileChannel ch) throws IOException {
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        int records = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(LOG_MAGIC);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (true) {
+                header.clear();
+                if (readFully(ch, header) < 4) break;
+                int length = header.getInt(0);
+                if (length <= 0 || length > ch.size() - ch.position()) break;
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (readFully(ch, payload) < length || !replayRecord(payload.array())) break;
+                writeRecord(out, payload.array());
+                records++;
+            }
+        }
+        Files.move(tmp, logPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("LexicalIndex: converted " + records + " records of " + logPath + " to the checksummed format");
+        System.out.println("LexicalIndex: loaded " + cids.size() + " documents, " + postings.size() + " terms");
+    }
+
+    /**
+     * @return false se o payload não se deixa ler (o replay pára aí)
+     */
+    private boolean replayRecord(byte[] record) {
+        try {
+            DataInputStream rec = new DataInputStream(new ByteArrayInputStream(record));
+            String cid = rec.readUTF();
+            int length = rec.readInt();
+            int terms = rec.readInt();
+            if (terms < 0) return false;
+            Map<String, Integer> termFreqs = new LinkedHashMap<>();
+            for (int i = 0; i < terms; i++) {
+                termFreqs.put(rec.readUTF(), rec.readInt());
+            }
+            if (!docIds.containsKey(cid)) {
+                index(cid, length, termFreqs);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) break;
+        }
+        return buf.position();
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("LexicalIndex: failed to close log: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Postings comprimidas de um termo: varint(docId - anterior), varint(tf).
+     * skipOffsets[b]/skipPrevDoc[b] marcam o início do bloco b (SKIP_INTERVAL postings).
+     */
+    static final class PostingList {
+        byte[] data = new byte[16];
+        int bytes = 0;
+        int size = 0;
+        int lastDoc = -1;
+        int maxTf = 0;
+        int[] skipOffsets = new int[4];
+        int[] skipPrevDoc = new int[4];
+
+        void add(int docId, int tf) {
+            if (size % SKIP_INTERVAL == 0) {
+                int block = size / SKIP_INTERVAL;
+                if (block >= skipOffsets.length) {
+                    skipOffsets = Arrays.copyOf(skipOffsets, skipOffsets.length * 2);
+                    skipPrevDoc = Arrays.copyOf(skipPrevDoc, skipPrevDoc.length * 2);
+                }
+                skipOffsets[block] = bytes;
+                skipPrevDoc[block] = lastDoc;
+            }
+            writeVarInt(docId - lastDoc);
+            writeVarInt(tf);
+            lastDoc = docId;
+            maxTf = Math.max(maxTf, tf);
+            size++;
+        }
+
+        private void writeVarInt(int value) {
+            if (bytes + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[bytes++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[bytes++] = (byte) value;
+        }
+    }
+
+    /**
+     * Cursor sobre uma PostingList. doc == Integer.MAX_VALUE quando esgotado.
+     */
+    private static final class TermCursor {
+        final PostingList list;
+        final double idf;
+        final double upperBound;
+        int doc = -1;
+        int tf = 0;
+        private int offset = 0;
+        private int index = 0;
+
+        TermCursor(PostingList list, double idf) {
+            this.list = list;
+            this.idf = idf;
+            this.upperBound = idf * (K1 + 1);
+        }
+
+        double score(double norm) {
+            return idf * tf * (K1 + 1) / (tf + norm);
+        }
+
+        void next() {
+            if (index >= list.size) {
+                doc = Integer.MAX_VALUE;
+                return;
+            }
+            int prev = doc < 0 ? -1 : doc;
+            doc = prev + readVarInt();
+            tf = readVarInt();
+            index++;
+        }
+
+        /**
+         * Avança até ao primeiro doc >= target, saltando blocos inteiros pela skip list.
+         */
+        void advance(int target) {
+            if (doc >= target) return;
+            int block = index / SKIP_INTERVAL;
+            int blocks = (list.size + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+            int jump = block;
+            while (jump + 1 < blocks && list.skipPrevDoc[jump + 1] < target) {
+                jump++;
+            }
+            if (jump > block) {
+                offset = list.skipOffsets[jump];
+                index = jump * SKIP_INTERVAL;
+                doc = list.skipPrevDoc[jump];
+            }
+            while (doc < target) {
+                next();
+            }
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = list.data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.sdt.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Índice de metadados (CID -> nome, tamanho, mime type, versão, datas) num log append-only.
+ *
+ * Cada registo é [int tamanho][int crc32][payload]. O estado vive num mapa em memória,
+ * reconstruído ao abrir a partir do log; um registo incompleto no fim é descartado.
+ * Uma thread de fundo reescreve o log só com os registos vivos quando os registos
+ * obsoletos passam a dominar.
+ */
+public class MetadataStore implements AutoCloseable {
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final long COMPACTION_CHECK_SECONDS = 60;
+    private static final int MIN_STALE_FOR_COMPACTION = 1000;
+
+    private final Path logPath;
+    private final Map<String, DocumentMetadata> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "metadata-compaction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FileChannel log;
+    private long staleRecords = 0;
+
+    public MetadataStore(Path logPath) throws IOException {
+        this.logPath = logPath;
+        Files.createDirectories(logPath.getParent());
+        load();
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactionExecutor.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACTION_CHECK_SECONDS, COMPACTION_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(logPath)) return;
+
+        long validBytes = 0;
+        try (FileChannel ch = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (true) {
+                header.clear();
+                if (readFully(ch, header) < 8) break;
+                header.flip();
+                int length = header.getInt();
+                int crc = header.getInt();
+                if (length <= 0 || length > ch.size() - ch.position()) break;
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (readFully(ch, payload) < length) break;
+                CRC32 check = new CRC32();
+                check.update(payload.array());
+                if ((int) check.getValue() != crc) break;
+                apply(payload.array());
+                validBytes = ch.position();
+            }
+        }
+
+        if (validBytes < Files.size(logPath)) {
+            System.err.println("MetadataStore: truncating torn tail of " + logPath + " at " + validBytes);
+            try (FileChannel ch = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                ch.truncate(validBytes);
+            }
+        }
+        System.out.println("MetadataStore: loaded " + entries.size() + " documents from " + logPath);
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) break;
+        }
+        return buf.position();
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        String cid = in.readUTF();
+        DocumentMetadata previous;
+        if (op == OP_PUT) {
+            String filename = in.readUTF();
+            long size = in.readLong();
+            String mimeType = in.readUTF();
+            int version = in.readInt();
+            long createdAt = in.readLong();
+            long updatedAt = in.readLong();
+            // campo opcional acrescentado depois (registos antigos não o têm)
+            String duplicateOf = in.available() > 0 ? in.readUTF() : null;
+            DocumentMetadata meta = new DocumentMetadata(cid, filename, size, mimeType,
+                    version, createdAt, updatedAt, duplicateOf);
+            previous = entries.put(cid, meta);
+        } else {
+            previous = entries.remove(cid);
+            staleRecords++; // o próprio registo de delete
+        }
+        if (previous != null) staleRecords++;
+    }
+
+    /**
+     * Grava (ou atualiza) os metadados de um CID. Mantém createdAt se o CID já existir.
+     */
+    public DocumentMetadata put(String cid, String filename, long size, String mimeType, int version) throws IOException {
+        return put(cid, filename, size, mimeType, version, null);
+    }
+
+    public synchronized DocumentMetadata put(String cid, String filename, long size, String mimeType, int version,
+                                             String duplicateOf) throws IOException {
+        long now = System.currentTimeMillis();
+        DocumentMetadata previous = entries.get(cid);
+        long createdAt = previous != null ? previous.getCreatedAt() : now;
+        DocumentMetadata meta = new DocumentMetadata(cid, filename != null ? filename : "", size,
+                mimeType != null ? mimeType : "application/octet-stream", version, createdAt, now, duplicateOf);
+        appendRecord(encodePut(meta));
+        entries.put(cid, meta);
+        if (previous != null) staleRecords++;
+        return meta;
+    }
+
+    public synchronized void delete(String cid) throws IOException {
+        if (!entries.containsKey(cid)) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_DELETE);
+        out.writeUTF(cid);
+        appendRecord(bytes.toByteArray());
+        entries.remove(cid);
+        staleRecords += 2;
+    }
+
+    public DocumentMetadata get(String cid) {
+        return entries.get(cid);
+    }
+
+    public Collection<DocumentMetadata> list() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static byte[] encodePut(DocumentMetadata meta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_PUT);
+        out.writeUTF(meta.getCid());
+        out.writeUTF(meta.getFilename());
+        out.writeLong(meta.getSize());
+        out.writeUTF(meta.getMimeType());
+        out.writeInt(meta.getVersion());
+        out.writeLong(meta.getCreatedAt());
+        out.writeLong(meta.getUpdatedAt());
+        if (meta.getDuplicateOf() != null) {
+            out.writeUTF(meta.getDuplicateOf());
+        }
+        return bytes.toByteArray();
+    }
+
+    private void appendRecord(byte[] payload) throws IOException {
+        writeRecord(log, payload);
+        log.force(false);
+    }
+
+    private static void writeRecord(FileChannel ch, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(8 + payload.length);
+        buf.putInt(payload.length);
+        buf.putInt((int) crc.getValue());
+        buf.put(payload);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private void compactIfNeeded() {
+        try {
+            synchronized (this) {
+                if (staleRecords >= MIN_STALE_FOR_COMPACTION && staleRecords > entries.size()) {
+                    compact();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("MetadataStore: compaction failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reescreve o log apenas com os registos vivos e troca-o de forma atómica.
+     */
+    public synchronized void compact() throws IOException {
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (DocumentMetadata meta : entries.values()) {
+                writeRecord(out, encodePut(meta));
+            }
+            out.force(true);
+        }
+        log.close();
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        System.out.println("MetadataStore: compacted " + staleRecords + " stale records, " + entries.size() + " live");
+        staleRecords = 0;
+    }
+
+    /**
+     * Migração do formato antigo: uma pasta storage/<cid> com um ficheiro .name.
+     * Só importa CIDs que ainda não existam no índice.
+     */
+    public int importLegacyLayout(Path storageRoot) {
+        int imported = 0;
+        try (Stream<Path> dirs = Files.list(storageRoot)) {
+            List<Path> nameFiles = dirs.map(d -> d.resolve(".name")).filter(Files::exists).toList();
+            for (Path namePath : nameFiles) {
+                String cid = namePath.getParent().getFileName().toString();
+                if (entries.containsKey(cid)) continue;
+                try {
+                    String filename = Files.readString(namePath, StandardCharsets.UTF_8).trim();
+                    put(cid, filename, -1, null, 0);
+                    imported++;
+                } catch (IOException e) {
+                    System.err.println("MetadataStore: failed to import " + namePath + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("MetadataStore: legacy import failed: " + e.getMessage());
+        }
+        if (imported > 0) {
+            System.out.println("MetadataStore: imported " + imported + " documents from legacy layout");
+        }
+        return imported;
+    }
+
+    @Override
+    public synchronized void close() {
+        compactionExecutor.shutdownNow();
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("MetadataStore: failed to close log: " + e.getMessage());
+        }
+    }
+}
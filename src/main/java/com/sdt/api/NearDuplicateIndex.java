@@ -0,0 +1,187 @@
+package com.sdt.api;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Deteção de quase-duplicados por LSH sobre os embeddings.
+ *
+ * Há {@link #TABLES} tabelas independentes; em cada uma o embedding é reduzido a uma chave
+ * SimHash de {@link #BITS_PER_TABLE} bits (sinal da projeção em hiperplanos aleatórios próprios
+ * da tabela, com seed fixa). Documentos com a mesma chave numa tabela são candidatos e só esses
+ * são comparados pelo cosseno exato.
+ *
+ * Com chaves de 16 bits, dois embeddings sem relação coincidem numa tabela com probabilidade
+ * 2^-16, pelo que cada pesquisa compara em média N * TABLES / 65536 candidatos; um par com
+ * cosseno 0.97 (o limiar por omissão) coincide em pelo menos uma das 16 tabelas em ~99% dos casos.
+ *
+ * O índice só guarda as chaves e os CIDs: os vetores dos candidatos são lidos pela função
+ * {@code vectors} (no índice da coleção, vistas sem cópia dos EmbeddingStore dos shards). Sem
+ * essa função (índices temporários, ex. os documentos de um pedido) guarda uma cópia de cada vetor.
+ */
+public class NearDuplicateIndex {
+
+    public enum Policy { OFF, TAG, LINK, SKIP }
+
+    static final int TABLES = 16;
+    static final int BITS_PER_TABLE = 16;
+    private static final long HYPERPLANE_SEED = 0x5D7L;
+
+    private final int dim;
+    private final double threshold;
+    // hiperplanos da tabela t: [t * BITS_PER_TABLE, (t + 1) * BITS_PER_TABLE)
+    private final float[][] hyperplanes;
+    private final Function<String, FloatBuffer> vectors;
+    private final Map<String, float[]> copies = new HashMap<>();
+
+    // uma tabela por conjunto de hiperplanos: chave -> CIDs
+    private final List<Map<Integer, List<String>>> tables = new ArrayList<>();
+    private final Set<String> indexed = new HashSet<>();
+
+    /**
+     * Índice que guarda uma cópia de cada vetor.
+     */
+    public NearDuplicateIndex(int dim, double threshold) {
+        this(dim, threshold, null);
+    }
+
+    /**
+     * @param vectors vetor (vista) de um CID indexado, ou null se já não existir
+     */
+    public NearDuplicateIndex(int dim, double threshold, Function<String, FloatBuffer> vectors) {
+        this.dim = dim;
+        this.threshold = threshold;
+        this.vectors = vectors;
+        this.hyperplanes = new float[TABLES * BITS_PER_TABLE][dim];
+        Random random = new Random(HYPERPLANE_SEED);
+        for (int i = 0; i < hyperplanes.length; i++) {
+            for (int j = 0; j < dim; j++) {
+                hyperplanes[i][j] = (float) random.nextGaussian();
+            }
+        }
+        for (int t = 0; t < TABLES; t++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    public static class Match {
+        private final String cid;
+        private final double similarity;
+
+        public Match(String cid, double similarity) {
+            this.cid = cid;
+            this.similarity = similarity;
+        }
+
+        public String getCid() {
+            return cid;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+    }
+
+    /**
+     * Chave SimHash do embedding em cada tabela.
+     */
+    int[] keys(float[] embedding) {
+        int[] keys = new int[TABLES];
+        for (int t = 0; t < TABLES; t++) {
+            int key = 0;
+            for (int b = 0; b < BITS_PER_TABLE; b++) {
+                float[] plane = hyperplanes[t * BITS_PER_TABLE + b];
+                double dot = 0;
+                for (int j = 0; j < dim; j++) {
+                    dot += plane[j] * embedding[j];
+                }
+                if (dot >= 0) {
+                    key |= 1 << b;
+                }
+            }
+            keys[t] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Devolve o documento indexado mais parecido acima do limiar, ou null.
+     * Vetores nulos (texto vazio) nunca são considerados duplicados.
+     */
+    public synchronized Match findNearDuplicate(String cid, float[] embedding) {
+        double norm = Math.sqrt(dot(embedding, embedding));
+        if (norm == 0) return null;
+
+        int[] keys = keys(embedding);
+        Set<String> compared = new HashSet<>();
+        Match best = null;
+        for (int t = 0; t < TABLES; t++) {
+            List<String> bucket = tables.get(t).get(keys[t]);
+            if (bucket == null) continue;
+            for (String candidate : bucket) {
+                if (candidate.equals(cid) || !compared.add(candidate)) continue;
+                FloatBuffer other = vector(candidate);
+                if (other == null) continue;
+                double otherNorm = norm(other);
+                if (otherNorm == 0) continue;
+                double sim = SearchService.dot(embedding, other) / (norm * otherNorm);
+                if (sim >= threshold && (best == null || sim > best.getSimilarity())) {
+                    best = new Match(candidate, sim);
+                }
+            }
+        }
+        return best;
+    }
+
+    public synchronized void add(String cid, float[] embedding) {
+        if (indexed.contains(cid) || dot(embedding, embedding) == 0) return;
+        indexed.add(cid);
+        if (vectors == null) {
+            copies.put(cid, embedding.clone());
+        }
+        int[] keys = keys(embedding);
+        for (int t = 0; t < TABLES; t++) {
+            tables.get(t).computeIfAbsent(keys[t], k -> new ArrayList<>(1)).add(cid);
+        }
+    }
+
+    private FloatBuffer vector(String cid) {
+        if (vectors != null) {
+            return vectors.apply(cid);
+        }
+        float[] copy = copies.get(cid);
+        return copy != null ? FloatBuffer.wrap(copy) : null;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public synchronized int size() {
+        return indexed.size();
+    }
+
+    private static double norm(FloatBuffer v) {
+        double sum = 0;
+        for (int i = 0; i < v.remaining(); i++) {
+            float x = v.get(i);
+            sum += x * x;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
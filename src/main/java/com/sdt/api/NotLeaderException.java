@@ -0,0 +1,23 @@
+package com.sdt.api;
+
+/**
+ * Escrita recusada porque este processo não é o líder da coleção (ver LeaderElection).
+ * O controller responde com um redirecionamento para o líder atual, se for conhecido.
+ */
+public class NotLeaderException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final String leaderUrl;
+
+    public NotLeaderException(String message, String leaderUrl) {
+        super(message);
+        this.leaderUrl = leaderUrl;
+    }
+
+    /**
+     * @return URL do líder atual, ou null se ainda não há líder eleito
+     */
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+}
@@ -0,0 +1,421 @@
+package com.sdt.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reindexação em segundo plano dos embeddings de uma coleção (ex.: depois de mudar de modelo).
+ *
+ * Para cada CID do EmbeddingStore de cada shard (incluindo os de execuções anteriores, que já
+ * não estão no vetor desta execução) que não tenha sido confirmado depois do início do job,
+ * descarrega o conteúdo do IPFS (ou usa o texto em cache), gera o embedding com o modelo atual
+ * e escreve-o num store sombra por shard
+ * ({@code embeddings-g<geração>}). Os documentos são processados em lotes de
+ * {@code reindex.batch.size} num ForkJoinPool próprio ({@code reindex.threads}, threads de baixa
+ * prioridade); cada lote segue também para os peers (embedding_refresh). No fim, cada shard troca
+ * de store atomicamente e avisa os peers (embedding_switch).
+ *
+ * O estado fica em {@code reindex.json} na pasta da coleção: um job interrompido (restart, pausa
+ * ou falhas) retoma onde parou, porque o store sombra é persistente. Se o modelo mudar entretanto,
+ * ou se algum shard estiver numa versão abaixo da versão base guardada (as versões recomeçam
+ * do zero quando o líder reinicia), o sombra é descartado e o job recomeça.
+ *
+ * Throttle: enquanto há uploads em curso com latência acima de {@code reindex.slo.ms} (por omissão
+ * 80% de admission.target.latency.ms) o job espera, e nunca passa de {@code reindex.max.docs.per.sec}
+ * (0 = sem limite).
+ */
+public class ReindexJob {
+
+    public enum State { IDLE, RUNNING, PAUSED, SWITCHING, DONE, FAILED }
+
+    private static final int MAX_REPORTED_FAILURES = 100;
+
+    private final DocumentCollection collection;
+    private final IPFSClient ipfsClient;
+    private final EmbeddingService embeddingService;
+    private final AdmissionController admission;
+    private final Path manifestPath;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final int threads = Integer.parseInt(System.getProperty("reindex.threads",
+            String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+    private final int batchSize = Math.max(1, Integer.parseInt(System.getProperty("reindex.batch.size", "32")));
+    private final double maxDocsPerSec = Double.parseDouble(System.getProperty("reindex.max.docs.per.sec", "0"));
+    private final int retries = Integer.parseInt(System.getProperty("reindex.retries", "3"));
+    private final long sloMs;
+
+    private volatile State state = State.IDLE;
+    private volatile boolean pauseRequested;
+    private volatile String error;
+    private volatile String model;
+    private volatile int generation;
+    private int[] baseVersions;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private final List<String> failedCids = new ArrayList<>();
+    private volatile long startedAt;
+    private volatile long throttledMs;
+    private Thread worker;
+
+    public ReindexJob(DocumentCollection collection, IPFSClient ipfsClient, EmbeddingService embeddingService,
+                      AdmissionController admission) {
+        this.collection = collection;
+        this.ipfsClient = ipfsClient;
+        this.embeddingService = embeddingService;
+        this.admission = admission;
+        this.manifestPath = collection.getStorageRoot().resolve("reindex.json");
+        this.sloMs = Long.parseLong(System.getProperty("reindex.slo.ms",
+                String.valueOf(admission.getTargetLatencyMs() * 8 / 10)));
+        loadManifest();
+    }
+
+    /**
+     * Retoma um job que estava a correr quando o líder parou.
+     */
+    public synchronized void resumeIfInterrupted() {
+        if (state == State.RUNNING || state == State.SWITCHING) {
+            System.out.println("Reindex of collection " + collection.getName() + " was interrupted, resuming");
+            state = State.PAUSED;
+            start();
+        }
+    }
+
+    /**
+     * Inicia (ou retoma) a reindexação. Não faz nada se já estiver a correr.
+     */
+    public synchronized void start() {
+        if (worker != null && worker.isAlive()) return;
+        pauseRequested = false;
+        error = null;
+        state = State.RUNNING;
+        startedAt = System.currentTimeMillis();
+        worker = new Thread(this::run, "reindex-" + collection.getName());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Pede a pausa no fim do lote atual; o progresso fica guardado para retomar com {@link #start()}.
+     */
+    public void pause() {
+        pauseRequested = true;
+    }
+
+    private void run() {
+        List<DocumentShard> shards = collection.getShards();
+        EmbeddingStore[] shadows = new EmbeddingStore[shards.size()];
+        ForkJoinPool pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("reindex-" + collection.getName() + "-" + t.getPoolIndex());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }, null, false);
+        try {
+            if (!embeddingService.awaitReady(Long.MAX_VALUE)) {
+                throw new IllegalStateException("Embedding model not available");
+            }
+            String currentModel = embeddingService.getModelInfo();
+            prepareGeneration(shards, currentModel);
+            System.out.println("Reindex of collection " + collection.getName() + ": generation " + generation +
+                               " with " + currentModel);
+
+            // o que falta em cada shard: CIDs do store em uso que ainda não estão no sombra; os
+            // confirmados depois da versão base já usam o modelo atual e são copiados na troca
+            List<List<String>> todo = new ArrayList<>();
+            total.set(0);
+            done.set(0);
+            for (int s = 0; s < shards.size(); s++) {
+                DocumentShard shard = shards.get(s);
+                List<String> pending = new ArrayList<>();
+                todo.add(pending);
+                if (shard.getEmbeddingGeneration() >= generation) continue; // já trocou antes da interrupção
+                shadows[s] = shard.openShadowStore(generation);
+                republish(shard, shadows[s]);
+                EmbeddingStore shadow = shadows[s];
+                int baseVersion = baseVersions[s];
+                shard.getEmbeddingStore().scan((cid, version, vector) -> {
+                    if (shard.committedVersionOf(cid) > baseVersion) return;
+                    total.incrementAndGet();
+                    if (shadow.contains(cid)) {
+                        done.incrementAndGet();
+                    } else {
+                        pending.add(cid);
+                    }
+                });
+            }
+            saveManifest();
+
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                synchronized (failedCids) {
+                    failedCids.clear();
+                }
+                for (int s = 0; s < shards.size(); s++) {
+                    List<String> failed = new ArrayList<>();
+                    for (int from = 0; from < todo.get(s).size(); from += batchSize) {
+                        if (pauseRequested) {
+                            state = State.PAUSED;
+                            saveManifest();
+                            System.out.println("Reindex of collection " + collection.getName() + " paused at " +
+                                               done.get() + "/" + total.get());
+                            return;
+                        }
+                        throttle();
+                        List<String> batch = todo.get(s).subList(from, Math.min(from + batchSize, todo.get(s).size()));
+                        failed.addAll(reindexBatch(pool, shards.get(s), shadows[s], batch));
+                    }
+                    todo.set(s, failed);
+                }
+                if (todo.stream().allMatch(List::isEmpty)) break;
+            }
+            if (todo.stream().anyMatch(l -> !l.isEmpty())) {
+                int failures = todo.stream().mapToInt(List::size).sum();
+                throw new IllegalStateException(failures + " document(s) could not be re-embedded (start again to retry)");
+            }
+
+            // troca atómica por shard; os commits desse shard param durante a troca
+            state = State.SWITCHING;
+            saveManifest();
+            for (int s = 0; s < shards.size(); s++) {
+                if (shadows[s] != null) {
+                    shards.get(s).switchEmbeddings(shadows[s], generation, baseVersions[s]);
+                    shadows[s] = null;
+                }
+            }
+            collection.rebuildNearDuplicateIndex();
+            state = State.DONE;
+            saveManifest();
+            System.out.println("Reindex of collection " + collection.getName() + " done: " + total.get() +
+                               " document(s) in " + (System.currentTimeMillis() - startedAt) / 1000 + "s");
+        } catch (Exception e) {
+            error = e.getMessage();
+            state = State.FAILED;
+            System.err.println("Reindex of collection " + collection.getName() + " failed: " + e.getMessage());
+            try {
+                saveManifest();
+            } catch (Exception ex) {
+                System.err.println("Reindex: failed to save manifest: " + ex.getMessage());
+            }
+        } finally {
+            pool.shutdownNow();
+            for (EmbeddingStore shadow : shadows) {
+                if (shadow != null) shadow.close();
+            }
+        }
+    }
+
+    /**
+     * Continua a geração do manifesto se for do mesmo modelo; senão descarta os sombras e começa outra.
+     */
+    private void prepareGeneration(List<DocumentShard> shards, String currentModel) throws Exception {
+        int current = Integer.MAX_VALUE;
+        for (DocumentShard shard : shards) {
+            current = Math.min(current, shard.getEmbeddingGeneration());
+        }
+        boolean resumable = currentModel.equals(model) && generation > current && baseVersions != null
+                && baseVersions.length == shards.size();
+        if (resumable) {
+            for (int s = 0; s < shards.size(); s++) {
+                if (shards.get(s).getCurrentVersion() < baseVersions[s]) {
+                    // o líder reiniciou: as versões guardadas já não são comparáveis com as atuais
+                    System.out.println("Reindex of collection " + collection.getName() + ": not resuming generation " +
+                                       generation + ", shard " + s + " is at v" + shards.get(s).getCurrentVersion() +
+                                       " below base v" + baseVersions[s]);
+                    resumable = false;
+                    break;
+                }
+            }
+        }
+        if (!resumable) {
+            if (generation > current) {
+                for (DocumentShard shard : shards) {
+                    if (shard.getEmbeddingGeneration() < generation) shard.discardShadowStore(generation);
+                }
+            }
+            int next = 0;
+            for (DocumentShard shard : shards) {
+                next = Math.max(next, shard.getEmbeddingGeneration() + 1);
+            }
+            generation = next;
+            model = currentModel;
+            baseVersions = new int[shards.size()];
+            for (int s = 0; s < shards.size(); s++) {
+                baseVersions[s] = shards.get(s).getCurrentVersion();
+            }
+        }
+    }
+
+    /**
+     * Num job retomado, os peers podem ter perdido os lotes anteriores: voltar a enviá-los.
+     */
+    private void republish(DocumentShard shard, EmbeddingStore shadow) {
+        List<String> cids = new ArrayList<>(batchSize);
+        List<float[]> embeddings = new ArrayList<>(batchSize);
+        shadow.scan((cid, version, vector) -> {
+            float[] copy = new float[vector.remaining()];
+            vector.get(copy);
+            cids.add(cid);
+            embeddings.add(copy);
+            if (cids.size() == batchSize) {
+                publish(shard, cids, embeddings);
+                cids.clear();
+                embeddings.clear();
+            }
+        });
+        if (!cids.isEmpty()) {
+            publish(shard, cids, embeddings);
+        }
+    }
+
+    /**
+     * @return os CIDs do lote que falharam
+     */
+    private List<String> reindexBatch(ForkJoinPool pool, DocumentShard shard, EmbeddingStore shadow,
+                                      List<String> batch) throws Exception {
+        long t0 = System.currentTimeMillis();
+        List<float[]> embeddings = pool.submit(() -> batch.parallelStream().map(this::reembed).toList()).get();
+        List<String> okCids = new ArrayList<>(batch.size());
+        List<float[]> okEmbeddings = new ArrayList<>(batch.size());
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String cid = batch.get(i);
+            if (embeddings.get(i) == null) {
+                failed.add(cid);
+                synchronized (failedCids) {
+                    if (failedCids.size() < MAX_REPORTED_FAILURES) failedCids.add(cid);
+                }
+                continue;
+            }
+            // mantém a versão da linha do store em uso
+            shadow.append(cid, shard.getEmbeddingStore().getVersion(cid), embeddings.get(i));
+            okCids.add(cid);
+            okEmbeddings.add(embeddings.get(i));
+        }
+        done.addAndGet(okCids.size());
+        if (!okCids.isEmpty()) {
+            publish(shard, okCids, okEmbeddings);
+        }
+        if (maxDocsPerSec > 0) {
+            long minMs = (long) (1000 * batch.size() / maxDocsPerSec);
+            long elapsed = System.currentTimeMillis() - t0;
+            if (elapsed < minMs) {
+                Thread.sleep(minMs - elapsed);
+                throttledMs += minMs - elapsed;
+            }
+        }
+        return failed;
+    }
+
+    private float[] reembed(String cid) {
+        File temp = null;
+        try {
+            String cached = embeddingService.getTextExtractor().getCached(cid);
+            if (cached != null && embeddingService.getState() == EmbeddingService.State.READY) {
+                return embeddingService.generateEmbedding(new File(cid), cached);
+            }
+            temp = Files.createTempFile("reindex-", null).toFile();
+            ipfsClient.download(cid, temp);
+            return embeddingService.generateEmbedding(temp, embeddingService.extractText(temp, cid));
+        } catch (Exception e) {
+            System.err.println("Reindex: failed to re-embed " + cid + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (temp != null && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    private void publish(DocumentShard shard, List<String> cids, List<float[]> embeddings) {
+        try {
+            shard.publishEmbeddingRefresh(generation, cids, embeddings);
+        } catch (Exception e) {
+            // o peer que não receber o lote não troca de geração e deixa de servir pesquisas vetoriais
+            System.err.println("Reindex: failed to publish embeddings to peers of shard " + shard.getShardId() +
+                               ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Espera enquanto os uploads em curso estão acima do SLO (backoff até 5 s).
+     */
+    private void throttle() throws InterruptedException {
+        long backoffMs = 100;
+        while (!pauseRequested && admission.getInFlight() > 0 && admission.getLatencyMs() > sloMs) {
+            Thread.sleep(backoffMs);
+            throttledMs += backoffMs;
+            backoffMs = Math.min(5000, backoffMs * 2);
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("collection", collection.getName());
+        status.put("state", state.name().toLowerCase());
+        status.put("generation", generation);
+        status.put("model", model);
+        status.put("currentModel", embeddingService.getModelInfo());
+        int totalDocs = total.get();
+        int doneDocs = done.get();
+        status.put("total", totalDocs);
+        status.put("done", doneDocs);
+        status.put("progress", totalDocs == 0 ? (state == State.DONE ? 1.0 : 0.0) : (double) doneDocs / totalDocs);
+        if (state == State.RUNNING && startedAt > 0) {
+            double seconds = Math.max(1, (System.currentTimeMillis() - startedAt) / 1000.0);
+            double rate = doneDocs / seconds;
+            status.put("docsPerSec", Math.round(rate * 10) / 10.0);
+            if (rate > 0) status.put("etaSeconds", Math.round((totalDocs - doneDocs) / rate));
+        }
+        status.put("throttledMs", throttledMs);
+        synchronized (failedCids) {
+            if (!failedCids.isEmpty()) status.put("failed", new ArrayList<>(failedCids));
+        }
+        if (error != null) status.put("error", error);
+        return status;
+    }
+
+    private void loadManifest() {
+        if (!Files.exists(manifestPath)) return;
+        try {
+            JsonNode node = mapper.readTree(manifestPath.toFile());
+            state = State.valueOf(node.path("state").asText("IDLE"));
+            generation = node.path("generation").asInt(0);
+            model = node.hasNonNull("model") ? node.get("model").asText() : null;
+            if (node.has("baseVersions")) {
+                baseVersions = mapper.convertValue(node.get("baseVersions"), int[].class);
+            }
+            total.set(node.path("total").asInt(0));
+            done.set(node.path("done").asInt(0));
+            error = node.hasNonNull("error") ? node.get("error").asText() : null;
+        } catch (Exception e) {
+            System.err.println("Reindex: ignoring unreadable " + manifestPath + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void saveManifest() throws Exception {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("state", state.name());
+        node.put("generation", generation);
+        node.put("model", model);
+        node.set("baseVersions", mapper.valueToTree(baseVersions));
+        node.put("total", total.get());
+        node.put("done", done.get());
+        if (error != null) node.put("error", error);
+        Path tmp = manifestPath.resolveSibling("reindex.json.tmp");
+        mapper.writeValue(tmp.toFile(), node);
+        Files.move(tmp, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,22 @@
+package com.sdt.api;
+
+/**
+ * Um documento e a sua pontuação num retriever (BM25 ou vetorial).
+ */
+public class SearchHit {
+    private final String cid;
+    private final double score;
+
+    public SearchHit(String cid, double score) {
+        this.cid = cid;
+        this.score = score;
+    }
+
+    public String getCid() {
+        return cid;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,309 @@
+package com.sdt.api;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Pesquisa sobre os documentos confirmados: lexical (BM25), vetorial (cosseno sobre o
+ * EmbeddingStore) ou híbrida. No modo híbrido os dois retrievers correm em paralelo e
+ * as pontuações são normalizadas (min-max) e combinadas com peso {@code alpha} no vetor.
+ *
+ * Com vários shards cada retriever corre em todos os shards em paralelo (scatter) e os
+ * top-k parciais são juntos num top-k global (gather). O idf do BM25 é o de cada shard.
+ *
+ * Os top-k ficam em cache (ver {@link VectorSearchCache} e {@link #lexicalSearch}); uma entrada
+ * nunca devolve menos do que a versão atual de cada shard confirmou.
+ */
+public class SearchService {
+
+    public enum Mode { LEXICAL, VECTOR, HYBRID }
+
+    private static final int MIN_CANDIDATES = 50;
+
+    private final List<DocumentShard> shards;
+    private final EmbeddingService embeddingService;
+    private final MetadataStore metadataStore;
+    private final ExecutorService searchExecutor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    // pool separado para as tarefas por shard: as do searchExecutor esperam por elas
+    private final ExecutorService shardExecutor;
+    // top-k BM25 por (k, query), válido só às versões dos shards guardadas na entrada
+    private final boolean lexicalCacheEnabled = Boolean.parseBoolean(System.getProperty("search.cache.enabled", "true"));
+    private final int lexicalCacheSize = Integer.parseInt(System.getProperty("search.cache.entries", "1024"));
+    private final Map<String, LexicalEntry> lexicalCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LexicalEntry> eldest) {
+            return size() > lexicalCacheSize;
+        }
+    };
+
+    public SearchService(List<DocumentShard> shards, EmbeddingService embeddingService, MetadataStore metadataStore) {
+        this.shards = shards;
+        this.shardExecutor = Executors.newFixedThreadPool(Math.max(2, shards.size() * 2));
+        this.embeddingService = embeddingService;
+        this.metadataStore = metadataStore;
+    }
+
+    public static class SearchResult {
+        private final String cid;
+        private final String filename;
+        private final double score;
+        private final Double lexicalScore;
+        private final Double vectorScore;
+
+        public SearchResult(String cid, String filename, double score, Double lexicalScore, Double vectorScore) {
+            this.cid = cid;
+            this.filename = filename;
+            this.score = score;
+            this.lexicalScore = lexicalScore;
+            this.vectorScore = vectorScore;
+        }
+
+        public String getCid() {
+            return cid;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public Double getLexicalScore() {
+            return lexicalScore;
+        }
+
+        public Double getVectorScore() {
+            return vectorScore;
+        }
+    }
+
+    public List<SearchResult> search(String query, int k, Mode mode, double alpha) throws Exception {
+        return search(query, k, mode, alpha, new int[shards.size()]);
+    }
+
+    /**
+     * @param minVersions versão mínima por shard (read-your-writes); a parte vetorial pode
+     *                    ser servida por peers que já a tenham confirmado
+     */
+    public List<SearchResult> search(String query, int k, Mode mode, double alpha, int[] minVersions) throws Exception {
+        int candidates = Math.max(k * 4, MIN_CANDIDATES);
+        switch (mode) {
+            case LEXICAL: {
+                List<SearchResult> results = new ArrayList<>();
+                for (SearchHit hit : lexicalSearch(query, k)) {
+                    results.add(result(hit.getCid(), hit.getScore(), hit.getScore(), null));
+                }
+                return results;
+            }
+            case VECTOR: {
+                List<SearchResult> results = new ArrayList<>();
+                for (SearchHit hit : vectorSearch(query, k, minVersions)) {
+                    results.add(result(hit.getCid(), hit.getScore(), null, hit.getScore()));
+                }
+                return results;
+            }
+            default: {
+                CompletableFuture<List<SearchHit>> lexical =
+                        CompletableFuture.supplyAsync(() -> lexicalSearch(query, candidates), searchExecutor);
+                CompletableFuture<List<SearchHit>> vector =
+                        CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return vectorSearch(query, candidates, minVersions);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }, searchExecutor);
+                return fuse(lexical.join(), vector.join(), k, alpha);
+            }
+        }
+    }
+
+    /**
+     * Top-k BM25 de todos os shards. O resultado fica em cache com as versões dos shards a que
+     * foi calculado e só serve enquanto nenhum shard confirmar nada: cada commit muda o idf e o
+     * comprimento médio, logo as pontuações de todos os documentos.
+     */
+    private List<SearchHit> lexicalSearch(String query, int k) {
+        String key = k + "|" + query;
+        int[] versions = currentVersions();
+        if (lexicalCacheEnabled) {
+            synchronized (lexicalCache) {
+                LexicalEntry cached = lexicalCache.get(key);
+                if (cached != null && Arrays.equals(cached.versions, versions)) {
+                    return cached.hits;
+                }
+            }
+        }
+
+        List<SearchHit> hits;
+        if (shards.size() == 1) {
+            hits = shards.get(0).getLexicalIndex().search(query, k);
+        } else {
+            List<CompletableFuture<List<SearchHit>>> parts = new ArrayList<>();
+            for (DocumentShard shard : shards) {
+                parts.add(CompletableFuture.supplyAsync(() -> shard.getLexicalIndex().search(query, k), shardExecutor));
+            }
+            hits = gather(parts, k);
+        }
+        if (lexicalCacheEnabled) {
+            synchronized (lexicalCache) {
+                lexicalCache.put(key, new LexicalEntry(versions, List.copyOf(hits)));
+            }
+        }
+        return hits;
+    }
+
+    private int[] currentVersions() {
+        int[] versions = new int[shards.size()];
+        for (DocumentShard shard : shards) {
+            versions[shard.getShardId()] = shard.getCurrentVersion();
+        }
+        return versions;
+    }
+
+    private static final class LexicalEntry {
+        private final int[] versions;
+        private final List<SearchHit> hits;
+
+        LexicalEntry(int[] versions, List<SearchHit> hits) {
+            this.versions = versions;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * Estado das caches de resultados (lexical e vetorial por shard).
+     */
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lexicalCache) {
+            stats.put("lexicalEntries", lexicalCache.size());
+        }
+        List<Map<String, Object>> vector = new ArrayList<>();
+        for (DocumentShard shard : shards) {
+            vector.add(shard.getSearchCache().getStats());
+        }
+        stats.put("vector", vector);
+        return stats;
+    }
+
+    /**
+     * Top-k por produto interno (os embeddings são normalizados L2, logo = cosseno).
+     */
+    private List<SearchHit> vectorSearch(String query, int k, int[] minVersions) throws Exception {
+        float[] q = embeddingService.embedQuery(query);
+        if (shards.size() == 1) {
+            return shards.get(0).vectorSearch(q, k, minVersions[0]);
+        }
+        List<CompletableFuture<List<SearchHit>>> parts = new ArrayList<>();
+        for (DocumentShard shard : shards) {
+            int minVersion = minVersions[shard.getShardId()];
+            parts.add(CompletableFuture.supplyAsync(() -> shard.vectorSearch(q, k, minVersion), shardExecutor));
+        }
+        return gather(parts, k);
+    }
+
+    /**
+     * Top-k exato sobre as linhas do store cujo CID é aceite por {@code visible}.
+     */
+    static List<SearchHit> vectorSearch(EmbeddingStore store, float[] q, int k, Predicate<String> visible) {
+        PriorityQueue<SearchHit> heap = new PriorityQueue<>(Comparator.comparingDouble(SearchHit::getScore));
+        store.scan((cid, version, vec) -> {
+            if (!visible.test(cid)) return;
+            double score = dot(q, vec);
+            if (heap.size() < k) {
+                heap.add(new SearchHit(cid, score));
+            } else if (score > heap.peek().getScore()) {
+                heap.poll();
+                heap.add(new SearchHit(cid, score));
+            }
+        });
+        List<SearchHit> hits = new ArrayList<>(heap);
+        hits.sort(Comparator.comparingDouble(SearchHit::getScore).reversed());
+        return hits;
+    }
+
+    /**
+     * Junta os top-k parciais (cada CID vive num só shard) num top-k global.
+     */
+    private static List<SearchHit> gather(List<CompletableFuture<List<SearchHit>>> parts, int k) {
+        List<SearchHit> merged = new ArrayList<>();
+        for (CompletableFuture<List<SearchHit>> part : parts) {
+            merged.addAll(part.join());
+        }
+        merged.sort(Comparator.comparingDouble(SearchHit::getScore).reversed());
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+
+    static double dot(float[] q, FloatBuffer vec) {
+        double sum = 0;
+        int n = Math.min(q.length, vec.remaining());
+        for (int i = 0; i < n; i++) {
+            sum += q[i] * vec.get(i);
+        }
+        return sum;
+    }
+
+    private List<SearchResult> fuse(List<SearchHit> lexical, List<SearchHit> vector, int k, double alpha) {
+        Map<String, Double> lexNorm = normalize(lexical);
+        Map<String, Double> vecNorm = normalize(vector);
+        Map<String, Double> lexRaw = new HashMap<>();
+        Map<String, Double> vecRaw = new HashMap<>();
+        lexical.forEach(h -> lexRaw.put(h.getCid(), h.getScore()));
+        vector.forEach(h -> vecRaw.put(h.getCid(), h.getScore()));
+
+        Map<String, Double> fused = new LinkedHashMap<>();
+        for (String cid : lexNorm.keySet()) {
+            fused.merge(cid, (1 - alpha) * lexNorm.get(cid), Double::sum);
+        }
+        for (String cid : vecNorm.keySet()) {
+            fused.merge(cid, alpha * vecNorm.get(cid), Double::sum);
+        }
+
+        List<SearchResult> results = new ArrayList<>();
+        fused.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(k)
+                .forEach(e -> results.add(result(e.getKey(), e.getValue(), lexRaw.get(e.getKey()), vecRaw.get(e.getKey()))));
+        return results;
+    }
+
+    private static Map<String, Double> normalize(List<SearchHit> hits) {
+        Map<String, Double> out = new HashMap<>();
+        if (hits.isEmpty()) return out;
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (SearchHit h : hits) {
+            min = Math.min(min, h.getScore());
+            max = Math.max(max, h.getScore());
+        }
+        double range = max - min;
+        for (SearchHit h : hits) {
+            out.put(h.getCid(), range > 0 ? (h.getScore() - min) / range : 1.0);
+        }
+        return out;
+    }
+
+    private SearchResult result(String cid, double score, Double lexical, Double vector) {
+        DocumentMetadata meta = metadataStore.get(cid);
+        return new SearchResult(cid, meta != null ? meta.getFilename() : null, score, lexical, vector);
+    }
+
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+        shardExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,223 @@
+package com.sdt.api;
+
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extração de texto isolada num pool próprio e limitado.
+ *
+ * Cada documento tem um orçamento de tempo e de caracteres: o handler SAX pára o parse
+ * do Tika assim que um deles se esgota e devolve o texto lido até aí. O texto extraído
+ * fica numa cache LRU por CID (limitada pelo total de caracteres).
+ */
+public class TextExtractor {
+
+    private final int maxChars;
+    private final long timeoutMs;
+    private final long cacheMaxChars;
+    private final Parser parser = new AutoDetectParser();
+    private final ThreadPoolExecutor pool;
+
+    // cache LRU CID -> texto
+    private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars = 0;
+
+    public TextExtractor(int threads, int queueCapacity, long timeoutMs, int maxChars, long cacheMaxChars) {
+        this.timeoutMs = timeoutMs;
+        this.maxChars = maxChars;
+        this.cacheMaxChars = cacheMaxChars;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "text-extract-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    // abaixo da prioridade dos pedidos HTTP e da inferência
+                    t.setPriority(Thread.NORM_PRIORITY - 1);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static TextExtractor fromSystemProperties() {
+        int threads = Integer.parseInt(System.getProperty("extract.threads",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        int queue = Integer.parseInt(System.getProperty("extract.queue", "64"));
+        long timeoutMs = Long.parseLong(System.getProperty("extract.timeout.ms", "10000"));
+        int maxChars = Integer.parseInt(System.getProperty("extract.max.chars", "200000"));
+        long cacheChars = Long.parseLong(System.getProperty("extract.cache.chars", "50000000"));
+        return new TextExtractor(threads, queue, timeoutMs, maxChars, cacheChars);
+    }
+
+    /**
+     * Extrai o texto de um ficheiro (usa a cache se o CID for conhecido).
+     *
+     * @throws RejectedExecutionException se o pool de extração estiver cheio
+     */
+    public String extract(File file, String cid) throws InterruptedException {
+        if (cid != null) {
+            String cached = getCached(cid);
+            if (cached != null) return cached;
+        }
+
+        BudgetedTextHandler handler = new BudgetedTextHandler(maxChars, System.currentTimeMillis() + timeoutMs);
+        Future<String> future = pool.submit(() -> parse(file, handler));
+        String text;
+        try {
+            // margem para o handler parar sozinho no fim do orçamento
+            text = future.get(timeoutMs + 2000, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            System.err.println("Text extraction timed out for " + file.getName() + ", using partial text");
+            text = handler.text();
+        } catch (ExecutionException e) {
+            System.err.println("Error extracting text from " + file.getName() + ": " + e.getCause().getMessage());
+            text = readPlainText(file);
+        }
+
+        if (cid != null) {
+            putCached(cid, text);
+        }
+        return text;
+    }
+
+    private String parse(File file, BudgetedTextHandler handler) throws Exception {
+        try (InputStream in = TikaInputStream.get(file.toPath())) {
+            parser.parse(in, handler, new Metadata(), new ParseContext());
+        } catch (Exception e) {
+            if (!BudgetedTextHandler.isBudgetExceeded(e)) throw e;
+            System.out.println("Text extraction stopped for " + file.getName() + ": " + handler.stopReason());
+        }
+        return handler.text();
+    }
+
+    /**
+     * Fallback: ler como texto simples, mas só até maxChars.
+     */
+    private String readPlainText(File file) {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            char[] buf = new char[Math.min(maxChars, 1 << 16)];
+            StringBuilder sb = new StringBuilder();
+            int n;
+            while (sb.length() < maxChars && (n = reader.read(buf, 0, Math.min(buf.length, maxChars - sb.length()))) > 0) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            return "";
+        }
+    }
+
+    public synchronized String getCached(String cid) {
+        return cache.get(cid);
+    }
+
+    private synchronized void putCached(String cid, String text) {
+        if (text.length() > cacheMaxChars) return;
+        String previous = cache.put(cid, text);
+        if (previous != null) cachedChars -= previous.length();
+        cachedChars += text.length();
+        Iterator<Map.Entry<String, String>> it = cache.entrySet().iterator();
+        while (cachedChars > cacheMaxChars && it.hasNext()) {
+            Map.Entry<String, String> eldest = it.next();
+            cachedChars -= eldest.getValue().length();
+            it.remove();
+        }
+    }
+
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Acumula o texto e interrompe o parse quando o orçamento de caracteres ou de tempo
+     * se esgota (ou a thread é interrompida).
+     */
+    static final class BudgetedTextHandler extends DefaultHandler {
+        private final StringBuilder text = new StringBuilder();
+        private final int maxChars;
+        private final long deadline;
+        private volatile String stopReason;
+
+        BudgetedTextHandler(int maxChars, long deadline) {
+            this.maxChars = maxChars;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            synchronized (text) {
+                int room = maxChars - text.length();
+                text.append(ch, start, Math.min(length, Math.max(room, 0)));
+                if (length >= room) {
+                    stop("character budget of " + maxChars + " reached");
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                stop("time budget exceeded");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                stop("interrupted");
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        private void stop(String reason) throws SAXException {
+            stopReason = reason;
+            throw new BudgetExceededException(reason);
+        }
+
+        String text() {
+            synchronized (text) {
+                return text.toString();
+            }
+        }
+
+        String stopReason() {
+            return stopReason;
+        }
+
+        static boolean isBudgetExceeded(Throwable t) {
+            for (Throwable c = t; c != null; c = c.getCause()) {
+                if (c instanceof BudgetExceededException) return true;
+            }
+            return false;
+        }
+    }
+
+    static final class BudgetExceededException extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.sdt.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resultado de um upload processado pelo DocumentManager.
+ */
+public class UploadResult {
+
+    public static final String COMMITTED = "committed";
+    public static final String DUPLICATE_SKIPPED = "duplicate_skipped";
+    public static final String DUPLICATE_LINKED = "duplicate_linked";
+    // o mesmo conteúdo (mesmo CID) já está no vetor: nada foi reenviado nem confirmado
+    public static final String ALREADY_COMMITTED = "already_committed";
+    public static final String FAILED = "failed";
+
+    private final String cid;
+    private final int version;
+    private final String status;
+    private final String duplicateOf;
+    private final Double similarity;
+    private final String readToken;
+    private final String error;
+
+    public UploadResult(String cid, int version, String status, String duplicateOf, Double similarity) {
+        this(cid, version, status, duplicateOf, similarity, null);
+    }
+
+    public UploadResult(String cid, int version, String status, String duplicateOf, Double similarity, String readToken) {
+        this(cid, version, status, duplicateOf, similarity, readToken, null);
+    }
+
+    private UploadResult(String cid, int version, String status, String duplicateOf, Double similarity, String readToken,
+                         String error) {
+        this.cid = cid;
+        this.version = version;
+        this.status = status;
+        this.duplicateOf = duplicateOf;
+        this.similarity = similarity;
+        this.readToken = readToken;
+        this.error = error;
+    }
+
+    public static UploadResult committed(String cid, int version) {
+        return new UploadResult(cid, version, COMMITTED, null, null);
+    }
+
+    /**
+     * Documento que não entrou no vetor (ex.: sem consenso no 2PC ou erro ao processar).
+     */
+    public static UploadResult failed(String cid, String error) {
+        return new UploadResult(cid, 0, FAILED, null, null, null, error != null ? error : "unknown error");
+    }
+
+    public String getCid() {
+        return cid;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public Double getSimilarity() {
+        return similarity;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Token de versão mínima para leituras read-your-writes (parâmetro minVersion).
+     */
+    public String getReadToken() {
+        return readToken;
+    }
+
+    /**
+     * Corpo da resposta HTTP (sem campos nulos).
+     */
+    public Map<String, Object> toResponse(String filename) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        if (cid != null) body.put("cid", cid);
+        if (!FAILED.equals(status)) body.put("version", version);
+        body.put("status", status);
+        if (filename != null) body.put("filename", filename);
+        if (duplicateOf != null) body.put("duplicateOf", duplicateOf);
+        if (similarity != null) body.put("similarity", similarity);
+        if (readToken != null) body.put("readToken", readToken);
+        if (error != null) body.put("error", error);
+        return body;
+    }
+}
@@ -0,0 +1,177 @@
+package com.sdt.api;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache do top-k vetorial de um shard, indexada pelo embedding da query e por k.
+ *
+ * Cada entrada guarda o top-k e a versão do shard a que foi calculado. Como o vetor de CIDs só
+ * cresce, o top-k de uma versão posterior é o antigo mais os documentos entretanto adicionados
+ * que batem o k-ésimo resultado; em vez de invalidar a entrada a cada commit, a consulta compara
+ * só os CIDs novos com esse limiar e avança a versão da entrada. Uma entrada de outra geração de
+ * embeddings (reindexação) é descartada.
+ *
+ * Propriedades (-D):
+ *   search.cache.enabled=true
+ *   search.cache.entries=1024   entradas por shard (LRU)
+ */
+public class VectorSearchCache {
+
+    private static final Comparator<SearchHit> BY_SCORE =
+            Comparator.comparingDouble(SearchHit::getScore).reversed();
+
+    private static final class Key {
+        private final float[] query;
+        private final int k;
+        private final int hash;
+
+        Key(float[] query, int k) {
+            this.query = query;
+            this.k = k;
+            this.hash = 31 * Arrays.hashCode(query) + k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return k == other.k && Arrays.equals(query, other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final List<SearchHit> hits;
+        private final int version;
+        private final int generation;
+
+        Entry(List<SearchHit> hits, int version, int generation) {
+            this.hits = hits;
+            this.version = version;
+            this.generation = generation;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits;
+    private long refreshed;
+    private long misses;
+
+    public VectorSearchCache() {
+        this.enabled = Boolean.parseBoolean(System.getProperty("search.cache.enabled", "true"));
+        this.maxEntries = Integer.parseInt(System.getProperty("search.cache.entries", "1024"));
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Versão a que está a entrada da query, ou -1 se não há entrada utilizável.
+     */
+    public synchronized int cachedVersion(float[] query, int k, int generation) {
+        if (!enabled) return -1;
+        Key key = new Key(query, k);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return -1;
+        }
+        if (entry.generation != generation) {
+            entries.remove(key);
+            misses++;
+            return -1;
+        }
+        return entry.version;
+    }
+
+    /**
+     * Top-k atualizado para {@code version}: a entrada em cache mais os CIDs {@code added}
+     * (os que entraram depois da versão da entrada) cujo score bate o k-ésimo.
+     *
+     * @return o top-k, ou null se a entrada entretanto desapareceu
+     */
+    public List<SearchHit> refresh(float[] query, int k, int generation, List<String> added,
+                                   int version, EmbeddingStore store) {
+        Key key = new Key(query, k);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.generation != generation) return null;
+        if (added.isEmpty() || version <= entry.version) {
+            synchronized (this) {
+                hits++;
+            }
+            return entry.hits;
+        }
+
+        List<SearchHit> merged = new ArrayList<>(entry.hits);
+        double threshold = merged.size() < k ? Double.NEGATIVE_INFINITY : merged.get(k - 1).getScore();
+        for (String cid : added) {
+            FloatBuffer vec = store.view(cid);
+            if (vec == null) continue; // atualização remota sem embedding local
+            double score = SearchService.dot(query, vec);
+            if (score <= threshold || containsCid(merged, cid)) continue;
+            merged.add(new SearchHit(cid, score));
+            merged.sort(BY_SCORE);
+            if (merged.size() > k) {
+                merged.remove(merged.size() - 1);
+            }
+            if (merged.size() == k) {
+                threshold = merged.get(k - 1).getScore();
+            }
+        }
+        put(query, k, generation, version, merged);
+        synchronized (this) {
+            refreshed++;
+        }
+        return merged;
+    }
+
+    /**
+     * Guarda o top-k calculado por completo a {@code version}.
+     */
+    public synchronized void put(float[] query, int k, int generation, int version, List<SearchHit> result) {
+        if (!enabled) return;
+        Key key = new Key(query, k);
+        Entry current = entries.get(key);
+        // não recuar uma entrada que outra pesquisa já avançou
+        if (current != null && current.generation == generation && current.version > version) return;
+        entries.put(key, new Entry(List.copyOf(result), version, generation));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static boolean containsCid(List<SearchHit> hits, String cid) {
+        for (SearchHit hit : hits) {
+            if (hit.getCid().equals(cid)) return true;
+        }
+        return false;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("hits", hits);
+        stats.put("refreshed", refreshed);
+        stats.put("misses", misses);
+        return stats;
+    }
+}
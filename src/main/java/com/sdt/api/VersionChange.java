@@ -0,0 +1,22 @@
+package com.sdt.api;
+
+/**
+ * Entrada do log de versões de um shard: o CID acrescentado ao vetor nessa versão.
+ */
+public final class VersionChange {
+    private final int version;
+    private final String cid;
+
+    public VersionChange(int version, String cid) {
+        this.version = version;
+        this.cid = cid;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getCid() {
+        return cid;
+    }
+}
@@ -0,0 +1,63 @@
+package com.sdt.api;
+
+import java.util.List;
+
+/**
+ * Resultado de uma leitura de versões de um shard: as alterações depois de {@code since}
+ * (no máximo {@code limit}) e a versão atual de quem respondeu (líder ou peer).
+ */
+public final class VersionsPage {
+    private final int shard;
+    private final String topic;
+    private final int currentVersion;
+    private final int since;
+    private final List<VersionChange> changes;
+    private final boolean hasMore;
+    private final String servedBy;
+
+    public VersionsPage(int shard, String topic, int currentVersion, int since,
+                        List<VersionChange> changes, boolean hasMore, String servedBy) {
+        this.shard = shard;
+        this.topic = topic;
+        this.currentVersion = currentVersion;
+        this.since = since;
+        this.changes = changes;
+        this.hasMore = hasMore;
+        this.servedBy = servedBy;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public int getSince() {
+        return since;
+    }
+
+    public List<VersionChange> getChanges() {
+        return changes;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Versão a usar como {@code since} no pedido seguinte.
+     */
+    public int getNext() {
+        return changes.isEmpty() ? since : changes.get(changes.size() - 1).getVersion();
+    }
+
+    public String getServedBy() {
+        return servedBy;
+    }
+}
@@ -0,0 +1,255 @@
+package com.sdt.peers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Vista de membros do cluster mantida pelo líder a partir dos heartbeats dos peers.
+ *
+ * Um peer entra na configuração quando é visto pela primeira vez (announce, heartbeat
+ * ou resposta de prepare). Se não for visto durante {@code failureTimeoutMs} é considerado em
+ * baixo: o 2PC deixa de esperar por ele, mas continua a contar na base da maioria. Remover peers
+ * por silêncio não é seguro: com 3 de 5 peers numa partição, os 2 restantes passariam a ser
+ * maioria de uma configuração de 2. Um peer_leave também só o dá como em baixo; a remoção é
+ * decidida pelo líder ({@link #removeMember}).
+ *
+ * A base da maioria nunca é inferior a -Dcluster.peers (peers por tópico), nem ao conjunto
+ * guardado em {@code stateFile} por uma execução anterior: um líder reiniciado que só ouviu um
+ * peer não pode confirmar com esse voto. Sem nenhum dos dois a configuração é desconhecida
+ * ({@link #isConfigured}) e este processo não coordena rondas nem se candidata a líder.
+ * Cada ronda de 2PC usa um snapshot da configuração, pelo que as alterações só têm efeito
+ * entre rondas.
+ */
+public class ClusterMembership {
+
+    private final long failureTimeoutMs;
+    // tamanho mínimo da base da maioria (0 = não configurado)
+    private final int expectedPeers;
+    // membros guardados (um por linha), ou null para não persistir
+    private final Path stateFile;
+    private final int persistedPeers;
+
+    // peer -> último instante em que foi visto (ordem de entrada preservada)
+    private final Map<String, Long> lastSeen = new LinkedHashMap<>();
+    // última versão confirmada anunciada por cada peer e endereço do seu servidor de leitura
+    private final Map<String, Integer> confirmedVersions = new HashMap<>();
+    private final Map<String, String> readAddresses = new HashMap<>();
+
+    public ClusterMembership(long failureTimeoutMs) {
+        this(failureTimeoutMs, 0);
+    }
+
+    public ClusterMembership(long failureTimeoutMs, int expectedPeers) {
+        this(failureTimeoutMs, expectedPeers, null);
+    }
+
+    /**
+     * @param stateFile ficheiro com os membros de execuções anteriores (carregados como em baixo
+     *                  até enviarem heartbeat), ou null
+     */
+    public ClusterMembership(long failureTimeoutMs, int expectedPeers, Path stateFile) {
+        this.failureTimeoutMs = failureTimeoutMs;
+        this.expectedPeers = Math.max(0, expectedPeers);
+        this.stateFile = stateFile;
+        if (stateFile != null && Files.exists(stateFile)) {
+            try {
+                for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+                    if (!line.isBlank()) {
+                        lastSeen.put(line.trim(), 0L);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read cluster membership " + stateFile + ": " + e.getMessage(), e);
+            }
+            System.out.println("Membership: loaded " + lastSeen.keySet() + " from " + stateFile);
+        }
+        this.persistedPeers = lastSeen.size();
+    }
+
+    public static ClusterMembership fromSystemProperties() {
+        return fromSystemProperties(null);
+    }
+
+    public static ClusterMembership fromSystemProperties(Path stateFile) {
+        long heartbeatMs = Long.parseLong(System.getProperty("peer.heartbeat.ms", "2000"));
+        long failureMs = Long.parseLong(System.getProperty("cluster.failure.ms", String.valueOf(heartbeatMs * 3)));
+        int expected = Integer.parseInt(System.getProperty("cluster.peers", "0"));
+        return new ClusterMembership(failureMs, expected, stateFile);
+    }
+
+    /**
+     * Se o tamanho do cluster é conhecido (-Dcluster.peers ou membros guardados); sem isso a
+     * maioria seria só dos peers vistos desde o arranque.
+     */
+    public boolean isConfigured() {
+        return expectedPeers > 0 || persistedPeers > 0;
+    }
+
+    /**
+     * Regista um sinal de vida de um peer (announce, heartbeat ou qualquer outra mensagem dele).
+     */
+    public synchronized void onHeartbeat(String peer) {
+        Long previous = lastSeen.put(peer, System.currentTimeMillis());
+        if (previous == null) {
+            System.out.println("Membership: " + peer + " joined (configuration size=" + lastSeen.size() + ")");
+            persist();
+        }
+    }
+
+    /**
+     * Heartbeat com o estado de leitura do peer (versão confirmada e endereço, se servir leituras).
+     */
+    public synchronized void onHeartbeat(String peer, int confirmedVersion, String readAddress) {
+        onHeartbeat(peer);
+        confirmedVersions.put(peer, confirmedVersion);
+        if (readAddress != null) {
+            readAddresses.put(peer, readAddress);
+        } else {
+            readAddresses.remove(peer);
+        }
+    }
+
+    /**
+     * Acrescenta à configuração membros conhecidos por outro nó (ex. a configuração anunciada
+     * pelo líder), sem os dar como vivos.
+     */
+    public synchronized void addMembers(Collection<String> peers) {
+        boolean added = false;
+        for (String peer : peers) {
+            if (lastSeen.putIfAbsent(peer, 0L) == null) {
+                added = true;
+                System.out.println("Membership: " + peer + " added from the leader's configuration (configuration size=" +
+                                   lastSeen.size() + ")");
+            }
+        }
+        if (added) {
+            persist();
+        }
+    }
+
+    /**
+     * peer_leave: o peer deixa de ser esperado, mas continua na configuração (a mensagem não é
+     * autenticada e pode vir de um processo que não é o líder).
+     */
+    public synchronized void onLeave(String peer) {
+        readAddresses.remove(peer);
+        if (lastSeen.containsKey(peer)) {
+            lastSeen.put(peer, 0L);
+            System.out.println("Membership: " + peer + " announced leave (still in the configuration)");
+        }
+    }
+
+    /**
+     * Tira o peer da configuração; só o líder o decide. A base da maioria nunca desce abaixo de
+     * -Dcluster.peers.
+     */
+    public synchronized void removeMember(String peer) {
+        confirmedVersions.remove(peer);
+        readAddresses.remove(peer);
+        if (lastSeen.remove(peer) != null) {
+            System.out.println("Membership: " + peer + " removed (configuration size=" + lastSeen.size() + ")");
+            persist();
+        }
+    }
+
+    /**
+     * Escreve a configuração (com o monitor) por substituição atómica.
+     */
+    private void persist() {
+        if (stateFile == null) return;
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path tmp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            Files.write(tmp, lastSeen.keySet(), StandardCharsets.UTF_8);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Membership: failed to persist " + stateFile + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized boolean isAlive(String peer) {
+        Long seen = lastSeen.get(peer);
+        return seen != null && System.currentTimeMillis() - seen <= failureTimeoutMs;
+    }
+
+    /**
+     * Configuração atual: todos os peers vistos que o líder não removeu, incluindo os que estão
+     * em baixo.
+     */
+    public synchronized Set<String> snapshotConfiguration() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(lastSeen.keySet()));
+    }
+
+    /**
+     * Número de membros sobre o qual se calcula a maioria para a configuração {@code configuration}
+     * (nunca menos do que -Dcluster.peers nem do que os membros guardados no arranque).
+     */
+    public int quorumBase(Set<String> configuration) {
+        return Math.max(configuration.size(), Math.max(expectedPeers, persistedPeers));
+    }
+
+    public synchronized Set<String> liveMembers() {
+        Set<String> live = new LinkedHashSet<>();
+        for (String peer : lastSeen.keySet()) {
+            if (isAlive(peer)) {
+                live.add(peer);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Peers vivos que servem leituras e já confirmaram pelo menos {@code minVersion}
+     * (segundo o último heartbeat, que pode estar ligeiramente atrasado).
+     */
+    public synchronized List<ReadReplica> readReplicas(int minVersion) {
+        List<ReadReplica> replicas = new ArrayList<>();
+        for (Map.Entry<String, String> e : readAddresses.entrySet()) {
+            int version = confirmedVersions.getOrDefault(e.getKey(), 0);
+            if (version >= minVersion && isAlive(e.getKey())) {
+                replicas.add(new ReadReplica(e.getKey(), e.getValue(), version));
+            }
+        }
+        return replicas;
+    }
+
+    public static class ReadReplica {
+        private final String peer;
+        private final String address;
+        private final int confirmedVersion;
+
+        public ReadReplica(String peer, String address, int confirmedVersion) {
+            this.peer = peer;
+            this.address = address;
+            this.confirmedVersion = confirmedVersion;
+        }
+
+        public String getPeer() {
+            return peer;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getConfirmedVersion() {
+            return confirmedVersion;
+        }
+    }
+
+    public static int majorityOf(int configurationSize) {
+        return (configurationSize / 2) + 1;
+    }
+}
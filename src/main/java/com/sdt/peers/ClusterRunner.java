@@ -1,29 +1,59 @@
 package com.sdt.peers;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class ClusterRunner {
      public static void main(String[] args) throws Exception {
-        Thread peer1 = new Thread(new PeerNode("peer-1"), "peer-1");
-        Thread peer2 = new Thread(new PeerNode("peer-2"), "peer-2");
-        peer1.start();
-        peer2.start();
+        // número de peers locais por shard de cada coleção (argumento, -Dcluster.local.peers ou -Dcluster.peers);
+        // o líder descobre-os por heartbeat e usa -Dcluster.peers como base da maioria
+        int peerCount = args.length > 0 ? Integer.parseInt(args[0])
+                : Integer.parseInt(System.getProperty("cluster.local.peers", System.getProperty("cluster.peers", "2")));
+        int shards = Sharding.shardCount();
+        // porta base dos servidores de leitura dos peers (negativo = sem follower reads)
+        int readPortBase = Integer.parseInt(System.getProperty("peer.read.port.base", "-1"));
+
+        List<PeerNode> nodes = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<String> collections = Sharding.collections();
+        for (String collection : collections) {
+            String prefix = Sharding.DEFAULT_COLLECTION.equals(collection) ? "" : collection + "-";
+            for (int shard = 0; shard < shards; shard++) {
+                String topic = Sharding.topicFor(Sharding.collectionTopic(collection), shard, shards);
+                for (int i = 1; i <= peerCount; i++) {
+                    String name = prefix + (shards == 1 ? "peer-" + i : "s" + shard + "-peer-" + i);
+                    int readPort = readPortBase < 0 ? -1 : readPortBase == 0 ? 0 : readPortBase + nodes.size();
+                    PeerNode node = new PeerNode(name, topic, readPort);
+                    Thread t = new Thread(node, name);
+                    nodes.add(node);
+                    threads.add(t);
+                    t.start();
+                }
+            }
+        }
 
         CountDownLatch done = new CountDownLatch(1);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutdown requested.");
-            peer1.interrupt();
-            peer2.interrupt();
+            for (PeerNode node : nodes) {
+                node.shutdown();
+            }
+            for (Thread t : threads) {
+                t.interrupt();
+            }
             try {
-                peer1.join(1000);
-                peer2.join(1000);
+                for (Thread t : threads) {
+                    t.join(1000);
+                }
             } catch (InterruptedException ignored) {}
             done.countDown();
         }));
 
-        System.out.println("Peers started. Leader is the Spring Boot app; use /files/upload to add docs.");
+        System.out.println(nodes.size() + " peers started for collections " + collections + " across " + shards +
+                           " shard(s). Leader is the Spring Boot app; use /files/upload to add docs.");
         // aguarda até shutdown (permanecer vivo enquanto pubsub corre em background)
         try {
             done.await();
@@ -33,9 +63,10 @@ public class ClusterRunner {
 
         // tentativa final de join antes de terminar
         try {
-            peer1.join(TimeUnit.SECONDS.toMillis(1));
-            peer2.join(TimeUnit.SECONDS.toMillis(1));
+            for (Thread t : threads) {
+                t.join(TimeUnit.SECONDS.toMillis(1));
+            }
         } catch (InterruptedException ignored) {}
         System.out.println("ClusterRunner exiting.");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+package com.sdt.peers;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Simulador do cluster numa só JVM: um LeaderCoordinator e N PeerNodes ligados por um
+ * {@link SimulatedBus}, para medir o 2PC sob atrasos e falhas sem daemon IPFS.
+ *
+ * Corre {@code sim.rounds} rondas sequenciais para cada valor de {@code sim.peers} (lista
+ * separada por vírgulas, para encontrar o ponto em que o protocolo deixa de escalar) e
+ * imprime throughput, latência (p50/p90/p99/máx) e taxa de abortos.
+ *
+ * Propriedades (-D):
+ *   sim.peers=5              número(s) de peers, ex. 5,50,500
+ *   sim.rounds=200           rondas de 2PC por execução
+ *   sim.seed=42              seed das decisões aleatórias
+ *   sim.delay=exp:2          atraso por mensagem: fixed:d, uniform:min:max, exp:média, lognormal:mediana:sigma
+ *   sim.loss=0               probabilidade de perda de cada mensagem
+ *   sim.dup=0                probabilidade de duplicação
+ *   sim.reorder=0            probabilidade de atraso extra (até sim.reorder.ms=50) para reordenar
+ *   sim.slow.fraction=0      fração de peers lentos, com atrasos multiplicados por sim.slow.factor=10
+ *   sim.crash.count=0        peers que falham na ronda sim.crash.round (e voltam em sim.recover.round)
+ *   sim.partition.fraction=0 fração de peers isolados na ronda sim.partition.round (até sim.heal.round)
+ *   sim.heartbeat.ms         intervalo de heartbeat dos peers simulados (por omissão max(100, 5 x peers):
+ *                            cada heartbeat chega a todos os subscritores do tópico, pelo que o tráfego
+ *                            de heartbeats cresce com N^2)
+ *   quorum.timeout.ms        timeout de cada ronda no LeaderCoordinator
+ *   sim.verbose=false        mostrar os logs do líder e dos peers
+ */
+public class ClusterSimulator {
+
+    private static final String TOPIC = "sim";
+
+    private final int peerCount;
+    private final int rounds;
+    private final long seed;
+    private final PrintStream console;
+
+    public ClusterSimulator(int peerCount, int rounds, long seed, PrintStream console) {
+        this.peerCount = peerCount;
+        this.rounds = rounds;
+        this.seed = seed;
+        this.console = console;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = Integer.parseInt(System.getProperty("sim.rounds", "200"));
+        long seed = Long.parseLong(System.getProperty("sim.seed", "42"));
+        boolean verbose = Boolean.parseBoolean(System.getProperty("sim.verbose", "false"));
+
+        PrintStream console = System.out;
+        if (!verbose) {
+            PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+            System.setOut(silent);
+            System.setErr(silent);
+        }
+
+        console.println("Simulation: rounds=" + rounds + " seed=" + seed +
+                        " delay=" + System.getProperty("sim.delay", "exp:2") +
+                        " loss=" + System.getProperty("sim.loss", "0") +
+                        " dup=" + System.getProperty("sim.dup", "0") +
+                        " reorder=" + System.getProperty("sim.reorder", "0") +
+                        " quorumTimeoutMs=" + System.getProperty("quorum.timeout.ms", "10000"));
+        console.println(String.format(Locale.ROOT, "%6s %8s %7s %8s %9s %8s %8s %8s %8s %10s %9s %7s",
+                "peers", "commits", "aborts", "abort%", "commits/s", "p50ms", "p90ms", "p99ms", "maxms",
+                "msgs", "dropped", "behind"));
+        for (String n : System.getProperty("sim.peers", "5").split(",")) {
+            new ClusterSimulator(Integer.parseInt(n.trim()), rounds, seed, console).run();
+        }
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        SimulatedBus bus = new SimulatedBus(seed,
+                Integer.parseInt(System.getProperty("sim.threads",
+                        String.valueOf(Math.max(4, Runtime.getRuntime().availableProcessors())))));
+        bus.setDelay(SimulatedBus.DelayDistribution.parse(System.getProperty("sim.delay", "exp:2")));
+        bus.setLossRate(Double.parseDouble(System.getProperty("sim.loss", "0")));
+        bus.setDuplicateRate(Double.parseDouble(System.getProperty("sim.dup", "0")));
+        bus.setReorder(Double.parseDouble(System.getProperty("sim.reorder", "0")),
+                Long.parseLong(System.getProperty("sim.reorder.ms", "50")));
+
+        long heartbeatMs = Long.parseLong(System.getProperty("sim.heartbeat.ms",
+                String.valueOf(Math.max(100, 5L * peerCount))));
+        System.setProperty("peer.heartbeat.ms", String.valueOf(heartbeatMs));
+        // a configuração do simulador é conhecida: a maioria é sempre sobre os sim.peers
+        ClusterMembership membership = new ClusterMembership(heartbeatMs * 3, peerCount);
+        LeaderCoordinator leader = new LeaderCoordinator(membership, TOPIC, bus);
+
+        List<PeerNode> peers = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        double slowFraction = Double.parseDouble(System.getProperty("sim.slow.fraction", "0"));
+        double slowFactor = Double.parseDouble(System.getProperty("sim.slow.factor", "10"));
+        for (int i = 1; i <= peerCount; i++) {
+            String name = "sim-peer-" + i;
+            names.add(name);
+            if (bus.nextRandom() < slowFraction) {
+                bus.setSlowdown(name, slowFactor);
+            }
+            peers.add(new PeerNode(name, TOPIC, -1, bus));
+        }
+
+        // esperar que o líder veja todos os peers
+        long joinDeadline = System.currentTimeMillis() + 10_000 + peerCount * 10L;
+        while (membership.liveMembers().size() < peerCount && System.currentTimeMillis() < joinDeadline) {
+            Thread.sleep(20);
+        }
+
+        List<String> crashedPeers = pick(bus, names, Integer.parseInt(System.getProperty("sim.crash.count", "0")));
+        int crashRound = Integer.parseInt(System.getProperty("sim.crash.round", "-1"));
+        int recoverRound = Integer.parseInt(System.getProperty("sim.recover.round", "-1"));
+        List<String> isolatedPeers = pick(bus, names,
+                (int) Math.round(peerCount * Double.parseDouble(System.getProperty("sim.partition.fraction", "0"))));
+        int partitionRound = Integer.parseInt(System.getProperty("sim.partition.round", "-1"));
+        int healRound = Integer.parseInt(System.getProperty("sim.heal.round", "-1"));
+
+        long[] commitLatencies = new long[rounds];
+        int commits = 0;
+        int aborts = 0;
+        int committedVersion = 0;
+        float[] embedding = new float[8];
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            if (round == crashRound) crashedPeers.forEach(bus::crash);
+            if (round == recoverRound) crashedPeers.forEach(bus::recover);
+            if (round == partitionRound) isolatedPeers.forEach(p -> bus.partition(p, 1));
+            if (round == healRound) bus.heal();
+
+            embedding[round % embedding.length] += 1;
+            long t0 = System.nanoTime();
+            boolean ok = leader.coordinateUpdate(committedVersion + 1, "sim-cid-" + round, embedding);
+            long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+            if (ok) {
+                commitLatencies[commits++] = elapsedMs;
+                committedVersion++;
+            } else {
+                aborts++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // dar tempo aos últimos commits para chegarem aos peers antes de contar os atrasados
+        Thread.sleep(Math.min(2000, 200 + heartbeatMs));
+        int behind = 0;
+        for (PeerNode peer : peers) {
+            if (peer.getConfirmedVersion() < committedVersion) behind++;
+        }
+
+        long[] sorted = Arrays.copyOf(commitLatencies, commits);
+        Arrays.sort(sorted);
+        long dropped = bus.getLost() + bus.getPartitioned() + bus.getCrashedDrops();
+        console.println(String.format(Locale.ROOT, "%6d %8d %7d %7.1f%% %9.1f %8d %8d %8d %8d %10d %9d %7d",
+                peerCount, commits, aborts, 100.0 * aborts / Math.max(1, rounds), commits / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1],
+                bus.getPublished(), dropped, behind));
+
+        for (PeerNode peer : peers) {
+            peer.shutdown();
+        }
+        leader.shutdown();
+        bus.shutdown();
+    }
+
+    private static List<String> pick(SimulatedBus bus, List<String> names, int count) {
+        List<String> pool = new ArrayList<>(names);
+        List<String> picked = new ArrayList<>();
+        while (picked.size() < Math.min(count, names.size())) {
+            picked.add(pool.remove((int) (bus.nextRandom() * pool.size())));
+        }
+        return picked;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,123 @@
+package com.sdt.peers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.ipfs.multibase.Multibase;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link MessageBus} sobre o pubsub HTTP do daemon IPFS (/api/v0/pubsub/pub e /sub).
+ * Cada subscrição mantém um pedido /sub em streaming numa thread própria.
+ */
+public class IpfsPubSubBus implements MessageBus {
+
+    private final String ipfsApiBase;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public IpfsPubSubBus() {
+        this(System.getProperty("ipfs.api.base",
+                System.getenv().getOrDefault("IPFS_API_BASE", "http://ipfs:5001")));
+    }
+
+    public IpfsPubSubBus(String ipfsApiBase) {
+        this.ipfsApiBase = ipfsApiBase;
+    }
+
+    private static String encodeTopic(String topic) {
+        String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, topic.getBytes(StandardCharsets.UTF_8));
+        return URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void publish(String topic, String sender, String payloadJson) throws Exception {
+        String urlStr = ipfsApiBase + "/api/v0/pubsub/pub?arg=" + encodeTopic(topic);
+
+        URL url = new URL(urlStr);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+
+        String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
+        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
+            os.write(("Content-Disposition: form-data; name=\"data\"; filename=\"message.json\"\r\n").getBytes(StandardCharsets.UTF_8));
+            os.write(("Content-Type: application/json\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            os.write(payloadJson.getBytes(StandardCharsets.UTF_8));
+            os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+            os.flush();
+        }
+
+        int responseCode = conn.getResponseCode();
+        if (responseCode >= 400) {
+            InputStream errorStream = conn.getErrorStream();
+            if (errorStream != null) {
+                String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
+                throw new RuntimeException("PubSub publish failed: " + err);
+            }
+        }
+    }
+
+    @Override
+    public Subscription subscribe(String topic, String subscriber, MessageHandler handler) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            try {
+                String urlStr = ipfsApiBase + "/api/v0/pubsub/sub?arg=" + encodeTopic(topic);
+
+                System.out.println(subscriber + " connecting to " + urlStr);
+
+                URL url = new URL(urlStr);
+                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                conn.setRequestMethod("POST");
+                conn.setDoOutput(true);
+                conn.setConnectTimeout(10000);
+                conn.setReadTimeout(0);
+
+                int responseCode = conn.getResponseCode();
+                if (responseCode >= 400) {
+                    InputStream errorStream = conn.getErrorStream();
+                    String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
+                    System.err.println(subscriber + " pubsub subscribe failed: status=" + responseCode + " body=" + err);
+                    return;
+                }
+
+                System.out.println(subscriber + " subscribed to " + topic + " successfully!");
+                handler.onSubscribed();
+
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = br.readLine()) != null && !Thread.currentThread().isInterrupted()) {
+                        line = line.trim();
+                        if (line.isEmpty()) continue;
+
+                        try {
+                            JsonNode wrapper = mapper.readTree(line);
+                            if (wrapper.has("data")) {
+                                byte[] decoded = Multibase.decode(wrapper.get("data").asText());
+                                handler.onMessage(new String(decoded, StandardCharsets.UTF_8));
+                            }
+                        } catch (Exception exInner) {
+                            System.err.println(subscriber + " failed to parse pubsub message: " + exInner.getMessage());
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println(subscriber + " pubsub subscriber failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+        return executor::shutdownNow;
+    }
+}
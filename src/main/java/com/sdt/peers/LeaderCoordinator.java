@@ -3,108 +3,97 @@ package com.sdt.peers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import io.ipfs.multibase.Multibase;
-
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+
 import java.util.*;
 import java.util.concurrent.*;
 
 public class LeaderCoordinator {
     private final ObjectMapper mapper = new ObjectMapper();
-    private final String PUBSUB_TOPIC = "sdt_doc_updates";
-    private final String ipfsApiBase = System.getProperty("ipfs.api.base",
-            System.getenv().getOrDefault("IPFS_API_BASE", "http://ipfs:5001"));
-    private final ExecutorService subscriberExecutor = Executors.newSingleThreadExecutor();
+    private final String PUBSUB_TOPIC;
+    private final MessageBus bus;
+    private final MessageBus.Subscription subscription;
+    private final long quorumTimeoutMs = Long.parseLong(System.getProperty("quorum.timeout.ms", "10000"));
     
-    // Mudança: Map de version -> List de hashes (permite duplicados)
-    private final Map<Integer, List<String>> prepareResponses = new ConcurrentHashMap<>();
-    private final Map<Integer, CountDownLatch> versionLatches = new ConcurrentHashMap<>();
-    private final int totalPeers;
-    private final int majorityThreshold;
-
-    public LeaderCoordinator(int totalPeers) {
-        this.totalPeers = totalPeers;
-        this.majorityThreshold = (totalPeers / 2) + 1;
-        startPubSubSubscriber();
-    }
-
-    private void startPubSubSubscriber() {
-        subscriberExecutor.submit(() -> {
-            try {
-                String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, PUBSUB_TOPIC.getBytes(StandardCharsets.UTF_8));
-                String urlStr = ipfsApiBase + "/api/v0/pubsub/sub?arg=" + URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
-                
-                System.out.println("Leader connecting to " + urlStr);
-                
-                URL url = new URL(urlStr);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setConnectTimeout(10000);
-                conn.setReadTimeout(0);
-                
-                int responseCode = conn.getResponseCode();
-                if (responseCode >= 400) {
-                    InputStream errorStream = conn.getErrorStream();
-                    String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
-                    System.err.println("Leader pubsub subscribe failed: status=" + responseCode + " body=" + err);
-                    return;
-                }
-                
-                System.out.println("Leader subscribed to " + PUBSUB_TOPIC + " successfully!");
-                
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = br.readLine()) != null && !Thread.currentThread().isInterrupted()) {
-                        line = line.trim();
-                        if (line.isEmpty()) continue;
-                        
-                        try {
-                            JsonNode wrapper = mapper.readTree(line);
-                            
-                            if (wrapper.has("data")) {
-                                String multibaseData = wrapper.get("data").asText();
-                                byte[] decoded = Multibase.decode(multibaseData);
-                                String msgJson = new String(decoded, StandardCharsets.UTF_8);
-                                JsonNode node = mapper.readTree(msgJson);
-                                
-                                if (node.has("type") && "doc_update_prepare_response".equals(node.get("type").asText())) {
-                                    handlePrepareResponse(node);
-                                }
-                            }
-                        } catch (Exception exInner) {
-                            System.err.println("Leader failed to parse pubsub message: " + exInner.getMessage());
-                        }
+    // Uma ronda (QuorumTracker) por versão em curso; um voto por peer
+    private final Map<Integer, QuorumTracker> rounds = new ConcurrentHashMap<>();
+    // Vista dos peers (heartbeats); o quórum é calculado por ronda sobre a configuração, da qual
+    // só o líder remove membros (peer_leave)
+    private final ClusterMembership membership;
+    // Eleição do líder (opcional): as mensagens do 2PC levam o termo e só o líder coordena rondas
+    private volatile LeaderElection election;
+
+    public LeaderCoordinator(ClusterMembership membership) {
+        this(membership, Sharding.BASE_TOPIC);
+    }
+
+    public LeaderCoordinator(ClusterMembership membership, String topic) {
+        this(membership, topic, MessageBus.fromSystemProperties());
+    }
+
+    public LeaderCoordinator(ClusterMembership membership, String topic, MessageBus bus) {
+        this.membership = membership;
+        this.PUBSUB_TOPIC = topic;
+        this.bus = bus;
+        this.subscription = bus.subscribe(topic, "Leader", this::handleMessage);
+    }
+
+    private void handleMessage(String msgJson) {
+        try {
+            JsonNode node = mapper.readTree(msgJson);
+            
+            String type = node.has("type") ? node.get("type").asText() : "";
+            LeaderElection current = election;
+            if (current != null && node.has("term")) {
+                // um peer já viu um termo mais recente: este processo deixou de ser o líder
+                current.observeTerm(node.get("term").asInt());
+            }
+            switch (type) {
+                case "doc_update_prepare_response":
+                    handlePrepareResponse(node);
+                    break;
+                case "peer_announce":
+                case "peer_heartbeat":
+                    membership.onHeartbeat(node.get("peer").asText(),
+                            node.path("confirmedVersion").asInt(0),
+                            node.hasNonNull("readAddress") ? node.get("readAddress").asText() : null);
+                    break;
+                case "peer_leave":
+                    String peer = node.get("peer").asText();
+                    membership.onLeave(peer);
+                    // a alteração da configuração é do líder; as instâncias em standby só deixam de esperar pelo peer
+                    if (current == null || current.isLeader()) {
+                        membership.removeMember(peer);
                     }
-                }
-            } catch (Exception e) {
-                System.err.println("Leader pubsub subscriber failed: " + e.getMessage());
-                e.printStackTrace();
+                    break;
             }
-        });
+        } catch (Exception exInner) {
+            System.err.println("Leader failed to parse pubsub message: " + exInner.getMessage());
+        }
     }
 
     private void handlePrepareResponse(JsonNode node) {
         try {
             int version = node.get("version").asInt();
-            String hash = node.get("hash").asText();
             String peer = node.get("peer").asText();
+            boolean accepted = !node.has("accepted") || node.get("accepted").asBoolean();
+            String hash = accepted && node.has("hash") ? node.get("hash").asText() : null;
+            String traceId = node.path("traceId").asText(null);
+            membership.onHeartbeat(peer);
             
-            System.out.println("Leader received prepare response from " + peer + " for v" + version + " hash=" + hash);
+            System.out.println(Tracing.tag(traceId) + "Leader received prepare response from " + peer + " for v" + version +
+                             (accepted ? " hash=" + hash : " (rejected)"));
+            // tempo de ida e volta desde o pedido (relógio do líder): mostra os peers lentos da ronda
+            MessageEvent.record(traceId, "doc_update_prepare_response", "leader", peer, PUBSUB_TOPIC, version,
+                    node.path("requestSentAt").asLong(0));
             
-            // Adicionar à lista (permite duplicados do mesmo hash)
-            prepareResponses.computeIfAbsent(version, k -> new ArrayList<>()).add(hash);
+            QuorumTracker tracker = rounds.get(version);
+            if (tracker == null) {
+                System.out.println("Leader ignoring response for v" + version + " (no round in progress)");
+                return;
+            }
             
-            CountDownLatch latch = versionLatches.get(version);
-            if (latch != null) {
-                latch.countDown();
+            if (!tracker.recordVote(peer, hash)) {
+                System.out.println("Leader ignoring duplicate/late vote from " + peer + " for v" + version);
             }
         } catch (Exception ex) {
             System.err.println("Leader handlePrepareResponse error: " + ex.getMessage());
@@ -112,133 +101,207 @@ public class LeaderCoordinator {
     }
 
     public boolean coordinateUpdate(int version, String cid, float[] embedding) {
+        return coordinateUpdate(version, List.of(cid), List.of(embedding));
+    }
+
+    /**
+     * Uma ronda de 2PC para uma versão que acrescenta vários CIDs ao vetor (pela ordem dada).
+     */
+    public boolean coordinateUpdate(int version, List<String> cids, List<float[]> embeddings) {
+        LeaderElection current = election;
+        int term = current != null ? current.getTerm() : 0;
+        if (current != null && !current.isLeader()) {
+            System.err.println("Leader not coordinating v" + version + ": not the leader in term " + term);
+            return false;
+        }
+        if (!membership.isConfigured()) {
+            System.err.println("Leader not coordinating v" + version + ": cluster size unknown (set -Dcluster.peers)");
+            return false;
+        }
+        String cid = cids.size() == 1 ? cids.get(0) : cids.size() + " cids";
+        // todas as mensagens da ronda levam o traço do pedido (ou um novo, ex. tomada de posse)
+        String traceId = Tracing.current() != null ? Tracing.current() : Tracing.newTraceId();
+        String trace = Tracing.tag(traceId);
+        // Registar a ronda antes de publicar, para não perder respostas rápidas.
+        // A configuração fica fixa durante a ronda; peers em baixo contam logo como voto negativo.
+        Set<String> configuration = membership.snapshotConfiguration();
+        QuorumTracker tracker = new QuorumTracker(version, configuration, membership.quorumBase(configuration));
+        rounds.put(version, tracker);
+        boolean requested = false;
         try {
-            System.out.println("Leader coordinating update v" + version + " cid=" + cid);
+            int majorityThreshold = tracker.getMajorityThreshold();
+            System.out.println(trace + "Leader coordinating update v" + version + " cid=" + cid +
+                             " peers=" + tracker.getVoters() + " majority=" + majorityThreshold);
+            
+            markUnavailablePeers(tracker);
+            if (tracker.getOutcome() == QuorumTracker.Outcome.ABORT) {
+                System.err.println("Leader not enough live peers for v" + version +
+                                 " (live=" + membership.liveMembers() + ", need " + majorityThreshold + ")");
+                return false;
+            }
             
             // Fase 1: Enviar pedido de atualização
-            publishUpdateRequest(version, cid, embedding);
+            StageEvent prepareStage = Tracing.stage("2pc.prepare", "leader", traceId);
+            publishUpdateRequest(version, term, traceId, cids, embeddings);
+            requested = true;
             
-            // Aguardar respostas (timeout de 10 segundos)
-            CountDownLatch latch = new CountDownLatch(majorityThreshold);
-            versionLatches.put(version, latch);
+            // Aguardar decisão: termina assim que há maioria ou esta se torna impossível (timeout -Dquorum.timeout.ms)
+            QuorumTracker.Outcome outcome = awaitDecision(tracker, quorumTimeoutMs);
+            prepareStage.finish(PUBSUB_TOPIC, version, outcome + " votes=" + tracker.getVotesReceived() + "/" + tracker.getVoters().size());
             
-            boolean receivedMajority = latch.await(10, TimeUnit.SECONDS);
+            System.out.println(trace + "Leader hash distribution for v" + version + ": " + tracker.getHashCounts());
             
-            if (!receivedMajority) {
-                System.err.println("Leader timeout waiting for majority responses for v" + version);
-                cleanup(version);
+            if (outcome == QuorumTracker.Outcome.PENDING) {
+                tracker.abort();
+                System.err.println(trace + "Leader timeout waiting for majority responses for v" + version +
+                                 " (received " + tracker.getVotesReceived() + ")");
+                publishAbort(version, term, traceId);
                 return false;
             }
             
-            // Verificar se maioria tem mesmo hash
-            List<String> hashes = prepareResponses.get(version);
-            if (hashes == null || hashes.isEmpty()) {
-                System.err.println("Leader no hashes received for v" + version);
-                cleanup(version);
+            if (outcome == QuorumTracker.Outcome.ABORT) {
+                System.err.println(trace + "Leader no consensus on hash for v" + version + 
+                                 " (need " + majorityThreshold + " votes)");
+                publishAbort(version, term, traceId);
                 return false;
             }
             
-            System.out.println("Leader received " + hashes.size() + " responses for v" + version);
-            
-            // Contar ocorrências de cada hash
-            Map<String, Integer> hashCounts = new HashMap<>();
-            for (String hash : hashes) {
-                hashCounts.put(hash, hashCounts.getOrDefault(hash, 0) + 1);
-            }
-            
-            System.out.println("Leader hash distribution: " + hashCounts);
-            
-            // Verificar se algum hash tem maioria
-            Optional<Map.Entry<String, Integer>> majorityHash = hashCounts.entrySet().stream()
-                .filter(e -> e.getValue() >= majorityThreshold)
-                .findFirst();
+            String winningHash = tracker.getWinningHash();
+            System.out.println(trace + "Leader achieved consensus for v" + version + 
+                             " hash=" + winningHash + 
+                             " votes=" + tracker.getVoteCount(winningHash));
             
-            if (majorityHash.isEmpty()) {
-                System.err.println("Leader no consensus on hash for v" + version + 
-                                 " (need " + majorityThreshold + " votes)");
-                cleanup(version);
+            // Deposto durante a ronda: o commit seria recusado pelos peers do novo termo
+            if (current != null && (!current.isLeader() || current.getTerm() != term)) {
+                System.err.println("Leader lost leadership during v" + version + " (term " + term + ")");
                 return false;
             }
             
-            System.out.println("Leader achieved consensus for v" + version + 
-                             " hash=" + majorityHash.get().getKey() + 
-                             " votes=" + majorityHash.get().getValue());
-            
             // Fase 2: Enviar commit
-            publishCommit(version);
-            
-            cleanup(version);
+            StageEvent commitStage = Tracing.stage("2pc.commit", "leader", traceId);
+            publishCommit(version, term, traceId);
+            commitStage.finish(PUBSUB_TOPIC, version, null);
             return true;
             
         } catch (Exception e) {
             System.err.println("Leader coordinateUpdate error: " + e.getMessage());
             e.printStackTrace();
-            cleanup(version);
+            tracker.abort();
+            if (requested) {
+                publishAbort(version, term, traceId);
+            }
             return false;
+        } finally {
+            cleanup(version);
+        }
+    }
+
+    /**
+     * Espera pela decisão da ronda, verificando periodicamente se algum peer
+     * que ainda não votou deixou de enviar heartbeats.
+     */
+    private QuorumTracker.Outcome awaitDecision(QuorumTracker tracker, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        QuorumTracker.Outcome outcome = tracker.getOutcome();
+        while (outcome == QuorumTracker.Outcome.PENDING) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            outcome = tracker.await(Math.min(remaining, 250), TimeUnit.MILLISECONDS);
+            if (outcome == QuorumTracker.Outcome.PENDING) {
+                markUnavailablePeers(tracker);
+                outcome = tracker.getOutcome();
+            }
+        }
+        return outcome;
+    }
+
+    private void markUnavailablePeers(QuorumTracker tracker) {
+        for (String peer : tracker.getVoters()) {
+            if (!tracker.hasVoted(peer) && !membership.isAlive(peer)) {
+                System.out.println("Leader not waiting for " + peer + " (no heartbeat) on v" + tracker.getVersion());
+                tracker.markUnavailable(peer);
+            }
         }
     }
 
-    private void publishUpdateRequest(int version, String cid, float[] embedding) throws Exception {
+    public ClusterMembership getMembership() {
+        return membership;
+    }
+
+    public void setElection(LeaderElection election) {
+        this.election = election;
+    }
+
+    /**
+     * Mensagem do 2PC com o traço do pedido, o instante de envio e, com eleição, o termo e o
+     * líder que a envia (os peers recusam termos anteriores).
+     */
+    private ObjectNode newMessage(String type, int version, int term, String traceId) {
         ObjectNode root = mapper.createObjectNode();
-        root.put("type", "doc_update_request");
+        root.put("type", type);
         root.put("version", version);
-        root.put("cid", cid);
-        root.set("embedding", mapper.valueToTree(embedding));
+        root.put("traceId", traceId);
+        root.put("sentAt", System.currentTimeMillis());
+        LeaderElection current = election;
+        if (current != null) {
+            root.put("term", term);
+            root.put("leader", current.getNodeId());
+        }
+        return root;
+    }
+
+    private void publishUpdateRequest(int version, int term, String traceId, List<String> cids,
+                                      List<float[]> embeddings) throws Exception {
+        ObjectNode root = newMessage("doc_update_request", version, term, traceId);
+        if (cids.size() == 1) {
+            root.put("cid", cids.get(0));
+            root.set("embedding", mapper.valueToTree(embeddings.get(0)));
+        } else {
+            // versão com vários documentos (bulk): listas alinhadas
+            root.set("cids", mapper.valueToTree(cids));
+            root.set("embeddings", mapper.valueToTree(embeddings));
+        }
 
         String payloadJson = mapper.writeValueAsString(root);
         publishMessage(payloadJson);
         
-        System.out.println("Leader published update request v" + version);
+        System.out.println(Tracing.tag(traceId) + "Leader published update request v" + version);
     }
 
-    private void publishCommit(int version) throws Exception {
-        ObjectNode root = mapper.createObjectNode();
-        root.put("type", "doc_update_commit");
-        root.put("version", version);
+    private void publishCommit(int version, int term, String traceId) throws Exception {
+        ObjectNode root = newMessage("doc_update_commit", version, term, traceId);
 
         String payloadJson = mapper.writeValueAsString(root);
         publishMessage(payloadJson);
         
-        System.out.println("Leader published commit v" + version);
+        System.out.println(Tracing.tag(traceId) + "Leader published commit v" + version);
     }
 
-    private void publishMessage(String payloadJson) throws Exception {
-        String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, PUBSUB_TOPIC.getBytes(StandardCharsets.UTF_8));
-        String urlStr = ipfsApiBase + "/api/v0/pubsub/pub?arg=" + URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
-        
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        
-        String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
-        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-        
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(("Content-Disposition: form-data; name=\"data\"; filename=\"message.json\"\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(("Content-Type: application/json\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(payloadJson.getBytes(StandardCharsets.UTF_8));
-            os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
-            os.flush();
-        }
-        
-        int responseCode = conn.getResponseCode();
-        if (responseCode >= 400) {
-            InputStream errorStream = conn.getErrorStream();
-            if (errorStream != null) {
-                String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
-                throw new RuntimeException("PubSub publish failed: " + err);
-            }
+    /**
+     * Avisa os peers de que a ronda não vai ter commit, para libertarem o que prepararam.
+     * Melhor esforço: se a mensagem se perder, os peers descartam a versão por TTL.
+     */
+    private void publishAbort(int version, int term, String traceId) {
+        try {
+            ObjectNode root = newMessage("doc_update_abort", version, term, traceId);
+            publishMessage(mapper.writeValueAsString(root));
+            System.out.println(Tracing.tag(traceId) + "Leader published abort v" + version);
+        } catch (Exception e) {
+            System.err.println("Leader publishAbort error for v" + version + ": " + e.getMessage());
         }
     }
 
+    private void publishMessage(String payloadJson) throws Exception {
+        bus.publish(PUBSUB_TOPIC, "leader", payloadJson);
+    }
+
     private void cleanup(int version) {
-        prepareResponses.remove(version);
-        versionLatches.remove(version);
+        rounds.remove(version);
     }
 
     public void shutdown() {
-        subscriberExecutor.shutdownNow();
+        subscription.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,394 @@
+package com.sdt.peers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Eleição do líder por termos entre os processos líder (instâncias da aplicação), com os peers
+ * como eleitores.
+ *
+ * O líder publica leader_heartbeat (termo, id, URL) em todos os tópicos da coleção. Uma
+ * instância em standby que deixe de os receber durante o timeout de eleição (aleatório entre T e
+ * 2T) passa a candidata: incrementa o termo e publica vote_request no tópico de votação (shard 0).
+ * Cada peer dá no máximo um voto por termo, e só a um candidato cuja versão não seja inferior à
+ * sua confirmada; com a maioria da configuração de peers o candidato passa a líder. Qualquer
+ * mensagem com um termo superior ao local faz o líder ou candidato voltar a standby.
+ *
+ * A maioria é contada sobre a configuração estável (ver {@link ClusterMembership}), que inclui
+ * os peers anunciados nos heartbeats do líder e nunca é menor do que -Dcluster.peers: uma
+ * instância em standby do outro lado de uma partição, que só ouve 2 de 5 peers, precisa na
+ * mesma de 3 votos. Sem -Dcluster.peers (nem membros guardados) nenhuma instância se candidata.
+ *
+ * Todas as mensagens do 2PC levam o termo e os peers recusam as de termos anteriores, pelo que
+ * um líder deposto (ex. partição) deixa de conseguir confirmar versões.
+ *
+ * A eleição precisa de um barramento sem ponto único de falha: com bus.transport=tcp todos os
+ * processos dependem do hub fixo ({@link TcpBus}), pelo que a combinação é recusada no arranque.
+ *
+ * Propriedades (-D):
+ *   leader.election.enabled=false     desligado: este processo é sempre o líder (termo 0)
+ *   leader.id=<host>-<pid>
+ *   leader.url                        URL pública desta instância, para os redirecionamentos
+ *   leader.heartbeat.ms=500
+ *   leader.election.timeout.ms=1500
+ */
+public class LeaderElection {
+
+    public enum Role { FOLLOWER, CANDIDATE, LEADER }
+
+    /**
+     * Avisado (numa thread da eleição) quando este processo ganha ou perde a liderança.
+     */
+    public interface Listener {
+        void onLeadershipChange(boolean leader, int term);
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final boolean enabled;
+    private final String nodeId;
+    private final String url;
+    private final long heartbeatMs;
+    private final long electionTimeoutMs;
+    private final MessageBus bus;
+    private final String votingTopic;
+    private final List<String> topics;
+    private final ClusterMembership voters;
+    private final IntSupplier localVersion;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService ticker;
+    private MessageBus.Subscription subscription;
+
+    // protegido pelo monitor
+    private int term;
+    private Role role;
+    private String leaderId;
+    private String leaderUrl;
+    private long lastLeaderContact = System.currentTimeMillis();
+    private long currentTimeoutMs;
+    private final Set<String> votes = new HashSet<>();
+    private long elections;
+    private boolean warnedUnconfigured;
+
+    /**
+     * @param votingTopic  tópico onde se pedem votos (os peers deste tópico são os eleitores)
+     * @param topics       todos os tópicos da coleção (recebem os heartbeats do líder)
+     * @param voters       membros do tópico de votação
+     * @param localVersion versão local do tópico de votação (os peers não votam em quem está atrás)
+     */
+    public LeaderElection(MessageBus bus, String votingTopic, List<String> topics, ClusterMembership voters,
+                          IntSupplier localVersion) {
+        this.enabled = Boolean.parseBoolean(System.getProperty("leader.election.enabled", "false"));
+        this.nodeId = System.getProperty("leader.id", defaultNodeId());
+        this.url = System.getProperty("leader.url");
+        this.heartbeatMs = Long.parseLong(System.getProperty("leader.heartbeat.ms", "500"));
+        this.electionTimeoutMs = Long.parseLong(System.getProperty("leader.election.timeout.ms", "1500"));
+        if (enabled && bus instanceof TcpBus) {
+            // em estrela: todos os processos ligam-se ao hub fixo bus.tcp.leader, e sem ele nenhuma
+            // instância em standby chega aos peers para ser eleita
+            throw new IllegalStateException("leader.election.enabled requires bus.transport=ipfs: " +
+                                            "the TCP bus hub (bus.tcp.leader) cannot fail over");
+        }
+        this.bus = bus;
+        this.votingTopic = votingTopic;
+        this.topics = List.copyOf(topics);
+        this.voters = voters;
+        this.localVersion = localVersion;
+        this.role = enabled ? Role.FOLLOWER : Role.LEADER;
+        this.leaderId = enabled ? null : nodeId;
+        this.leaderUrl = enabled ? null : url;
+        this.currentTimeoutMs = randomTimeout();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leader-election-" + votingTopic);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static String defaultNodeId() {
+        return ManagementFactory.getRuntimeMXBean().getName().replace('@', '-');
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        if (!enabled) return;
+        subscription = bus.subscribe(votingTopic, "Election " + nodeId, this::handleMessage);
+        long tick = Math.max(50, Math.min(heartbeatMs, electionTimeoutMs / 4));
+        ticker.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+        System.out.println("Election: " + nodeId + " standing by on " + votingTopic +
+                           " (timeout " + electionTimeoutMs + "ms)");
+    }
+
+    private void tick() {
+        try {
+            Role current;
+            synchronized (this) {
+                current = role;
+                if (role != Role.LEADER && System.currentTimeMillis() - lastLeaderContact > currentTimeoutMs) {
+                    if (!voters.isConfigured()) {
+                        // sem o tamanho do cluster a maioria seria só dos peers já vistos
+                        if (!warnedUnconfigured) {
+                            warnedUnconfigured = true;
+                            System.err.println("Election: " + nodeId + " not standing for election: cluster size unknown " +
+                                               "(set -Dcluster.peers)");
+                        }
+                        return;
+                    }
+                    startElection();
+                    return;
+                }
+            }
+            if (current == Role.LEADER) {
+                publishHeartbeat();
+            }
+        } catch (Exception e) {
+            System.err.println("Election: tick error: " + e.getMessage());
+        }
+    }
+
+    private long randomTimeout() {
+        return electionTimeoutMs + ThreadLocalRandom.current().nextLong(electionTimeoutMs + 1);
+    }
+
+    /**
+     * Chamado com o monitor: novo termo, voto próprio implícito (o candidato não é eleitor).
+     */
+    private void startElection() {
+        term++;
+        role = Role.CANDIDATE;
+        leaderId = null;
+        leaderUrl = null;
+        votes.clear();
+        elections++;
+        lastLeaderContact = System.currentTimeMillis();
+        currentTimeoutMs = randomTimeout();
+        int version = localVersion.getAsInt();
+        System.out.println("Election: " + nodeId + " starting election for term " + term + " at v" + version +
+                           " (voters=" + voters.snapshotConfiguration() + ")");
+        try {
+            ObjectNode root = mapper.createObjectNode();
+            root.put("type", "vote_request");
+            root.put("term", term);
+            root.put("candidate", nodeId);
+            root.put("version", version);
+            bus.publish(votingTopic, nodeId, mapper.writeValueAsString(root));
+        } catch (Exception e) {
+            System.err.println("Election: vote_request error: " + e.getMessage());
+        }
+    }
+
+    private void handleMessage(String msgJson) {
+        try {
+            JsonNode node = mapper.readTree(msgJson);
+            String type = node.path("type").asText();
+            switch (type) {
+                case "leader_heartbeat":
+                    onLeaderHeartbeat(node);
+                    break;
+                case "vote":
+                    onVote(node);
+                    break;
+                case "vote_request":
+                    if (!nodeId.equals(node.path("candidate").asText())) {
+                        observeTerm(node.path("term").asInt());
+                    }
+                    break;
+                default:
+                    if (node.has("term")) {
+                        observeTerm(node.get("term").asInt());
+                    }
+            }
+        } catch (Exception e) {
+            System.err.println("Election: failed to handle message: " + e);
+        }
+    }
+
+    private void onLeaderHeartbeat(JsonNode node) {
+        String leader = node.path("leader").asText();
+        if (nodeId.equals(leader)) return;
+        int heartbeatTerm = node.path("term").asInt();
+        boolean lost = false;
+        synchronized (this) {
+            if (heartbeatTerm < term) return;
+            lost = role == Role.LEADER;
+            if (heartbeatTerm > term || role != Role.FOLLOWER) {
+                System.out.println("Election: following " + leader + " in term " + heartbeatTerm);
+            }
+            term = heartbeatTerm;
+            role = Role.FOLLOWER;
+            leaderId = leader;
+            leaderUrl = node.hasNonNull("url") ? node.get("url").asText() : null;
+            lastLeaderContact = System.currentTimeMillis();
+        }
+        // a configuração do líder conta para a maioria numa eleição futura, mesmo os peers que
+        // este processo nunca ouviu
+        JsonNode peers = node.path("peers");
+        if (peers.isArray()) {
+            List<String> members = new ArrayList<>();
+            peers.forEach(p -> members.add(p.asText()));
+            voters.addMembers(members);
+        }
+        if (lost) {
+            notifyListeners(false, heartbeatTerm);
+        }
+    }
+
+    private void onVote(JsonNode node) {
+        int voteTerm = node.path("term").asInt();
+        if (!nodeId.equals(node.path("candidate").asText())) {
+            observeTerm(voteTerm);
+            return;
+        }
+        boolean won = false;
+        synchronized (this) {
+            if (voteTerm > term) {
+                stepDown(voteTerm);
+                return;
+            }
+            if (voteTerm != term || role != Role.CANDIDATE) return;
+            if (!node.path("granted").asBoolean()) return;
+            String peer = node.path("peer").asText();
+            voters.onHeartbeat(peer);
+            votes.add(peer);
+            int needed = ClusterMembership.majorityOf(voters.quorumBase(voters.snapshotConfiguration()));
+            if (votes.size() >= needed) {
+                role = Role.LEADER;
+                leaderId = nodeId;
+                leaderUrl = url;
+                won = true;
+                System.out.println("Election: " + nodeId + " elected leader for term " + term +
+                                   " with votes " + votes + " (needed " + needed + ")");
+            }
+        }
+        if (won) {
+            publishHeartbeat();
+            notifyListeners(true, getTerm());
+        }
+    }
+
+    /**
+     * Regista um termo visto numa mensagem; se for superior ao local, este processo volta a standby.
+     */
+    public void observeTerm(int seenTerm) {
+        boolean lost;
+        synchronized (this) {
+            if (seenTerm <= term) return;
+            lost = role == Role.LEADER;
+            stepDown(seenTerm);
+        }
+        if (lost) {
+            notifyListeners(false, seenTerm);
+        }
+    }
+
+    private void stepDown(int newTerm) {
+        if (role != Role.FOLLOWER) {
+            System.out.println("Election: " + nodeId + " stepping down (term " + term + " -> " + newTerm + ")");
+        }
+        term = newTerm;
+        role = Role.FOLLOWER;
+        leaderId = null;
+        leaderUrl = null;
+        lastLeaderContact = System.currentTimeMillis();
+        currentTimeoutMs = randomTimeout();
+    }
+
+    private void publishHeartbeat() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", "leader_heartbeat");
+        synchronized (this) {
+            if (role != Role.LEADER) return;
+            root.put("term", term);
+        }
+        root.put("leader", nodeId);
+        if (url != null) {
+            root.put("url", url);
+        }
+        root.set("peers", mapper.valueToTree(voters.snapshotConfiguration()));
+        try {
+            String payload = mapper.writeValueAsString(root);
+            for (String topic : topics) {
+                bus.publish(topic, nodeId, payload);
+            }
+        } catch (Exception e) {
+            System.err.println("Election: heartbeat error: " + e.getMessage());
+        }
+    }
+
+    private void notifyListeners(boolean leader, int term) {
+        if (ticker.isShutdown()) return;
+        // fora da thread do barramento: a tomada de posse pode correr rondas de 2PC
+        ticker.execute(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    listener.onLeadershipChange(leader, term);
+                } catch (Exception e) {
+                    System.err.println("Election: listener error: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized boolean isLeader() {
+        return role == Role.LEADER;
+    }
+
+    public synchronized int getTerm() {
+        return term;
+    }
+
+    public synchronized String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Tempo máximo até haver um líder depois de o anterior falhar (o timeout aleatório vai até 2T).
+     */
+    public long getMaxElectionMs() {
+        return 2 * electionTimeoutMs;
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("enabled", enabled);
+        status.put("node", nodeId);
+        status.put("role", role.name().toLowerCase());
+        status.put("term", term);
+        status.put("leader", leaderId);
+        status.put("leaderUrl", leaderUrl);
+        status.put("elections", elections);
+        return status;
+    }
+
+    public void shutdown() {
+        if (subscription != null) {
+            subscription.close();
+        }
+        ticker.shutdownNow();
+    }
+}
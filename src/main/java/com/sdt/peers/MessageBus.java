@@ -0,0 +1,49 @@
+package com.sdt.peers;
+
+/**
+ * Transporte das mensagens do protocolo (2PC, heartbeats, updates) entre líder e peers.
+ *
+ * A implementação normal é o pubsub do IPFS ({@link IpfsPubSubBus}); em alternativa há ligações
+ * TCP diretas entre o líder e os peers ({@link TcpBus}); o simulador usa um barramento em memória
+ * com falhas injetadas ({@link SimulatedBus}). As mensagens são
+ * JSON já serializado; como no pubsub, quem publica também recebe as suas mensagens.
+ */
+public interface MessageBus {
+
+    /**
+     * Transporte escolhido por {@code -Dbus.transport}: "ipfs" (por omissão) ou "tcp"
+     * (um {@link TcpBus} partilhado pelo processo).
+     */
+    static MessageBus fromSystemProperties() {
+        String transport = System.getProperty("bus.transport", "ipfs");
+        if ("tcp".equalsIgnoreCase(transport)) {
+            return TcpBus.shared();
+        }
+        return new IpfsPubSubBus();
+    }
+
+    /**
+     * @param sender identificador de quem publica (usado pelo simulador para partições e crashes)
+     */
+    void publish(String topic, String sender, String payloadJson) throws Exception;
+
+    /**
+     * Subscreve um tópico; o handler é chamado numa thread do barramento por cada mensagem.
+     */
+    Subscription subscribe(String topic, String subscriber, MessageHandler handler);
+
+    interface MessageHandler {
+        void onMessage(String payloadJson);
+
+        /**
+         * Chamado quando a subscrição fica ativa (mensagens publicadas a partir daqui são recebidas).
+         */
+        default void onSubscribed() {
+        }
+    }
+
+    interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.sdt.peers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento JFR por mensagem do 2PC recebida: quanto tempo passou desde que foi publicada
+ * ("sentAt" na mensagem, pelo relógio de quem a enviou) ou, numa resposta de prepare, desde que o
+ * líder publicou o pedido. Mostra a entrega do pubsub e os peers lentos de cada ronda.
+ */
+@Name("com.sdt.Message")
+@Label("SDT Message")
+@Category("SDT")
+@Description("Delivery of a protocol message, correlated by trace id")
+@StackTrace(false)
+public class MessageEvent extends Event {
+
+    @Label("Trace Id")
+    String traceId;
+
+    @Label("Type")
+    String type;
+
+    @Label("Node")
+    String node;
+
+    @Label("From")
+    String from;
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Version")
+    int version;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.MILLISECONDS)
+    long elapsedMs;
+
+    /**
+     * Regista a receção de uma mensagem em {@code node}.
+     *
+     * @param sentAt instante (ms) de referência da mensagem; 0 se desconhecido
+     */
+    public static void record(String traceId, String type, String node, String from, String topic, int version,
+                              long sentAt) {
+        MessageEvent event = new MessageEvent();
+        if (!event.shouldCommit()) return;
+        event.traceId = traceId;
+        event.type = type;
+        event.node = node;
+        event.from = from;
+        event.topic = topic;
+        event.version = version;
+        event.elapsedMs = sentAt > 0 ? System.currentTimeMillis() - sentAt : -1;
+        event.commit();
+    }
+}
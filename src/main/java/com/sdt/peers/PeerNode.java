@@ -3,43 +3,138 @@ package com.sdt.peers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import io.ipfs.multibase.Multibase;
-
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.PriorityQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class PeerNode implements Runnable {
     private final String name;
-    private final List<List<String>> versions = new ArrayList<>();
+    // Estado confirmado (versão, vetor e embeddings), trocado inteiro a cada commit: as leituras
+    // não tomam o monitor do peer; as versões anteriores ficam no histórico (recentes em memória,
+    // antigas no disco)
+    private volatile Snapshot committed = Snapshot.empty();
+    private final VersionHistory history;
     private final ObjectMapper mapper = new ObjectMapper();
-    private final String PUBSUB_TOPIC = "sdt_doc_updates";
-    private final String ipfsApiBase = System.getProperty("ipfs.api.base",
-            System.getenv().getOrDefault("IPFS_API_BASE", "http://ipfs:5001"));
-    private final ExecutorService subscriberExecutor = Executors.newSingleThreadExecutor();
+    private final String PUBSUB_TOPIC;
+    private final MessageBus bus;
+    private MessageBus.Subscription subscription;
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final long heartbeatIntervalMs = Long.parseLong(System.getProperty("peer.heartbeat.ms", "2000"));
     
-    // Estruturas temporárias para armazenar versões não confirmadas
-    private final Map<Integer, List<String>> pendingVersions = new HashMap<>();
-    private final Map<Integer, float[]> pendingEmbeddings = new HashMap<>();
-    private int confirmedVersion = 0;
+    // Versões preparadas e ainda não confirmadas (por ordem de preparação). Saem com o commit,
+    // com doc_update_abort, ao fim de peer.pending.ttl.ms ou, as mais antigas, quando o total
+    // passa de peer.pending.max.bytes.
+    private final Map<Integer, PendingVersion> pending = new LinkedHashMap<>();
+    private final long pendingTtlMs = Long.parseLong(System.getProperty("peer.pending.ttl.ms", "60000"));
+    private final long pendingMaxBytes = Long.parseLong(System.getProperty("peer.pending.max.bytes", String.valueOf(64L << 20)));
+    private long pendingBytes = 0;
+    private long pendingAborted = 0;
+    private long pendingExpired = 0;
+    private long pendingEvicted = 0;
+    // Termo do líder (ver LeaderElection): mensagens do 2PC de termos anteriores são recusadas,
+    // e em cada termo o peer vota no máximo num candidato. Guardados em electionFile antes de
+    // responder a um vote_request: um peer reiniciado a meio de um termo não volta a votar nele
+    private int currentTerm = 0;
+    private String votedFor;
+    private final Path electionFile;
+
+    // Vetores da próxima geração de embeddings recebidos durante a reindexação (a geração
+    // servida está no snapshot)
+    private int shadowGeneration = -1;
+    private final Map<String, float[]> shadowEmbeddings = new HashMap<>();
+    private final PeerReadServer readServer;
+    private final String readAddress;
 
     public PeerNode(String name) {
+        this(name, Sharding.BASE_TOPIC);
+    }
+
+    public PeerNode(String name, String topic) {
+        this(name, topic, -1);
+    }
+
+    /**
+     * @param readPort porta do servidor de leituras (0 = efémera, negativo = sem servidor)
+     */
+    public PeerNode(String name, String topic, int readPort) {
+        this(name, topic, readPort, MessageBus.fromSystemProperties());
+    }
+
+    public PeerNode(String name, String topic, int readPort, MessageBus bus) {
         this.name = name;
-        versions.add(new ArrayList<>());
+        this.PUBSUB_TOPIC = topic;
+        this.bus = bus;
+        try {
+            Path historyDir = Path.of(System.getProperty("peer.history.dir",
+                    Path.of(System.getProperty("java.io.tmpdir"), "sdt-peer-history").toString()));
+            this.history = new VersionHistory(historyDir.resolve(name));
+            this.electionFile = historyDir.resolve(name).resolve("election");
+            loadElectionState();
+        } catch (IOException e) {
+            throw new UncheckedIOException(name + " failed to open version history", e);
+        }
+        PeerReadServer server = null;
+        String address = null;
+        if (readPort >= 0) {
+            try {
+                server = new PeerReadServer(this, readPort);
+                server.start();
+                address = System.getProperty("peer.read.host", "localhost") + ":" + server.getPort();
+            } catch (Exception e) {
+                System.err.println(name + " failed to start read server: " + e.getMessage());
+            }
+        }
+        this.readServer = server;
+        this.readAddress = address;
         startPubSubSubscriber();
+        startHeartbeats();
+    }
+
+    /**
+     * CIDs e embeddings de uma versão preparada (só o delta; o vetor completo é reconstruído no commit).
+     */
+    private static final class PendingVersion {
+        final List<String> cids;
+        final List<float[]> embeddings;
+        final long preparedAt;
+        final long bytes;
+
+        PendingVersion(List<String> cids, List<float[]> embeddings, long preparedAt) {
+            this.cids = cids;
+            this.embeddings = embeddings;
+            this.preparedAt = preparedAt;
+            long size = 64;
+            for (String cid : cids) {
+                size += 40 + 2L * cid.length();
+            }
+            for (float[] embedding : embeddings) {
+                size += 16 + (embedding != null ? 4L * embedding.length : 0);
+            }
+            this.bytes = size;
+        }
     }
 
     @Override
@@ -48,104 +143,160 @@ public class PeerNode implements Runnable {
     }
 
     private void startPubSubSubscriber() {
-        subscriberExecutor.submit(() -> {
-            try {
-                String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, PUBSUB_TOPIC.getBytes(StandardCharsets.UTF_8));
-                String urlStr = ipfsApiBase + "/api/v0/pubsub/sub?arg=" + URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
-                
-                System.out.println(name + " connecting to " + urlStr);
-                
-                URL url = new URL(urlStr);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setConnectTimeout(10000);
-                conn.setReadTimeout(0);
-                
-                int responseCode = conn.getResponseCode();
-                if (responseCode >= 400) {
-                    InputStream errorStream = conn.getErrorStream();
-                    String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
-                    System.err.println(name + " pubsub subscribe failed: status=" + responseCode + " body=" + err);
-                    return;
-                }
-                
-                System.out.println(name + " subscribed to " + PUBSUB_TOPIC + " successfully!");
-                
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = br.readLine()) != null && !Thread.currentThread().isInterrupted()) {
-                        line = line.trim();
-                        if (line.isEmpty()) continue;
-                        
-                        try {
-                            JsonNode wrapper = mapper.readTree(line);
-                            
-                            if (wrapper.has("data")) {
-                                String multibaseData = wrapper.get("data").asText();
-                                byte[] decoded = Multibase.decode(multibaseData);
-                                String msgJson = new String(decoded, StandardCharsets.UTF_8);
-                                JsonNode node = mapper.readTree(msgJson);
-                                
-                                String messageType = node.has("type") ? node.get("type").asText() : "";
-                                
-                                switch (messageType) {
-                                    case "doc_update_request":
-                                        handleUpdateRequest(node);
-                                        break;
-                                    case "doc_update_commit":
-                                        handleCommit(node);
-                                        break;
-                                    case "doc_update":
-                                        handleRemoteUpdate(node);
-                                        break;
-                                }
-                            }
-                        } catch (Exception exInner) {
-                            System.err.println(name + " failed to parse pubsub message: " + exInner.getMessage());
-                            exInner.printStackTrace();
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println(name + " pubsub subscriber failed: " + e.getMessage());
-                e.printStackTrace();
+        subscription = bus.subscribe(PUBSUB_TOPIC, name, new MessageBus.MessageHandler() {
+            @Override
+            public void onMessage(String msgJson) {
+                handleMessage(msgJson);
+            }
+
+            @Override
+            public void onSubscribed() {
+                publishMembership("peer_announce");
             }
         });
     }
 
+    private void handleMessage(String msgJson) {
+        try {
+            JsonNode node = mapper.readTree(msgJson);
+            
+            String messageType = node.has("type") ? node.get("type").asText() : "";
+            
+            switch (messageType) {
+                case "doc_update_request":
+                    handleUpdateRequest(node);
+                    break;
+                case "doc_update_commit":
+                    handleCommit(node);
+                    break;
+                case "doc_update_abort":
+                    handleAbort(node);
+                    break;
+                case "doc_update":
+                    handleRemoteUpdate(node);
+                    break;
+                case "embedding_refresh":
+                    handleEmbeddingRefresh(node);
+                    break;
+                case "embedding_switch":
+                    handleEmbeddingSwitch(node);
+                    break;
+                case "vote_request":
+                    handleVoteRequest(node);
+                    break;
+                case "leader_heartbeat":
+                    acceptTerm(node);
+                    break;
+            }
+        } catch (Exception exInner) {
+            System.err.println(name + " failed to parse pubsub message: " + exInner.getMessage());
+            exInner.printStackTrace();
+        }
+    }
+
+    /**
+     * Heartbeats periódicos para o líder manter a vista de membros e detetar falhas.
+     */
+    private void startHeartbeats() {
+        heartbeatExecutor.scheduleAtFixedRate(() -> {
+            publishMembership("peer_heartbeat");
+            expirePending();
+        }, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void publishMembership(String type) {
+        try {
+            ObjectNode root = mapper.createObjectNode();
+            root.put("type", type);
+            root.put("peer", name);
+            root.put("confirmedVersion", committed.getVersion());
+            root.put("term", getCurrentTerm());
+            if (readAddress != null) {
+                root.put("readAddress", readAddress);
+            }
+            publishMessage(mapper.writeValueAsString(root));
+        } catch (Exception e) {
+            System.err.println(name + " " + type + " error: " + e.getMessage());
+        }
+    }
+
     private void handleUpdateRequest(JsonNode node) {
         try {
             int requestedVersion = node.get("version").asInt();
-            String cid = node.get("cid").asText();
-            float[] embedding = mapper.convertValue(node.get("embedding"), float[].class);
+            // um CID ("cid"/"embedding") ou vários na mesma versão ("cids"/"embeddings")
+            List<String> cids = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            if (node.has("cids")) {
+                for (JsonNode c : node.get("cids")) {
+                    cids.add(c.asText());
+                }
+                for (JsonNode e : node.path("embeddings")) {
+                    embeddings.add(mapper.convertValue(e, float[].class));
+                }
+            } else {
+                cids.add(node.get("cid").asText());
+                embeddings.add(mapper.convertValue(node.get("embedding"), float[].class));
+            }
+            String cid = cids.get(0);
+            String traceId = node.path("traceId").asText(null);
+            long requestSentAt = node.path("sentAt").asLong(0);
+            String trace = Tracing.tag(traceId);
+            MessageEvent.record(traceId, "doc_update_request", name, node.path("leader").asText("leader"), PUBSUB_TOPIC,
+                    requestedVersion, requestSentAt);
+            StageEvent stage = Tracing.stage("peer.prepare", name, traceId);
             
-            System.out.println(name + " received update request for v" + requestedVersion + " cid=" + cid);
+            System.out.println(trace + name + " received update request for v" + requestedVersion +
+                               (cids.size() == 1 ? " cid=" + cid : " cids=" + cids.size()));
+            Reply reply = new Reply(requestedVersion, cid, traceId, requestSentAt);
             
             // Verificar conflito de versões
             synchronized (this) {
+                if (!acceptTerm(node)) {
+                    System.err.println(name + " rejecting v" + requestedVersion + " from a deposed leader (term " +
+                                       node.path("term").asInt() + " < " + currentTerm + ")");
+                    publishPrepareRejection(reply);
+                    stage.finish(PUBSUB_TOPIC, requestedVersion, "rejected: stale term");
+                    return;
+                }
+                Snapshot base = committed;
+                int confirmedVersion = base.getVersion();
+                if (requestedVersion == confirmedVersion && endsWith(base.getVector(), cids)) {
+                    // Um novo líder a repetir a versão em curso, que este peer já confirmou
+                    publishPrepareResponse(reply, calculateVectorHash(base.getVector()));
+                    stage.finish(PUBSUB_TOPIC, requestedVersion, "already committed");
+                    return;
+                }
                 if (requestedVersion != confirmedVersion + 1) {
                     System.err.println(name + " version conflict: expected v" + (confirmedVersion + 1) + 
                                      " but received v" + requestedVersion);
+                    // Voto negativo: permite ao líder abortar sem esperar pelo timeout
                     // TODO: Iniciar processo de resolução de conflitos
+                    publishPrepareRejection(reply);
+                    stage.finish(PUBSUB_TOPIC, requestedVersion, "rejected: confirmed v" + confirmedVersion);
                     return;
                 }
                 
-                // Criar nova versão temporária do vetor
-                List<String> newVector = new ArrayList<>(versions.get(confirmedVersion));
-                newVector.add(cid);
-                
-                // Armazenar temporariamente
-                pendingVersions.put(requestedVersion, newVector);
-                pendingEmbeddings.put(requestedVersion, embedding);
-                
-                // Calcular hash do vetor
+                // Calcular hash da nova versão do vetor
+                List<String> newVector = new ArrayList<>(base.getVector());
+                newVector.addAll(cids);
                 String vectorHash = calculateVectorHash(newVector);
                 
+                // Guardar só o delta, dentro do limite de memória
+                expirePending();
+                PendingVersion prepared = new PendingVersion(cids, embeddings, System.currentTimeMillis());
+                if (!reservePending(requestedVersion, prepared)) {
+                    System.err.println(name + " rejecting v" + requestedVersion + ": prepared state of " + prepared.bytes +
+                                       " bytes exceeds peer.pending.max.bytes=" + pendingMaxBytes);
+                    publishPrepareRejection(reply);
+                    stage.finish(PUBSUB_TOPIC, requestedVersion, "rejected: pending limit");
+                    return;
+                }
+                
                 // Enviar resposta ao líder
-                publishPrepareResponse(requestedVersion, vectorHash, cid);
+                publishPrepareResponse(reply, vectorHash);
+                stage.finish(PUBSUB_TOPIC, requestedVersion, "accepted");
                 
-                System.out.println(name + " prepared v" + requestedVersion + " hash=" + vectorHash);
+                System.out.println(trace + name + " prepared v" + requestedVersion + " hash=" + vectorHash);
             }
         } catch (Exception ex) {
             System.err.println(name + " handleUpdateRequest error: " + ex.getMessage());
@@ -156,41 +307,281 @@ public class PeerNode implements Runnable {
     private void handleCommit(JsonNode node) {
         try {
             int version = node.get("version").asInt();
+            String traceId = node.path("traceId").asText(null);
+            MessageEvent.record(traceId, "doc_update_commit", name, node.path("leader").asText("leader"), PUBSUB_TOPIC,
+                    version, node.path("sentAt").asLong(0));
+            StageEvent stage = Tracing.stage("peer.commit", name, traceId);
             
-            System.out.println(name + " received commit for v" + version);
+            System.out.println(Tracing.tag(traceId) + name + " received commit for v" + version);
             
             synchronized (this) {
-                if (!pendingVersions.containsKey(version)) {
-                    System.err.println(name + " no pending version v" + version + " to commit");
+                if (!acceptTerm(node)) {
+                    System.err.println(name + " ignoring commit v" + version + " from a deposed leader");
                     return;
                 }
-                
-                // Substituir versão atual pela nova versão confirmada
-                List<String> newVector = pendingVersions.remove(version);
-                float[] embedding = pendingEmbeddings.remove(version);
-                
-                if (version <= versions.size() - 1) {
-                    versions.set(version, newVector);
-                } else if (version == versions.size()) {
-                    versions.add(newVector);
-                } else {
-                    while (versions.size() <= version) {
-                        versions.add(new ArrayList<>());
-                    }
-                    versions.set(version, newVector);
+                Snapshot base = committed;
+                int confirmedVersion = base.getVersion();
+                if (version <= confirmedVersion) return; // repetição de um novo líder
+                PendingVersion prepared = removePending(version);
+                if (prepared == null) {
+                    System.err.println(name + " no pending version v" + version + " to commit" +
+                                       " (never prepared, aborted, expired or evicted)");
+                    return;
                 }
                 
-                confirmedVersion = version;
+                // O vetor novo é o da versão sobre a qual foi preparado (v-1) mais o delta
+                if (version != confirmedVersion + 1) {
+                    System.err.println(name + " cannot commit v" + version + ": base v" + (version - 1) +
+                                       " is not the confirmed v" + confirmedVersion);
+                    return;
+                }
+                history.append(version, prepared.cids);
+                Snapshot next = base.append(version, prepared.cids, prepared.embeddings);
+                committed = next;
                 
-                // TODO: Indexar embeddings no FAISS aqui
-                System.out.println(name + " committed v" + version + " vectorSize=" + newVector.size());
+                System.out.println(Tracing.tag(traceId) + name + " committed v" + version + " vectorSize=" + next.size());
             }
+            stage.finish(PUBSUB_TOPIC, version, null);
         } catch (Exception ex) {
             System.err.println(name + " handleCommit error: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
 
+    /**
+     * O líder abortou a ronda (timeout ou sem maioria): descartar o que foi preparado.
+     */
+    private void handleAbort(JsonNode node) {
+        int version = node.get("version").asInt();
+        MessageEvent.record(node.path("traceId").asText(null), "doc_update_abort", name, node.path("leader").asText("leader"),
+                PUBSUB_TOPIC, version, node.path("sentAt").asLong(0));
+        synchronized (this) {
+            if (!acceptTerm(node)) return;
+            if (removePending(version) != null) {
+                pendingAborted++;
+                System.out.println(name + " discarded v" + version + " (aborted by leader)");
+            }
+        }
+    }
+
+    /**
+     * Compara o termo da mensagem com o local; um termo superior passa a ser o atual (e o voto
+     * desse termo fica livre). Mensagens sem termo são de um líder sem eleição (termo 0).
+     *
+     * @return false se a mensagem é de um termo anterior
+     */
+    private synchronized boolean acceptTerm(JsonNode node) {
+        int term = node.path("term").asInt(0);
+        if (term < currentTerm) return false;
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = null;
+            try {
+                persistElectionState();
+            } catch (IOException e) {
+                System.err.println(name + " failed to persist term " + term + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void loadElectionState() throws IOException {
+        if (!Files.exists(electionFile)) return;
+        List<String> lines = Files.readAllLines(electionFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) return;
+        currentTerm = Integer.parseInt(lines.get(0).trim());
+        votedFor = lines.size() > 1 && !lines.get(1).isBlank() ? lines.get(1).trim() : null;
+        System.out.println(name + " restored term " + currentTerm + (votedFor != null ? " (voted for " + votedFor + ")" : ""));
+    }
+
+    /**
+     * Grava termo e voto (com o monitor) com fsync e substituição atómica.
+     */
+    private void persistElectionState() throws IOException {
+        Path tmp = electionFile.resolveSibling("election.tmp");
+        byte[] bytes = (currentTerm + "\n" + (votedFor != null ? votedFor : "") + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                ch.write(buffer);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, electionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Um candidato a líder pede o voto: concedido se o termo não é anterior ao atual, o peer
+     * ainda não votou noutro candidato nesse termo e o candidato não está atrás da versão
+     * confirmada por este peer (um líder eleito nunca perde versões confirmadas pela maioria).
+     */
+    private void handleVoteRequest(JsonNode node) {
+        int term = node.get("term").asInt();
+        String candidate = node.get("candidate").asText();
+        int candidateVersion = node.path("version").asInt();
+        boolean granted;
+        synchronized (this) {
+            acceptTerm(node);
+            granted = term == currentTerm && (votedFor == null || votedFor.equals(candidate)) &&
+                      candidateVersion >= committed.getVersion();
+            if (granted && !candidate.equals(votedFor)) {
+                votedFor = candidate;
+                try {
+                    persistElectionState();
+                } catch (IOException e) {
+                    // sem o voto no disco não se pode responder: depois de reiniciar votaria de novo
+                    System.err.println(name + " failed to persist vote in term " + term + ": " + e.getMessage());
+                    votedFor = null;
+                    granted = false;
+                }
+            }
+        }
+        System.out.println(name + (granted ? " voted for " : " refused vote to ") + candidate + " in term " + term +
+                            " (candidate v" + candidateVersion + ", confirmed v" + committed.getVersion() + ")");
+        try {
+            ObjectNode root = mapper.createObjectNode();
+            root.put("type", "vote");
+            root.put("term", getCurrentTerm());
+            root.put("peer", name);
+            root.put("candidate", candidate);
+            root.put("granted", granted);
+            root.put("confirmedVersion", committed.getVersion());
+            publishMessage(mapper.writeValueAsString(root));
+        } catch (Exception e) {
+            System.err.println(name + " vote error: " + e.getMessage());
+        }
+    }
+
+    private static boolean endsWith(List<String> vector, List<String> cids) {
+        return vector.size() >= cids.size() && vector.subList(vector.size() - cids.size(), vector.size()).equals(cids);
+    }
+
+    public synchronized int getCurrentTerm() {
+        return currentTerm;
+    }
+
+    /**
+     * Lote de embeddings recalculados pelo líder (reindexação), guardado até ao embedding_switch.
+     */
+    private synchronized void handleEmbeddingRefresh(JsonNode node) {
+        int generation = node.get("generation").asInt();
+        if (generation <= committed.getGeneration() || generation < shadowGeneration) return;
+        if (generation > shadowGeneration) {
+            shadowEmbeddings.clear();
+            shadowGeneration = generation;
+        }
+        JsonNode cids = node.get("cids");
+        JsonNode embeddings = node.get("embeddings");
+        for (int i = 0; i < cids.size(); i++) {
+            shadowEmbeddings.put(cids.get(i).asText(), mapper.convertValue(embeddings.get(i), float[].class));
+        }
+    }
+
+    /**
+     * O líder passou a usar a nova geração. Os CIDs confirmados até {@code baseVersion} têm de ter
+     * chegado todos em embedding_refresh; os posteriores já vieram com o novo modelo no commit.
+     * Se faltar algum (mensagem perdida) o peer fica na geração antiga e o líder deixa de lhe
+     * encaminhar pesquisas vetoriais.
+     */
+    private synchronized void handleEmbeddingSwitch(JsonNode node) {
+        int generation = node.get("generation").asInt();
+        int baseVersion = node.get("baseVersion").asInt();
+        Snapshot current = committed;
+        if (generation <= current.getGeneration()) return;
+        List<String> base;
+        try {
+            base = baseVersion >= current.getVersion() ? current.getVector() : history.vectorAt(baseVersion);
+        } catch (IOException e) {
+            System.err.println(name + " cannot switch to embedding generation " + generation + ": " + e.getMessage());
+            return;
+        }
+        int missing = 0;
+        if (shadowGeneration != generation) {
+            missing = base.size();
+        } else {
+            for (String cid : base) {
+                if (!shadowEmbeddings.containsKey(cid)) missing++;
+            }
+        }
+        if (missing > 0) {
+            System.err.println(name + " cannot switch to embedding generation " + generation + ": " + missing +
+                               " embedding(s) missing, vector reads stay on the leader");
+        } else {
+            committed = current.withEmbeddings(base.size(), shadowEmbeddings, generation);
+            System.out.println(name + " switched to embedding generation " + generation + " (" + base.size() + " vectors)");
+        }
+        shadowEmbeddings.clear();
+        shadowGeneration = -1;
+    }
+
+    public int getEmbeddingGeneration() {
+        return committed.getGeneration();
+    }
+
+    /**
+     * Regista uma versão preparada, descartando as mais antigas se o total passar do limite.
+     *
+     * @return false se a versão sozinha não cabe no limite
+     */
+    private synchronized boolean reservePending(int version, PendingVersion prepared) {
+        removePending(version); // nova tentativa da mesma versão substitui a anterior
+        if (prepared.bytes > pendingMaxBytes) {
+            return false;
+        }
+        Iterator<Map.Entry<Integer, PendingVersion>> it = pending.entrySet().iterator();
+        while (pendingBytes + prepared.bytes > pendingMaxBytes && it.hasNext()) {
+            Map.Entry<Integer, PendingVersion> oldest = it.next();
+            it.remove();
+            pendingBytes -= oldest.getValue().bytes;
+            pendingEvicted++;
+            System.err.println(name + " evicted prepared v" + oldest.getKey() + " (peer.pending.max.bytes reached)");
+        }
+        pending.put(version, prepared);
+        pendingBytes += prepared.bytes;
+        return true;
+    }
+
+    private synchronized PendingVersion removePending(int version) {
+        PendingVersion removed = pending.remove(version);
+        if (removed != null) {
+            pendingBytes -= removed.bytes;
+        }
+        return removed;
+    }
+
+    /**
+     * Descarta versões preparadas há mais de peer.pending.ttl.ms (o abort pode ter-se perdido).
+     */
+    private synchronized void expirePending() {
+        long cutoff = System.currentTimeMillis() - pendingTtlMs;
+        Iterator<Map.Entry<Integer, PendingVersion>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, PendingVersion> entry = it.next();
+            // por ordem de preparação: a partir da primeira recente já não há expiradas
+            if (entry.getValue().preparedAt > cutoff) break;
+            it.remove();
+            pendingBytes -= entry.getValue().bytes;
+            pendingExpired++;
+            System.out.println(name + " expired prepared v" + entry.getKey() + " (peer.pending.ttl.ms=" + pendingTtlMs + ")");
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return {abortadas, expiradas, despejadas por falta de memória}
+     */
+    public synchronized long[] getPendingDiscards() {
+        return new long[]{pendingAborted, pendingExpired, pendingEvicted};
+    }
+
     private String calculateVectorHash(List<String> vector) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -202,56 +593,77 @@ public class PeerNode implements Runnable {
         }
     }
 
-    private void publishPrepareResponse(int version, String hash, String cid) {
+    /**
+     * Dados do pedido de prepare repetidos na resposta (o traço e o instante de envio do pedido,
+     * para o líder medir a ida e volta de cada peer).
+     */
+    private static final class Reply {
+        final int version;
+        final String cid;
+        final String traceId;
+        final long requestSentAt;
+
+        Reply(int version, String cid, String traceId, long requestSentAt) {
+            this.version = version;
+            this.cid = cid;
+            this.traceId = traceId;
+            this.requestSentAt = requestSentAt;
+        }
+    }
+
+    private ObjectNode newResponse(Reply reply, boolean accepted) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", "doc_update_prepare_response");
+        root.put("peer", name);
+        root.put("version", reply.version);
+        root.put("cid", reply.cid);
+        root.put("accepted", accepted);
+        root.put("term", getCurrentTerm());
+        if (reply.traceId != null) {
+            root.put("traceId", reply.traceId);
+        }
+        if (reply.requestSentAt > 0) {
+            root.put("requestSentAt", reply.requestSentAt);
+        }
+        return root;
+    }
+
+    private void publishPrepareResponse(Reply reply, String hash) {
+        int version = reply.version;
         try {
-            ObjectNode root = mapper.createObjectNode();
-            root.put("type", "doc_update_prepare_response");
-            root.put("peer", name);
-            root.put("version", version);
+            ObjectNode root = newResponse(reply, true);
             root.put("hash", hash);
-            root.put("cid", cid);
 
             String payloadJson = mapper.writeValueAsString(root);
             publishMessage(payloadJson);
             
-            System.out.println(name + " sent prepare response v" + version + " hash=" + hash);
+            System.out.println(Tracing.tag(reply.traceId) + name + " sent prepare response v" + version + " hash=" + hash);
         } catch (Exception e) {
             System.err.println(name + " publishPrepareResponse error: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private void publishMessage(String payloadJson) throws Exception {
-        String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, PUBSUB_TOPIC.getBytes(StandardCharsets.UTF_8));
-        String urlStr = ipfsApiBase + "/api/v0/pubsub/pub?arg=" + URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
-        
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        
-        String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
-        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-        
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(("Content-Disposition: form-data; name=\"data\"; filename=\"message.json\"\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(("Content-Type: application/json\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-            os.write(payloadJson.getBytes(StandardCharsets.UTF_8));
-            os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
-            os.flush();
-        }
-        
-        int responseCode = conn.getResponseCode();
-        if (responseCode >= 400) {
-            InputStream errorStream = conn.getErrorStream();
-            if (errorStream != null) {
-                String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
-                System.err.println(name + " PubSub publish failed: " + err);
-            }
+    private void publishPrepareRejection(Reply reply) {
+        int version = reply.version;
+        try {
+            ObjectNode root = newResponse(reply, false);
+            root.put("confirmedVersion", committed.getVersion());
+
+            String payloadJson = mapper.writeValueAsString(root);
+            publishMessage(payloadJson);
+            
+            System.out.println(Tracing.tag(reply.traceId) + name + " rejected prepare v" + version);
+        } catch (Exception e) {
+            System.err.println(name + " publishPrepareRejection error: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
+    private void publishMessage(String payloadJson) throws Exception {
+        bus.publish(PUBSUB_TOPIC, name, payloadJson);
+    }
+
     private void handleRemoteUpdate(JsonNode node) {
         try {
             int version = node.get("version").asInt();
@@ -265,17 +677,18 @@ public class PeerNode implements Runnable {
                 }
             }
             
-            synchronized (versions) {
-                if (version <= versions.size() - 1) {
-                    versions.set(version, vector);
-                } else if (version == versions.size()) {
-                    versions.add(vector);
-                } else {
-                    while (versions.size() <= version) {
-                        versions.add(new ArrayList<>());
-                    }
-                    versions.set(version, vector);
+            synchronized (this) {
+                // como no líder: só se aceita um vetor mais recente que estenda o atual
+                Snapshot base = committed;
+                if (version <= base.getVersion()) return;
+                List<String> currentVector = base.getVector();
+                if (vector.size() < currentVector.size() || !vector.subList(0, currentVector.size()).equals(currentVector)) {
+                    System.err.println(name + " ignoring update v" + version + ": vector does not extend the local one");
+                    return;
                 }
+                List<String> added = vector.subList(currentVector.size(), vector.size());
+                history.append(version, added);
+                committed = base.append(version, added, null);
             }
             
             System.out.println(name + " received update v" + version + " cid=" + cid + " vectorSize=" + vector.size());
@@ -294,61 +707,174 @@ public class PeerNode implements Runnable {
             root.set("embedding", mapper.valueToTree(embedding));
 
             String payloadJson = mapper.writeValueAsString(root);
-            
-            // Encode topic in multibase Base64URL
-            String encodedTopic = Multibase.encode(Multibase.Base.Base64Url, PUBSUB_TOPIC.getBytes(StandardCharsets.UTF_8));
-            
-            // Build URL with topic
-            String urlStr = ipfsApiBase + "/api/v0/pubsub/pub?arg=" + URLEncoder.encode(encodedTopic, StandardCharsets.UTF_8);
-            
-            URL url = new URL(urlStr);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            
-            // Create proper multipart form data with filename
-            String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
-            conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            
-            try (OutputStream os = conn.getOutputStream()) {
-                // Start boundary
-                os.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.UTF_8));
-                
-                // Content-Disposition with name and filename
-                os.write(("Content-Disposition: form-data; name=\"data\"; filename=\"message.json\"\r\n").getBytes(StandardCharsets.UTF_8));
-                os.write(("Content-Type: application/json\r\n\r\n").getBytes(StandardCharsets.UTF_8));
-                
-                // Payload
-                os.write(payloadJson.getBytes(StandardCharsets.UTF_8));
-                
-                // End boundary
-                os.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
-                os.flush();
-            }
-            
-            int responseCode = conn.getResponseCode();
-            if (responseCode >= 400) {
-                InputStream errorStream = conn.getErrorStream();
-                if (errorStream != null) {
-                    String err = new String(errorStream.readAllBytes(), StandardCharsets.UTF_8);
-                    System.err.println(name + " PubSub publish failed: " + err);
-                }
-            } else {
-                System.out.println(name + " published update v" + version + " cid=" + cid);
-            }
+            publishMessage(payloadJson);
+            System.out.println(name + " published update v" + version + " cid=" + cid);
         } catch (Exception e) {
             System.err.println(name + " publishUpdate error: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    /**
+     * Avisa o líder da saída e pára as threads de fundo.
+     */
+    public void shutdown() {
+        if (readServer != null) {
+            readServer.stop();
+        }
+        heartbeatExecutor.shutdownNow();
+        publishMembership("peer_leave");
+        subscription.close();
+    }
+
     public int getConfirmedVersion() {
-        return confirmedVersion;
+        return committed.getVersion();
+    }
+
+    /**
+     * Estado confirmado atual, sem bloquear: versão, geração e pesquisa vetorial lidas do mesmo
+     * snapshot são coerentes entre si mesmo com um commit a decorrer.
+     */
+    public Snapshot snapshot() {
+        return committed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getReadAddress() {
+        return readAddress;
+    }
+
+    /**
+     * CIDs acrescentados depois da versão {@code since} até {@code upTo} (já confirmada), no
+     * máximo {@code limit} sem partir versões (as antigas são lidas do disco).
+     */
+    public VersionHistory.Page getChanges(int since, int upTo, int limit) throws IOException {
+        return history.read(Math.max(since, 0), Math.min(upTo, committed.getVersion()), limit);
+    }
+
+    /**
+     * Top-k por produto interno sobre os embeddings confirmados (normalizados L2 = cosseno).
+     */
+    public List<Map.Entry<String, Double>> vectorSearch(float[] query, int k) {
+        return committed.vectorSearch(query, k);
     }
     
+    /**
+     * Vetor na versão confirmada (vista só de leitura, sem cópia).
+     */
     public List<String> getCurrentVector() {
-        synchronized (this) {
-            return new ArrayList<>(versions.get(confirmedVersion));
+        return committed.getVector();
+    }
+
+    /**
+     * Estado confirmado imutável de um peer. O vetor só cresce, por isso os snapshots sucessivos
+     * partilham os mesmos arrays de CIDs e de embeddings: o escritor (sob o monitor do peer) só
+     * escreve depois da posição {@code size} do último snapshot publicado, e cada snapshot só lê
+     * as suas primeiras {@code size} posições. Quando o array enche, copia-se para um com o dobro
+     * da capacidade; uma troca de geração copia só o array de embeddings. A publicação pela
+     * referência volatile garante que quem lê o snapshot vê os arrays preenchidos até {@code size}.
+     */
+    public static final class Snapshot {
+        private final int version;
+        private final String[] cids;
+        // embedding de cada posição do vetor (null se não chegou no commit, p.ex. doc_update)
+        private final float[][] embeddings;
+        private final int size;
+        private final int generation;
+
+        private Snapshot(int version, String[] cids, float[][] embeddings, int size, int generation) {
+            this.version = version;
+            this.cids = cids;
+            this.embeddings = embeddings;
+            this.size = size;
+            this.generation = generation;
+        }
+
+        // cada peer tem os seus arrays (o escritor escreve neles)
+        static Snapshot empty() {
+            return new Snapshot(0, new String[16], new float[16][], 0, 0);
+        }
+
+        /**
+         * Snapshot da versão {@code version}, com os CIDs (e embeddings, se houver) acrescentados
+         * no fim. Só pode ser chamado sobre o último snapshot publicado.
+         */
+        Snapshot append(int version, List<String> added, List<float[]> addedEmbeddings) {
+            int newSize = size + added.size();
+            String[] c = cids;
+            float[][] e = embeddings;
+            if (newSize > c.length) {
+                int capacity = Math.max(newSize, c.length * 2);
+                c = Arrays.copyOf(c, capacity);
+                e = Arrays.copyOf(e, capacity);
+            }
+            for (int i = 0; i < added.size(); i++) {
+                c[size + i] = added.get(i);
+                e[size + i] = null;
+            }
+            if (addedEmbeddings != null) {
+                // os embeddings desta versão correspondem aos últimos CIDs do vetor
+                int first = newSize - addedEmbeddings.size();
+                for (int i = 0; i < addedEmbeddings.size(); i++) {
+                    if (first + i >= size) e[first + i] = addedEmbeddings.get(i);
+                }
+            }
+            return new Snapshot(version, c, e, newSize, generation);
+        }
+
+        /**
+         * Mesmo vetor com os embeddings da geração {@code generation} nas primeiras {@code baseSize}
+         * posições (as seguintes já vieram com o novo modelo no commit).
+         */
+        Snapshot withEmbeddings(int baseSize, Map<String, float[]> byCid, int generation) {
+            float[][] e = Arrays.copyOf(embeddings, embeddings.length);
+            for (int i = 0; i < baseSize; i++) {
+                e[i] = byCid.get(cids[i]);
+            }
+            return new Snapshot(version, cids, e, size, generation);
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public List<String> getVector() {
+            return Collections.unmodifiableList(Arrays.asList(cids).subList(0, size));
+        }
+
+        /**
+         * Top-k por produto interno sobre os embeddings deste snapshot (normalizados L2 = cosseno).
+         */
+        public List<Map.Entry<String, Double>> vectorSearch(float[] query, int k) {
+            PriorityQueue<Map.Entry<String, Double>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (int j = 0; j < size; j++) {
+                float[] vec = embeddings[j];
+                if (vec == null) continue;
+                double score = 0;
+                for (int i = 0; i < Math.min(query.length, vec.length); i++) {
+                    score += query[i] * vec[i];
+                }
+                if (heap.size() < k) {
+                    heap.add(new AbstractMap.SimpleEntry<>(cids[j], score));
+                } else if (score > heap.peek().getValue()) {
+                    heap.poll();
+                    heap.add(new AbstractMap.SimpleEntry<>(cids[j], score));
+                }
+            }
+            List<Map.Entry<String, Double>> hits = new ArrayList<>(heap);
+            hits.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+            return hits;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package com.sdt.peers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor HTTP mínimo (JDK) para leituras num peer, sem passar pelo líder.
+ *
+ * GET  /versions?since=X&limit=N&minVersion=M -> {peer, currentVersion, changes:[{version, cid}], hasMore}
+ * POST /search {embedding, k, minVersion, generation} -> {peer, currentVersion, hits:[{cid, score}]}
+ *
+ * Se o peer ainda não confirmou {@code minVersion}, ou (pesquisa) tem embeddings de outra
+ * geração, responde 412, e o líder serve a leitura.
+ */
+public class PeerReadServer {
+
+    private final PeerNode node;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public PeerReadServer(PeerNode node, int port) throws IOException {
+        this.node = node;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        int threads = Integer.parseInt(System.getProperty("peer.read.threads", "4"));
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, node.getName() + "-read-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/versions", this::handleVersions);
+        server.createContext("/search", this::handleSearch);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println(node.getName() + " serving reads on port " + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleVersions(HttpExchange exchange) throws IOException {
+        try {
+            int minVersion = parseInt(queryParam(exchange, "minVersion"), 0);
+            int since = parseInt(queryParam(exchange, "since"), 0);
+            int limit = parseInt(queryParam(exchange, "limit"), Integer.MAX_VALUE);
+            int current = node.getConfirmedVersion();
+            if (current < minVersion) {
+                sendBehind(exchange, current);
+                return;
+            }
+            VersionHistory.Page page = node.getChanges(since, current, limit);
+            ObjectNode body = mapper.createObjectNode();
+            body.put("peer", node.getName());
+            body.put("currentVersion", current);
+            ArrayNode array = body.putArray("changes");
+            for (VersionHistory.Change change : page.getChanges()) {
+                array.addObject().put("version", change.getVersion()).put("cid", change.getCid());
+            }
+            body.put("hasMore", page.hasMore());
+            send(exchange, 200, body);
+        } catch (Exception e) {
+            sendError(exchange, e);
+        }
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, mapper.createObjectNode().put("error", "POST required"));
+                return;
+            }
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            int minVersion = request.path("minVersion").asInt(0);
+            int k = request.path("k").asInt(10);
+            float[] query = mapper.convertValue(request.get("embedding"), float[].class);
+
+            // versão, geração e hits do mesmo snapshot, sem esperar por um commit em curso
+            PeerNode.Snapshot snapshot = node.snapshot();
+            int current = snapshot.getVersion();
+            if (current < minVersion) {
+                sendBehind(exchange, current);
+                return;
+            }
+            // embeddings de outra geração (reindexação) não são comparáveis com a query
+            int generation = request.path("generation").asInt(0);
+            if (generation != snapshot.getGeneration()) {
+                ObjectNode body = mapper.createObjectNode();
+                body.put("error", "replica on another embedding generation");
+                body.put("generation", snapshot.getGeneration());
+                send(exchange, 412, body);
+                return;
+            }
+            ObjectNode body = mapper.createObjectNode();
+            body.put("peer", node.getName());
+            body.put("currentVersion", current);
+            ArrayNode hits = body.putArray("hits");
+            for (Map.Entry<String, Double> hit : snapshot.vectorSearch(query, k)) {
+                hits.addObject().put("cid", hit.getKey()).put("score", hit.getValue());
+            }
+            send(exchange, 200, body);
+        } catch (Exception e) {
+            sendError(exchange, e);
+        }
+    }
+
+    private void sendBehind(HttpExchange exchange, int current) throws IOException {
+        ObjectNode body = mapper.createObjectNode();
+        body.put("error", "replica behind requested version");
+        body.put("currentVersion", current);
+        send(exchange, 412, body);
+    }
+
+    private void sendError(HttpExchange exchange, Exception e) throws IOException {
+        System.err.println(node.getName() + " read request failed: " + e.getMessage());
+        send(exchange, 500, mapper.createObjectNode().put("error", String.valueOf(e.getMessage())));
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
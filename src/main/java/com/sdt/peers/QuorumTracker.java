@@ -0,0 +1,155 @@
+package com.sdt.peers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contabiliza os votos de uma ronda de 2PC (uma versão).
+ * Guarda no máximo um voto por peer e decide assim que existe uma maioria
+ * com o mesmo hash (COMMIT) ou assim que essa maioria deixa de ser possível (ABORT).
+ * Só contam votos dos peers da configuração com que a ronda foi criada; a maioria é calculada
+ * sobre o tamanho da configuração (ou uma base maior, ver {@link ClusterMembership#quorumBase}).
+ */
+public class QuorumTracker {
+
+    public enum Outcome { PENDING, COMMIT, ABORT }
+
+    private final int version;
+    private final Set<String> voters;
+    private final int totalPeers;
+    private final int majorityThreshold;
+
+    // peer -> hash votado (null = voto negativo, ex.: conflito de versões)
+    private final Map<String, String> votesByPeer = new HashMap<>();
+    private final Map<String, Integer> hashCounts = new HashMap<>();
+    private final CountDownLatch decided = new CountDownLatch(1);
+
+    private Outcome outcome = Outcome.PENDING;
+    private String winningHash;
+
+    public QuorumTracker(int version, Set<String> voters) {
+        this(version, voters, voters.size());
+    }
+
+    /**
+     * @param configurationSize base da maioria; os membros que não estão em {@code voters} contam
+     *                          como votos que nunca chegam
+     */
+    public QuorumTracker(int version, Set<String> voters, int configurationSize) {
+        this.version = version;
+        this.voters = Collections.unmodifiableSet(new LinkedHashSet<>(voters));
+        this.totalPeers = Math.max(voters.size(), configurationSize);
+        this.majorityThreshold = ClusterMembership.majorityOf(totalPeers);
+        if (voters.isEmpty() || majorityThreshold > voters.size()) {
+            decide(Outcome.ABORT, null);
+        }
+    }
+
+    /**
+     * Regista o voto de um peer. Votos repetidos do mesmo peer e votos de peers
+     * fora da configuração da ronda são ignorados.
+     *
+     * @param hash hash do vetor preparado, ou null se o peer recusou a versão
+     * @return true se o voto foi contabilizado
+     */
+    public synchronized boolean recordVote(String peer, String hash) {
+        if (outcome != Outcome.PENDING || !voters.contains(peer) || votesByPeer.containsKey(peer)) {
+            return false;
+        }
+        votesByPeer.put(peer, hash);
+
+        int bestCount = 0;
+        String bestHash = null;
+        if (hash != null) {
+            hashCounts.merge(hash, 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> e : hashCounts.entrySet()) {
+            if (e.getValue() > bestCount) {
+                bestCount = e.getValue();
+                bestHash = e.getKey();
+            }
+        }
+
+        if (bestCount >= majorityThreshold) {
+            decide(Outcome.COMMIT, bestHash);
+        } else {
+            // Mesmo que todos os peers em falta votem no hash mais votado, não chega à maioria
+            int remaining = Math.max(0, voters.size() - votesByPeer.size());
+            if (bestCount + remaining < majorityThreshold) {
+                decide(Outcome.ABORT, null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Trata um peer que se sabe estar em baixo como voto negativo, para não esperar por ele.
+     */
+    public synchronized void markUnavailable(String peer) {
+        recordVote(peer, null);
+    }
+
+    public synchronized boolean hasVoted(String peer) {
+        return votesByPeer.containsKey(peer);
+    }
+
+    public Set<String> getVoters() {
+        return voters;
+    }
+
+    /**
+     * Aborta a ronda se ainda não estiver decidida (ex.: timeout ou erro ao publicar).
+     */
+    public synchronized void abort() {
+        if (outcome == Outcome.PENDING) {
+            decide(Outcome.ABORT, null);
+        }
+    }
+
+    private void decide(Outcome result, String hash) {
+        this.outcome = result;
+        this.winningHash = hash;
+        decided.countDown();
+    }
+
+    /**
+     * Aguarda uma decisão até ao timeout. Devolve PENDING se o tempo esgotar.
+     */
+    public Outcome await(long timeout, TimeUnit unit) throws InterruptedException {
+        decided.await(timeout, unit);
+        return getOutcome();
+    }
+
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+
+    public synchronized String getWinningHash() {
+        return winningHash;
+    }
+
+    public synchronized int getVoteCount(String hash) {
+        return hashCounts.getOrDefault(hash, 0);
+    }
+
+    public synchronized Map<String, Integer> getHashCounts() {
+        return new HashMap<>(hashCounts);
+    }
+
+    public synchronized int getVotesReceived() {
+        return votesByPeer.size();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getMajorityThreshold() {
+        return majorityThreshold;
+    }
+}
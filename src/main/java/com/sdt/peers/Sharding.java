@@ -0,0 +1,70 @@
+package com.sdt.peers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Partição do espaço de documentos em coleções e, dentro de cada coleção, por hash do CID.
+ * O número de shards é fixo por deployment (-Dcluster.shards); mudá-lo altera o shard de cada CID.
+ * As coleções servidas vêm de -Dcollections (lista separada por vírgulas).
+ */
+public final class Sharding {
+
+    public static final String BASE_TOPIC = "sdt_doc_updates";
+    public static final String DEFAULT_COLLECTION = "default";
+
+    private static final Pattern COLLECTION_NAME = Pattern.compile("[a-z0-9][a-z0-9_-]{0,63}");
+
+    private Sharding() {
+    }
+
+    public static int shardCount() {
+        return Math.max(1, Integer.parseInt(System.getProperty("cluster.shards", "1")));
+    }
+
+    public static int shardFor(String cid, int shardCount) {
+        if (shardCount <= 1) return 0;
+        int h = cid.hashCode();
+        // espalhar os bits (os CIDs partilham prefixos como "Qm" ou "bafy")
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return Math.floorMod(h, shardCount);
+    }
+
+    /**
+     * Com um único shard mantém-se o tópico original.
+     */
+    public static String topicFor(int shard, int shardCount) {
+        return topicFor(BASE_TOPIC, shard, shardCount);
+    }
+
+    public static String topicFor(String collectionTopic, int shard, int shardCount) {
+        return shardCount <= 1 ? collectionTopic : collectionTopic + "-shard-" + shard;
+    }
+
+    /**
+     * Tópico base de uma coleção; a coleção por omissão mantém o tópico original.
+     */
+    public static String collectionTopic(String collection) {
+        return DEFAULT_COLLECTION.equals(collection) ? BASE_TOPIC : BASE_TOPIC + "-c-" + collection;
+    }
+
+    public static List<String> collections() {
+        List<String> names = new ArrayList<>();
+        for (String name : System.getProperty("collections", DEFAULT_COLLECTION).split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || names.contains(name)) continue;
+            if (!isValidCollectionName(name)) {
+                throw new IllegalArgumentException("Invalid collection name: " + name);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    public static boolean isValidCollectionName(String name) {
+        return name != null && COLLECTION_NAME.matcher(name).matches();
+    }
+}
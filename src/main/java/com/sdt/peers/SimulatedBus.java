@@ -0,0 +1,340 @@
+package com.sdt.peers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MessageBus} em memória para simulação, com falhas injetadas: atraso por mensagem
+ * (distribuição configurável, multiplicado para nós lentos), perda, duplicação, reordenação,
+ * partições e crashes.
+ *
+ * Cada ligação emissor -> recetor é FIFO (como TCP): uma mensagem nunca ultrapassa a anterior
+ * na mesma ligação, exceto as escolhidas para reordenação, e cada subscritor trata uma
+ * mensagem de cada vez.
+ *
+ * Todas as decisões aleatórias vêm de um único {@link Random} com seed fixa. Os tempos são
+ * reais (as mensagens são entregues por um pool agendado), pelo que a sequência de decisões
+ * é reprodutível mas o escalonamento das threads não.
+ */
+public class SimulatedBus implements MessageBus {
+
+    private final Random random;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    private volatile DelayDistribution delay = DelayDistribution.parse("fixed:0");
+    private volatile double lossRate;
+    private volatile double duplicateRate;
+    private volatile double reorderRate;
+    private volatile long reorderDelayMs = 50;
+
+    // estado de falhas (protegido pelo monitor do barramento)
+    private final Map<String, Double> slowdown = new HashMap<>();
+    private final Map<String, Integer> partitionOf = new HashMap<>();
+    private final Set<String> crashed = new HashSet<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong partitioned = new AtomicLong();
+    private final AtomicLong crashedDrops = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+
+    public SimulatedBus(long seed, int deliveryThreads) {
+        this.random = new Random(seed);
+        AtomicInteger counter = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(deliveryThreads, r -> {
+            Thread t = new Thread(r, "sim-bus-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Cada subscritor processa as mensagens uma de cada vez, pela ordem em que ficam prontas.
+     */
+    private final class Subscriber {
+        final String name;
+        final MessageHandler handler;
+        final Queue<String> mailbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+        // emissor -> ligação FIFO até este subscritor (protegido pelo monitor do barramento)
+        final Map<String, Link> links = new HashMap<>();
+        volatile boolean active = true;
+
+        Subscriber(String name, MessageHandler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+
+        void enqueue(String payloadJson) {
+            mailbox.add(payloadJson);
+            if (draining.compareAndSet(false, true)) {
+                scheduler.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                String payloadJson;
+                while ((payloadJson = mailbox.poll()) != null) {
+                    deliver(this, payloadJson);
+                }
+                draining.set(false);
+            } while (!mailbox.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * Mensagens em trânsito numa ligação, pela ordem de envio. Cada entrega agendada retira
+     * a cabeça da fila (e não "a sua" mensagem), pelo que a ordem se mantém mesmo que duas
+     * entregas vencidas corram em threads diferentes do pool.
+     */
+    private static final class Link {
+        final Subscriber target;
+        final Queue<String> inFlight = new ArrayDeque<>();
+        long tail;
+
+        Link(Subscriber target) {
+            this.target = target;
+        }
+
+        synchronized void add(String payloadJson) {
+            inFlight.add(payloadJson);
+        }
+
+        synchronized void deliverHead() {
+            String payloadJson = inFlight.poll();
+            if (payloadJson != null) {
+                target.enqueue(payloadJson);
+            }
+        }
+    }
+
+    @Override
+    public void publish(String topic, String sender, String payloadJson) {
+        published.incrementAndGet();
+        List<Subscriber> targets = subscribers.get(topic);
+        if (targets == null) return;
+        for (Subscriber target : targets) {
+            if (!target.active) continue;
+            planAndSchedule(sender, target, payloadJson);
+        }
+    }
+
+    /**
+     * Decide o destino de uma mensagem para um subscritor: nenhuma entrega (perdida),
+     * uma, ou duas (duplicada), cada uma com o seu atraso, e agenda as entregas.
+     */
+    private synchronized void planAndSchedule(String sender, Subscriber target, String payloadJson) {
+        String receiver = target.name;
+        if (crashed.contains(sender) || crashed.contains(receiver)) {
+            crashedDrops.incrementAndGet();
+            return;
+        }
+        if (!partitionOf.getOrDefault(sender, 0).equals(partitionOf.getOrDefault(receiver, 0))) {
+            partitioned.incrementAndGet();
+            return;
+        }
+        if (!sender.equals(receiver) && random.nextDouble() < lossRate) {
+            lost.incrementAndGet();
+            return;
+        }
+        int copies = random.nextDouble() < duplicateRate ? 2 : 1;
+        if (copies == 2) {
+            duplicated.incrementAndGet();
+        }
+        double factor = Math.max(slowdown.getOrDefault(sender, 1.0), slowdown.getOrDefault(receiver, 1.0));
+        Link link = target.links.computeIfAbsent(sender, k -> new Link(target));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < copies; i++) {
+            long d = Math.round(sender.equals(receiver) ? 0 : delay.sample(random) * factor);
+            if (random.nextDouble() < reorderRate) {
+                // fora de ordem: atraso extra e não passa pela fila FIFO da ligação
+                long delayMs = d + Math.round(random.nextDouble() * reorderDelayMs);
+                scheduler.schedule(() -> target.enqueue(payloadJson), delayMs, TimeUnit.MILLISECONDS);
+                continue;
+            }
+            link.tail = Math.max(now + d, link.tail);
+            link.add(payloadJson);
+            scheduler.schedule(link::deliverHead, link.tail - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver(Subscriber target, String payloadJson) {
+        if (!target.active) return;
+        synchronized (this) {
+            // um crash entre o envio e a entrega também perde a mensagem
+            if (crashed.contains(target.name)) {
+                crashedDrops.incrementAndGet();
+                return;
+            }
+        }
+        delivered.incrementAndGet();
+        try {
+            target.handler.onMessage(payloadJson);
+        } catch (Exception e) {
+            System.err.println("SimulatedBus: handler of " + target.name + " failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Subscription subscribe(String topic, String subscriber, MessageHandler handler) {
+        Subscriber sub = new Subscriber(subscriber, handler);
+        subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(sub);
+        scheduler.execute(handler::onSubscribed);
+        return () -> {
+            sub.active = false;
+            subscribers.get(topic).remove(sub);
+        };
+    }
+
+    public void setDelay(DelayDistribution delay) {
+        this.delay = delay;
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public void setDuplicateRate(double duplicateRate) {
+        this.duplicateRate = duplicateRate;
+    }
+
+    /**
+     * Fração de mensagens que recebem um atraso extra uniforme em [0, maxExtraMs).
+     */
+    public void setReorder(double rate, long maxExtraMs) {
+        this.reorderRate = rate;
+        this.reorderDelayMs = maxExtraMs;
+    }
+
+    public synchronized void setSlowdown(String node, double factor) {
+        slowdown.put(node, factor);
+    }
+
+    public synchronized void crash(String node) {
+        crashed.add(node);
+    }
+
+    public synchronized void recover(String node) {
+        crashed.remove(node);
+    }
+
+    /**
+     * Coloca o nó numa partição; só nós da mesma partição comunicam (por omissão todos estão na 0).
+     */
+    public synchronized void partition(String node, int group) {
+        partitionOf.put(node, group);
+    }
+
+    public synchronized void heal() {
+        partitionOf.clear();
+    }
+
+    /**
+     * Número aleatório reprodutível (mesma fonte que as decisões de falhas).
+     */
+    public synchronized double nextRandom() {
+        return random.nextDouble();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public long getPartitioned() {
+        return partitioned.get();
+    }
+
+    public long getCrashedDrops() {
+        return crashedDrops.get();
+    }
+
+    public long getDuplicated() {
+        return duplicated.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Distribuição de atrasos em ms: "fixed:d", "uniform:min:max", "exp:média" ou
+     * "lognormal:mediana:sigma" (cauda longa).
+     */
+    public static final class DelayDistribution {
+        private final String spec;
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private DelayDistribution(String spec, String kind, double a, double b) {
+            this.spec = spec;
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        public static DelayDistribution parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            String kind = parts[0].toLowerCase();
+            double a = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+            double b = parts.length > 2 ? Double.parseDouble(parts[2]) : 0;
+            switch (kind) {
+                case "fixed":
+                case "exp":
+                    break;
+                case "uniform":
+                    if (b < a) throw new IllegalArgumentException("uniform needs min <= max: " + spec);
+                    break;
+                case "lognormal":
+                    if (a <= 0) throw new IllegalArgumentException("lognormal needs a positive median: " + spec);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown delay distribution: " + spec);
+            }
+            return new DelayDistribution(spec, kind, a, b);
+        }
+
+        double sample(Random random) {
+            switch (kind) {
+                case "uniform":
+                    return a + random.nextDouble() * (b - a);
+                case "exp":
+                    return -a * Math.log(1 - random.nextDouble());
+                case "lognormal":
+                    return a * Math.exp(b * random.nextGaussian());
+                default:
+                    return a;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+}
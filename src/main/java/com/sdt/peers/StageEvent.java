@@ -0,0 +1,56 @@
+package com.sdt.peers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Evento JFR com a duração de uma etapa de um upload (extração de texto, inferência, IPFS add,
+ * ronda de 2PC, prepare/commit num peer...), criado por {@link Tracing#stage}.
+ */
+@Name("com.sdt.Stage")
+@Label("SDT Stage")
+@Category("SDT")
+@Description("Duration of one upload stage on the leader or on a peer")
+@StackTrace(false)
+public class StageEvent extends Event {
+
+    @Label("Trace Id")
+    String traceId;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Node")
+    String node;
+
+    @Label("Topic")
+    String topic;
+
+    @Label("Version")
+    int version;
+
+    @Label("Detail")
+    String detail;
+
+    /**
+     * Termina a etapa e grava o evento (se houver uma gravação JFR ativa).
+     */
+    public void finish(String topic, int version, String detail) {
+        if (!isEnabled()) return;
+        end();
+        if (shouldCommit()) {
+            this.topic = topic;
+            this.version = version;
+            this.detail = detail;
+            commit();
+        }
+    }
+
+    public void finish() {
+        finish(null, 0, null);
+    }
+}
@@ -0,0 +1,561 @@
+package com.sdt.peers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MessageBus} sobre ligações TCP persistentes e não bloqueantes (NIO), em estrela: o
+ * processo do líder escuta ({@code bus.tcp.port}) e cada processo de peers abre uma ligação para
+ * ele ({@code bus.tcp.leader=host:porta}). O líder entrega cada mensagem aos subscritores locais
+ * e reencaminha-a às ligações que subscreveram o tópico, exceto à de origem; quem publica recebe
+ * a sua própria mensagem localmente, como no pubsub. O IPFS continua a guardar o conteúdo.
+ *
+ * O hub é fixo: se o processo de {@code bus.tcp.leader} falhar, os restantes deixam de comunicar
+ * até ele voltar. Por isso não suporta a eleição do líder (leader.election.enabled é recusado
+ * com este transporte, ver {@link LeaderElection}).
+ *
+ * Tramas: comprimento (int32) seguido de tipo (1 byte), tópico (uint16 + UTF-8) e, nas mensagens,
+ * o JSON em UTF-8. Cada ligação tem uma fila de saída FIFO escrita pela thread de I/O com escritas
+ * agrupadas (várias tramas por write), o que mantém a ordem por ligação; cada subscritor local
+ * trata as mensagens numa thread própria, uma de cada vez.
+ *
+ * Propriedades (-D):
+ *   bus.transport=ipfs|tcp          (ver {@link MessageBus#fromSystemProperties()})
+ *   bus.tcp.port=4100               porta onde o líder escuta
+ *   bus.tcp.leader=host:porta       nos peers: endereço do líder (ausente = este processo é o líder)
+ *   bus.tcp.reconnect.ms=1000       espera entre tentativas de ligação ao líder
+ *   bus.tcp.max.frame=67108864      trama máxima aceite
+ *   bus.tcp.max.queued=67108864     bytes por enviar numa ligação antes de a fechar (recetor parado)
+ */
+public class TcpBus implements MessageBus {
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte UNSUBSCRIBE = 2;
+    private static final byte MESSAGE = 3;
+    private static final int MAX_WRITE_BATCH = 64;
+
+    private static TcpBus shared;
+
+    private final InetSocketAddress leaderAddress; // null no processo do líder
+    private final int maxFrame;
+    private final long maxQueued;
+    private final long reconnectMs;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread ioThread;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private final Map<String, List<LocalSubscriber>> subscribers = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    // trabalho para a thread de I/O (registar interesse em escrita, fechar ligações)
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile Connection upstream;
+    private long reconnectAt;
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong writeCalls = new AtomicLong();
+
+    /**
+     * Barramento partilhado por todos os shards e peers do processo, configurado pelas propriedades.
+     */
+    public static synchronized TcpBus shared() {
+        if (shared == null) {
+            try {
+                String leader = System.getProperty("bus.tcp.leader");
+                if (leader == null || leader.isBlank()) {
+                    shared = listen(Integer.parseInt(System.getProperty("bus.tcp.port", "4100")));
+                } else {
+                    int colon = leader.lastIndexOf(':');
+                    shared = connect(new InetSocketAddress(leader.substring(0, colon),
+                            Integer.parseInt(leader.substring(colon + 1))));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("TcpBus: failed to start: " + e.getMessage(), e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Barramento do líder, a escutar em {@code port} (0 = porta efémera).
+     */
+    public static TcpBus listen(int port) throws IOException {
+        return new TcpBus(null, port);
+    }
+
+    /**
+     * Barramento de um processo de peers, ligado ao líder em {@code leader}.
+     */
+    public static TcpBus connect(InetSocketAddress leader) throws IOException {
+        return new TcpBus(leader, -1);
+    }
+
+    private TcpBus(InetSocketAddress leaderAddress, int port) throws IOException {
+        this.leaderAddress = leaderAddress;
+        this.maxFrame = Integer.parseInt(System.getProperty("bus.tcp.max.frame", String.valueOf(64 * 1024 * 1024)));
+        this.maxQueued = Long.parseLong(System.getProperty("bus.tcp.max.queued", String.valueOf(64L * 1024 * 1024)));
+        this.reconnectMs = Long.parseLong(System.getProperty("bus.tcp.reconnect.ms", "1000"));
+        this.selector = Selector.open();
+        if (leaderAddress == null) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("TcpBus listening on " + server.getLocalAddress());
+        } else {
+            server = null;
+        }
+        this.ioThread = new Thread(this::ioLoop, "tcp-bus-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Porta onde o líder escuta (útil com porta efémera), ou -1 num processo de peers.
+     */
+    public int getPort() {
+        try {
+            return server == null ? -1 : ((InetSocketAddress) server.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void publish(String topic, String sender, String payloadJson) throws Exception {
+        byte[] frame = frame(MESSAGE, topic, payloadJson.getBytes(StandardCharsets.UTF_8));
+        deliverLocal(topic, payloadJson);
+        if (leaderAddress == null) {
+            forward(topic, frame, null);
+        } else {
+            Connection connection = upstream;
+            if (connection == null) {
+                throw new IOException("TcpBus: not connected to leader " + leaderAddress);
+            }
+            connection.send(frame);
+        }
+    }
+
+    @Override
+    public Subscription subscribe(String topic, String subscriber, MessageHandler handler) {
+        LocalSubscriber local = new LocalSubscriber(subscriber, handler);
+        List<LocalSubscriber> list = subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>());
+        boolean first = list.isEmpty();
+        list.add(local);
+        if (leaderAddress == null) {
+            local.subscribed();
+        } else {
+            Connection connection = upstream;
+            if (connection != null) {
+                if (first) {
+                    connection.send(frame(SUBSCRIBE, topic, null));
+                }
+                local.subscribed();
+            }
+            // sem ligação: a subscrição é enviada (e notificada) quando ligar
+        }
+        return () -> {
+            list.remove(local);
+            local.executor.shutdownNow();
+            Connection connection = upstream;
+            if (list.isEmpty() && connection != null) {
+                connection.send(frame(UNSUBSCRIBE, topic, null));
+            }
+        };
+    }
+
+    public void close() {
+        running.set(false);
+        selector.wakeup();
+        try {
+            ioThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("role", leaderAddress == null ? "leader" : "peer");
+        stats.put("connections", leaderAddress == null ? connections.size() : upstream != null ? 1 : 0);
+        stats.put("framesSent", framesSent.get());
+        stats.put("framesReceived", framesReceived.get());
+        stats.put("writeCalls", writeCalls.get());
+        return stats;
+    }
+
+    // ---------------------------------------------------------------- entrega
+
+    private void deliverLocal(String topic, String payloadJson) {
+        List<LocalSubscriber> list = subscribers.get(topic);
+        if (list == null) return;
+        for (LocalSubscriber local : list) {
+            local.deliver(payloadJson);
+        }
+    }
+
+    /**
+     * No líder: envia a trama às ligações que subscreveram o tópico, exceto à de origem.
+     */
+    private void forward(String topic, byte[] frame, Connection origin) {
+        for (Connection connection : connections) {
+            if (connection != origin && connection.topics.contains(topic)) {
+                connection.send(frame);
+            }
+        }
+    }
+
+    private void onFrame(Connection connection, ByteBuffer frame) {
+        framesReceived.incrementAndGet();
+        byte type = frame.get();
+        int topicLength = frame.getShort() & 0xFFFF;
+        String topic = new String(frame.array(), frame.arrayOffset() + frame.position(), topicLength, StandardCharsets.UTF_8);
+        frame.position(frame.position() + topicLength);
+        switch (type) {
+            case SUBSCRIBE:
+                connection.topics.add(topic);
+                break;
+            case UNSUBSCRIBE:
+                connection.topics.remove(topic);
+                break;
+            case MESSAGE:
+                String payload = new String(frame.array(), frame.arrayOffset() + frame.position(),
+                        frame.remaining(), StandardCharsets.UTF_8);
+                deliverLocal(topic, payload);
+                if (leaderAddress == null) {
+                    // a trama é reenviada tal como chegou (com o prefixo de comprimento)
+                    byte[] copy = new byte[4 + frame.limit()];
+                    ByteBuffer.wrap(copy).putInt(frame.limit()).put(frame.array(), frame.arrayOffset(), frame.limit());
+                    forward(topic, copy, connection);
+                }
+                break;
+            default:
+                System.err.println("TcpBus: unknown frame type " + type + " from " + connection.label);
+        }
+    }
+
+    private static byte[] frame(byte type, String topic, byte[] payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 2 + topicBytes.length + (payload == null ? 0 : payload.length);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put(type).putShort((short) topicBytes.length).put(topicBytes);
+        if (payload != null) {
+            buffer.put(payload);
+        }
+        return buffer.array();
+    }
+
+    // ---------------------------------------------------------------- thread de I/O
+
+    private void ioLoop() {
+        if (leaderAddress != null) {
+            startConnect();
+        }
+        while (running.get()) {
+            try {
+                long timeout = 0;
+                if (leaderAddress != null && upstream == null && reconnectAt > 0) {
+                    timeout = Math.max(1, reconnectAt - System.currentTimeMillis());
+                }
+                selector.select(timeout);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handleKey(key);
+                }
+                if (reconnectAt > 0 && System.currentTimeMillis() >= reconnectAt) {
+                    reconnectAt = 0;
+                    startConnect();
+                }
+            } catch (Exception e) {
+                System.err.println("TcpBus: I/O loop error: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void handleKey(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (!key.isValid()) return;
+            if (key.isAcceptable()) {
+                SocketChannel channel = server.accept();
+                if (channel == null) return;
+                Connection accepted = register(channel, SelectionKey.OP_READ);
+                connections.add(accepted);
+                System.out.println("TcpBus: peer connected from " + accepted.label);
+                return;
+            }
+            if (key.isConnectable()) {
+                ((SocketChannel) key.channel()).finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                onConnected(connection);
+                return;
+            }
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (Exception e) {
+            if (connection != null) {
+                drop(connection, e.getMessage());
+            } else {
+                closeQuietly(key);
+            }
+        }
+    }
+
+    private Connection register(SocketChannel channel, int ops) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, ops, connection);
+        return connection;
+    }
+
+    private void startConnect() {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            Connection connection = register(channel, SelectionKey.OP_CONNECT);
+            connection.label = leaderAddress.toString();
+            if (channel.connect(leaderAddress)) {
+                connection.key.interestOps(SelectionKey.OP_READ);
+                onConnected(connection);
+            }
+        } catch (IOException e) {
+            System.err.println("TcpBus: connect to " + leaderAddress + " failed: " + e.getMessage());
+            reconnectAt = System.currentTimeMillis() + reconnectMs;
+        }
+    }
+
+    /**
+     * Ligação ao líder estabelecida: reenvia as subscrições e notifica os subscritores pendentes.
+     */
+    private void onConnected(Connection connection) {
+        System.out.println("TcpBus: connected to leader " + leaderAddress);
+        for (Map.Entry<String, List<LocalSubscriber>> entry : subscribers.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                connection.send(frame(SUBSCRIBE, entry.getKey(), null));
+            }
+        }
+        upstream = connection;
+        for (List<LocalSubscriber> list : subscribers.values()) {
+            for (LocalSubscriber local : list) {
+                local.subscribed();
+            }
+        }
+    }
+
+    private void drop(Connection connection, String reason) {
+        if (connection.closed) return;
+        connection.closed = true;
+        closeQuietly(connection.key);
+        if (connections.remove(connection)) {
+            System.err.println("TcpBus: peer " + connection.label + " disconnected" + (reason != null ? ": " + reason : ""));
+        }
+        if (leaderAddress != null) {
+            if (upstream == connection) {
+                upstream = null;
+            }
+            System.err.println("TcpBus: lost connection to leader " + leaderAddress +
+                               (reason != null ? ": " + reason : "") + ", reconnecting in " + reconnectMs + "ms");
+            reconnectAt = System.currentTimeMillis() + reconnectMs;
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        if (key == null) return;
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Uma ligação TCP: fila de saída FIFO e buffer de leitura com as tramas incompletas.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Set<String> topics = ConcurrentHashMap.newKeySet();
+        private final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        private SelectionKey key;
+        private String label;
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            try {
+                this.label = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                this.label = "?";
+            }
+        }
+
+        /**
+         * Põe a trama na fila; a thread de I/O escreve-a (junto com as que entretanto chegarem).
+         */
+        void send(byte[] frame) {
+            if (closed) return;
+            if (queuedBytes.addAndGet(frame.length) > maxQueued) {
+                tasks.add(() -> drop(this, "send queue over " + maxQueued + " bytes"));
+                selector.wakeup();
+                return;
+            }
+            outbox.add(ByteBuffer.wrap(frame));
+            framesSent.incrementAndGet();
+            if (writeScheduled.compareAndSet(false, true)) {
+                if (Thread.currentThread() == ioThread) {
+                    enableWrite();
+                } else {
+                    tasks.add(this::enableWrite);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        private void enableWrite() {
+            if (!closed && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Escreve o que estiver na fila, em lotes de até {@value #MAX_WRITE_BATCH} tramas por write.
+         */
+        void flush() throws IOException {
+            List<ByteBuffer> batch = new ArrayList<>(MAX_WRITE_BATCH);
+            while (true) {
+                batch.clear();
+                for (ByteBuffer buffer : outbox) {
+                    batch.add(buffer);
+                    if (batch.size() == MAX_WRITE_BATCH) break;
+                }
+                if (batch.isEmpty()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    writeScheduled.set(false);
+                    // uma trama posta na fila entre o fim do lote e o reset do flag
+                    if (!outbox.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+                        enableWrite();
+                    }
+                    return;
+                }
+                long written = channel.write(batch.toArray(new ByteBuffer[0]));
+                writeCalls.incrementAndGet();
+                queuedBytes.addAndGet(-written);
+                while (!outbox.isEmpty() && !outbox.peek().hasRemaining()) {
+                    outbox.poll();
+                }
+                if (batch.get(batch.size() - 1).hasRemaining()) {
+                    return; // buffer do socket cheio: continua quando voltar a ser possível escrever
+                }
+            }
+        }
+
+        void read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                drop(this, null);
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length <= 3 || length > maxFrame) {
+                    throw new IOException("invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                        bigger.put(in);
+                        in = bigger;
+                        return;
+                    }
+                    break;
+                }
+                in.position(in.position() + 4);
+                ByteBuffer frame = ByteBuffer.wrap(in.array(), in.position(), length).slice();
+                in.position(in.position() + length);
+                onFrame(this, frame);
+            }
+            in.compact();
+        }
+    }
+
+    /**
+     * Subscritor local: as mensagens são tratadas em ordem numa thread própria.
+     */
+    private static final class LocalSubscriber {
+        private final String name;
+        private final MessageHandler handler;
+        private final ExecutorService executor;
+        private final AtomicBoolean notified = new AtomicBoolean();
+
+        LocalSubscriber(String name, MessageHandler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "tcp-bus-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void subscribed() {
+            if (notified.compareAndSet(false, true)) {
+                executor.execute(handler::onSubscribed);
+            }
+        }
+
+        void deliver(String payloadJson) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        handler.onMessage(payloadJson);
+                    } catch (Exception e) {
+                        System.err.println(name + " failed to handle message: " + e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // subscrição fechada
+            }
+        }
+    }
+}
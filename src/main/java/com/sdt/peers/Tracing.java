@@ -0,0 +1,85 @@
+package com.sdt.peers;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Identificador de traço (trace id) de um upload, para correlacionar os logs e os eventos JFR
+ * do líder e dos peers.
+ *
+ * O id é gerado no LeaderController e fica associado à thread que trata o pedido ({@link #open});
+ * o LeaderCoordinator copia-o para todas as mensagens do 2PC ("traceId") e os peers devolvem-no
+ * nas respostas. Cada etapa regista um {@link StageEvent} e cada mensagem recebida um
+ * {@link MessageEvent}; com uma gravação JFR ativa, por exemplo
+ *
+ *   -XX:StartFlightRecording=filename=sdt.jfr
+ *   jfr print --events com.sdt.Stage,com.sdt.Message sdt.jfr
+ *
+ * filtrar pelo traceId dá o caminho crítico de um commit lento. Sem gravação os eventos não
+ * fazem nada (só a verificação de isEnabled()).
+ */
+public final class Tracing {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private Tracing() {
+    }
+
+    /**
+     * Novo id aleatório (16 dígitos hexadecimais).
+     */
+    public static String newTraceId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @return o id da thread atual, ou null fora de um pedido
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Associa o id à thread atual até ao close() (que repõe o anterior).
+     */
+    public static Scope open(String traceId) {
+        String previous = CURRENT.get();
+        CURRENT.set(traceId);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Inicia o evento de uma etapa no nó {@code node}, com o id da thread atual.
+     */
+    public static StageEvent stage(String stage, String node) {
+        return stage(stage, node, CURRENT.get());
+    }
+
+    public static StageEvent stage(String stage, String node, String traceId) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.traceId = traceId;
+            event.stage = stage;
+            event.node = node;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Prefixo para as linhas de log de um pedido com traço ("" sem traço).
+     */
+    public static String tag(String traceId) {
+        return traceId != null ? "[trace " + traceId + "] " : "";
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,393 @@
+package com.sdt.peers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Histórico de versões de um vetor de CIDs (append-only: a versão v acrescenta CIDs ao fim),
+ * em dois níveis: as alterações das versões mais recentes ficam em memória e as mais antigas
+ * são compactadas em segmentos imutáveis no disco, lidos só quando um pedido de histórico
+ * (ex. /versions desde o início ou o vetor numa versão antiga) lá chega.
+ *
+ * Cada segmento é um ficheiro com as entradas (versão, CID) por ordem e um índice esparso em
+ * memória (uma posição a cada {@value #INDEX_STRIDE} entradas) para começar a leitura perto da
+ * versão pedida. A memória usada fica limitada às versões quentes mais o índice dos segmentos,
+ * por mais versões que o shard tenha.
+ *
+ * O histórico não é um log de recuperação: o estado do shard começa sempre vazio, pelo que os
+ * segmentos de uma execução anterior são apagados ao abrir.
+ *
+ * Propriedades (-D):
+ *   history.hot.versions=1000       versões mantidas em memória
+ *   history.segment.versions=1000   versões por segmento (compacta quando as quentes excedem hot + segment)
+ */
+public class VersionHistory {
+
+    private static final int MAGIC = 0x53445448; // "SDTH"
+    private static final int INDEX_STRIDE = 128;
+
+    /**
+     * Uma alteração: o CID acrescentado ao vetor na versão.
+     */
+    public static final class Change {
+        private final int version;
+        private final String cid;
+
+        public Change(int version, String cid) {
+            this.version = version;
+            this.cid = cid;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getCid() {
+            return cid;
+        }
+    }
+
+    /**
+     * Resultado de uma leitura: as alterações (sem partir versões) e se ficaram mais por ler.
+     */
+    public static final class Page {
+        private final List<Change> changes;
+        private final boolean hasMore;
+
+        Page(List<Change> changes, boolean hasMore) {
+            this.changes = changes;
+            this.hasMore = hasMore;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        public List<String> getCids() {
+            List<String> cids = new ArrayList<>(changes.size());
+            for (Change change : changes) {
+                cids.add(change.cid);
+            }
+            return cids;
+        }
+    }
+
+    /**
+     * Segmento imutável no disco com as versões [firstVersion, lastVersion].
+     */
+    private static final class Segment {
+        final Path file;
+        final int firstVersion;
+        final int lastVersion;
+        final int count;
+        final int[] indexVersions;
+        final long[] indexOffsets;
+
+        Segment(Path file, int firstVersion, int lastVersion, int count, int[] indexVersions, long[] indexOffsets) {
+            this.file = file;
+            this.firstVersion = firstVersion;
+            this.lastVersion = lastVersion;
+            this.count = count;
+            this.indexVersions = indexVersions;
+            this.indexOffsets = indexOffsets;
+        }
+
+        /**
+         * Passa ao coletor as entradas com versão > since, a partir do ponto do índice mais próximo.
+         */
+        void scan(int since, Collector collector) throws IOException {
+            int point = 0;
+            int lo = 0, hi = indexVersions.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexVersions[mid] <= since) {
+                    point = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            int remaining = count - point * INDEX_STRIDE;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.position(indexOffsets[point]);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+                for (int i = 0; i < remaining; i++) {
+                    int version = in.readInt();
+                    String cid = in.readUTF();
+                    if (version > since && !collector.accept(new Change(version, cid))) return;
+                }
+            } catch (EOFException e) {
+                throw new IOException("truncated history segment " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Junta alterações até ao limite, terminando sempre a versão em curso.
+     */
+    private static final class Collector {
+        final int since;
+        final int upTo;
+        final int limit;
+        final List<Change> changes = new ArrayList<>();
+        boolean hasMore;
+        boolean done;
+
+        Collector(int since, int upTo, int limit) {
+            this.since = since;
+            this.upTo = upTo;
+            this.limit = limit;
+        }
+
+        /**
+         * @return false quando não quer mais entradas
+         */
+        boolean accept(Change change) {
+            if (done) return false;
+            if (change.version <= since) return true;
+            if (change.version > upTo) {
+                done = true;
+                return false;
+            }
+            if (changes.size() >= limit && change.version != changes.get(changes.size() - 1).version) {
+                hasMore = true;
+                done = true;
+                return false;
+            }
+            changes.add(change);
+            return true;
+        }
+    }
+
+    private final Path dir;
+    private final int hotVersions;
+    private final int segmentVersions;
+    // protegidos pelo monitor do histórico; os segmentos são imutáveis e lidos fora dele
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Change> hot = new ArrayList<>();
+    private int coldCount;
+    private int lastVersion;
+    private boolean compacting;
+
+    public VersionHistory(Path dir) throws IOException {
+        this(dir,
+             Integer.parseInt(System.getProperty("history.hot.versions", "1000")),
+             Integer.parseInt(System.getProperty("history.segment.versions", "1000")));
+    }
+
+    public VersionHistory(Path dir, int hotVersions, int segmentVersions) throws IOException {
+        this.dir = dir;
+        this.hotVersions = Math.max(1, hotVersions);
+        this.segmentVersions = Math.max(1, segmentVersions);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".hist")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acrescenta os CIDs da versão {@code version} (maior do que a última). Se as versões em
+     * memória passarem do limite, as mais antigas são escritas num segmento novo; se a escrita
+     * falhar ficam em memória e a compactação volta a ser tentada no append seguinte.
+     */
+    public void append(int version, List<String> cids) {
+        List<Change> toCompact = null;
+        synchronized (this) {
+            if (version <= lastVersion) {
+                throw new IllegalArgumentException("version " + version + " is not after " + lastVersion);
+            }
+            for (String cid : cids) {
+                hot.add(new Change(version, cid));
+            }
+            lastVersion = version;
+            if (!compacting && !hot.isEmpty() && lastVersion - hot.get(0).version + 1 >= hotVersions + segmentVersions) {
+                int cut = firstHotAfter(hot.get(0).version + segmentVersions - 1);
+                if (cut > 0) {
+                    toCompact = new ArrayList<>(hot.subList(0, cut));
+                    compacting = true;
+                }
+            }
+        }
+        if (toCompact != null) {
+            try {
+                compact(toCompact);
+            } catch (IOException e) {
+                System.err.println("VersionHistory " + dir + ": compaction failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Escreve as entradas num segmento (fora do monitor: entretanto as leituras continuam a encontrá-las em memória)
+     * e só depois as tira da memória.
+     */
+    private void compact(List<Change> changes) throws IOException {
+        int first = changes.get(0).version;
+        int last = changes.get(changes.size() - 1).version;
+        Path file = dir.resolve("segment-" + first + "-" + last + ".hist");
+        int points = (changes.size() + INDEX_STRIDE - 1) / INDEX_STRIDE;
+        int[] indexVersions = new int[points];
+        long[] indexOffsets = new long[points];
+        try {
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            try (CountingOutputStream counting = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024));
+                 DataOutputStream out = new DataOutputStream(counting)) {
+                out.writeInt(MAGIC);
+                out.writeInt(changes.size());
+                for (int i = 0; i < changes.size(); i++) {
+                    Change change = changes.get(i);
+                    if (i % INDEX_STRIDE == 0) {
+                        indexVersions[i / INDEX_STRIDE] = change.version;
+                        indexOffsets[i / INDEX_STRIDE] = counting.count;
+                    }
+                    out.writeInt(change.version);
+                    out.writeUTF(change.cid);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            Segment segment = new Segment(file, first, last, changes.size(), indexVersions, indexOffsets);
+            synchronized (this) {
+                segments.add(segment);
+                hot.subList(0, changes.size()).clear();
+                coldCount += changes.size();
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Alterações com versão em (since, upTo], no máximo {@code limit} mais o resto da última
+     * versão (uma versão nunca fica partida entre páginas).
+     */
+    public Page read(int since, int upTo, int limit) throws IOException {
+        Collector collector = new Collector(since, upTo, limit);
+        List<Segment> cold;
+        synchronized (this) {
+            cold = new ArrayList<>(segments);
+        }
+        int scanned = scanSegments(cold, 0, collector);
+        synchronized (this) {
+            // segmentos compactados entretanto (as entradas já não estão em memória); raro
+            if (!collector.done && segments.size() > scanned) {
+                scanSegments(segments, scanned, collector);
+            }
+            for (int i = firstHotAfter(since); i < hot.size() && !collector.done; i++) {
+                collector.accept(hot.get(i));
+            }
+        }
+        return new Page(collector.changes, collector.hasMore);
+    }
+
+    /**
+     * @return número de segmentos percorridos
+     */
+    private static int scanSegments(List<Segment> list, int from, Collector collector) throws IOException {
+        int i = from;
+        for (; i < list.size() && !collector.done; i++) {
+            Segment segment = list.get(i);
+            if (segment.lastVersion <= collector.since) continue;
+            if (segment.firstVersion > collector.upTo) {
+                collector.done = true;
+                break;
+            }
+            segment.scan(collector.since, collector);
+        }
+        return list.size();
+    }
+
+    /**
+     * CIDs acrescentados depois de {@code since} (normalmente só toca nas versões em memória).
+     */
+    public List<String> cidsAfter(int since) throws IOException {
+        return read(since, Integer.MAX_VALUE, Integer.MAX_VALUE).getCids();
+    }
+
+    /**
+     * Vetor completo na versão {@code version}.
+     */
+    public List<String> vectorAt(int version) throws IOException {
+        return read(0, version, Integer.MAX_VALUE).getCids();
+    }
+
+    /**
+     * Índice em memória da primeira entrada com versão > since.
+     */
+    private int firstHotAfter(int since) {
+        int lo = 0, hi = hot.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hot.get(mid).version <= since) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Número total de CIDs no vetor (memória + disco).
+     */
+    public synchronized int size() {
+        return coldCount + hot.size();
+    }
+
+    public synchronized int getLastVersion() {
+        return lastVersion;
+    }
+
+    public synchronized int getHotEntries() {
+        return hot.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
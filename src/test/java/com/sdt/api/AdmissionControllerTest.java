@@ -0,0 +1,124 @@
+package com.sdt.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    private static final String[] PROPERTIES = {
+            "admission.initial.limit", "admission.min.limit", "admission.max.limit",
+            "admission.target.latency.ms", "admission.backoff", "admission.bulk.share",
+            "admission.bulk.max.streams"};
+
+    @AfterEach
+    void clearProperties() {
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    private static double limit(AdmissionController admission) {
+        return (Double) admission.getStats().get("limit");
+    }
+
+    @Test
+    void rejectsInteractiveUploadsAtTheLimit() {
+        System.setProperty("admission.initial.limit", "2");
+        AdmissionController admission = new AdmissionController();
+
+        AdmissionController.Permit first = admission.tryAcquire();
+        AdmissionController.Permit second = admission.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(admission.tryAcquire());
+        assertEquals(1L, admission.getStats().get("rejected"));
+
+        first.close();
+        first.close(); // fechar duas vezes não liberta outra vaga
+        assertEquals(1, admission.getInFlight());
+        assertNotNull(admission.tryAcquire());
+    }
+
+    @Test
+    void failureDecreasesLimitOncePerWindow() {
+        System.setProperty("admission.initial.limit", "8");
+        System.setProperty("admission.backoff", "0.5");
+        AdmissionController admission = new AdmissionController();
+
+        List<AdmissionController.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            permits.add(admission.tryAcquire());
+        }
+        for (AdmissionController.Permit permit : permits) {
+            permit.failed();
+            permit.close();
+        }
+        // as falhas da mesma rajada contam como uma redução (janela = admission.target.latency.ms)
+        assertEquals(4.0, limit(admission));
+        assertEquals(3L, admission.getStats().get("failed"));
+    }
+
+    @Test
+    void decreaseStopsAtMinimumLimit() {
+        System.setProperty("admission.initial.limit", "4");
+        System.setProperty("admission.min.limit", "2");
+        System.setProperty("admission.backoff", "0.5");
+        System.setProperty("admission.target.latency.ms", "0");
+        AdmissionController admission = new AdmissionController();
+
+        for (int i = 0; i < 3; i++) {
+            AdmissionController.Permit permit = admission.tryAcquire();
+            permit.failed();
+            permit.close();
+        }
+        assertEquals(2.0, limit(admission));
+    }
+
+    @Test
+    void fastUploadsIncreaseLimitAdditively() {
+        System.setProperty("admission.initial.limit", "2");
+        System.setProperty("admission.max.limit", "3");
+        AdmissionController admission = new AdmissionController();
+
+        // cada janela com o limite em uso soma 1/limite: 2 -> 2.5 -> 2.9 -> 3.24 (máximo 3)
+        for (int round = 0; round < 5; round++) {
+            AdmissionController.Permit first = admission.tryAcquire();
+            AdmissionController.Permit second = admission.tryAcquire();
+            first.close();
+            second.close();
+        }
+        assertEquals(3.0, limit(admission));
+    }
+
+    @Test
+    void bulkUsesOnlyItsShareOfTheLimit() throws InterruptedException {
+        System.setProperty("admission.initial.limit", "4");
+        System.setProperty("admission.bulk.share", "0.5");
+        System.setProperty("admission.bulk.max.streams", "1");
+        AdmissionController admission = new AdmissionController();
+
+        assertTrue(admission.tryStartBulkStream());
+        assertFalse(admission.tryStartBulkStream());
+
+        admission.acquireBulk();
+        admission.acquireBulk();
+        assertEquals(2, admission.getStats().get("bulkLimit"));
+
+        // os uploads interativos têm sempre a outra metade
+        assertNotNull(admission.tryAcquire());
+        assertNotNull(admission.tryAcquire());
+        assertNull(admission.tryAcquire());
+
+        admission.endBulkStream();
+        assertTrue(admission.tryStartBulkStream());
+    }
+}
@@ -0,0 +1,65 @@
+package com.sdt.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CidCalculatorTest {
+
+    @Test
+    void emptyFile() {
+        assertEquals("QmbFMke1KXqnYyBBWxB74N4c5SBnJMVAiMNRcGu6x1AwQH", cidOf(new byte[0]));
+    }
+
+    @Test
+    void helloWorld() {
+        assertEquals("Qmf412jQZiuVUtdgnB36FXFX7xg5V6KEbSJ4dpQuhkLyfD",
+                     cidOf("hello world".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void multiChunkCidDoesNotDependOnWriteSizes() {
+        // 3 chunks e meio: folhas e um nó raiz
+        byte[] data = new byte[3 * 256 * 1024 + 100_000];
+        new Random(7).nextBytes(data);
+
+        CidCalculator byteByByte = new CidCalculator();
+        for (byte b : data) {
+            byteByByte.write(b);
+        }
+        CidCalculator odd = new CidCalculator();
+        for (int off = 0; off < data.length; off += 9973) {
+            odd.write(data, off, Math.min(9973, data.length - off));
+        }
+
+        String cid = cidOf(data);
+        assertTrue(cid.startsWith("Qm"));
+        assertEquals(cid, byteByByte.getCid());
+        assertEquals(cid, odd.getCid());
+
+        data[data.length - 1] ^= 1;
+        assertNotEquals(cid, cidOf(data));
+    }
+
+    @Test
+    void writingAfterTheCidIsComputedFails() {
+        CidCalculator calculator = new CidCalculator();
+        calculator.write(1);
+        String cid = calculator.getCid();
+
+        assertEquals(cid, calculator.getCid());
+        assertThrows(IllegalStateException.class, () -> calculator.write(2));
+    }
+
+    private static String cidOf(byte[] data) {
+        CidCalculator calculator = new CidCalculator();
+        calculator.write(data, 0, data.length);
+        return calculator.getCid();
+    }
+}
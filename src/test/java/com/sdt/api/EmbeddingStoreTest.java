@@ -0,0 +1,100 @@
+package com.sdt.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EmbeddingStoreTest {
+
+    private static final int DIM = 4;
+
+    @TempDir
+    Path dir;
+
+    private static float[] vector(int i) {
+        return new float[]{i, i + 1, i + 2, i + 3};
+    }
+
+    private static void fill(EmbeddingStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            store.append("cid" + i, i, vector(i));
+        }
+    }
+
+    @Test
+    void reopensRowsAcrossSegments() throws IOException {
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 3)) {
+            fill(store, 0, 7);
+            store.append("cid1", 9, vector(100));
+        }
+
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 3)) {
+            assertEquals(7, store.size());
+            assertArrayEquals(vector(100), store.get("cid1"));
+            assertEquals(9, store.getVersion("cid1"));
+            assertArrayEquals(vector(6), store.get("cid6"));
+        }
+    }
+
+    @Test
+    void segmentsKeepTheirCapacityWhenRowsPerSegmentShrinks() throws IOException {
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 4)) {
+            fill(store, 0, 6);
+        }
+
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 2)) {
+            assertEquals(6, store.size());
+            // o segmento 1 ainda tem 2 linhas livres
+            fill(store, 6, 9);
+        }
+
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 2)) {
+            assertEquals(9, store.size());
+            for (int i = 0; i < 9; i++) {
+                assertArrayEquals(vector(i), store.get("cid" + i));
+            }
+        }
+    }
+
+    @Test
+    void segmentsKeepTheirCapacityWhenRowsPerSegmentGrows() throws IOException {
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 2)) {
+            fill(store, 0, 5);
+        }
+
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 8)) {
+            assertEquals(5, store.size());
+            fill(store, 5, 10);
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(vector(i), store.get("cid" + i));
+            }
+        }
+    }
+
+    @Test
+    void discardsTornRow() throws IOException {
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 4)) {
+            fill(store, 0, 3);
+        }
+        // estraga o último float da linha 2 do segmento 0
+        int stride = 4 + 4 + 64 + DIM * Float.BYTES + 4;
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("segment-00000.vec").toFile(), "rw")) {
+            file.seek(16 + 2L * stride + stride - 8);
+            file.writeInt(0x12345678);
+        }
+
+        try (EmbeddingStore store = new EmbeddingStore(dir, DIM, 4)) {
+            assertEquals(2, store.size());
+            assertFalse(store.contains("cid2"));
+            assertNull(store.get("cid2"));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.sdt.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LexicalIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void postingListEncodesDeltasAndSkipBlocks() {
+        LexicalIndex.PostingList list = new LexicalIndex.PostingList();
+        int postings = 3 * LexicalIndex.SKIP_INTERVAL + 10;
+        for (int i = 0; i < postings; i++) {
+            // deltas de 1 e 2 bytes em varint
+            list.add(i * 150, i % 5 + 1);
+        }
+
+        assertEquals(postings, list.size);
+        assertEquals((postings - 1) * 150, list.lastDoc);
+        assertEquals(5, list.maxTf);
+
+        int offset = 0;
+        int doc = -1;
+        for (int i = 0; i < postings; i++) {
+            if (i % LexicalIndex.SKIP_INTERVAL == 0) {
+                int block = i / LexicalIndex.SKIP_INTERVAL;
+                assertEquals(offset, list.skipOffsets[block]);
+                assertEquals(doc, list.skipPrevDoc[block]);
+            }
+            int[] delta = readVarInt(list.data, offset);
+            int[] tf = readVarInt(list.data, delta[1]);
+            doc += delta[0];
+            offset = tf[1];
+            assertEquals(i * 150, doc);
+            assertEquals(i % 5 + 1, tf[0]);
+        }
+        assertEquals(list.bytes, offset);
+    }
+
+    /**
+     * @return {valor, posição a seguir}
+     */
+    private static int[] readVarInt(byte[] data, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return new int[]{value, offset};
+    }
+
+    @Test
+    void tokenizesCompoundIdentifiers() {
+        assertEquals(List.of("modelo", "xj-900", "xj", "900"), LexicalIndex.tokenize("Modelo XJ-900"));
+    }
+
+    @Test
+    void rareTermsRankFirstAcrossSkipBlocks() throws IOException {
+        try (LexicalIndex index = new LexicalIndex(dir.resolve("lexical.log"))) {
+            // "comum" em todos os documentos (várias skip blocks); "raro" só em três
+            for (int i = 0; i < 300; i++) {
+                String text = i == 7 || i == 150 || i == 299 ? "comum raro texto" : "comum texto " + i;
+                index.addDocument("cid" + i, text);
+            }
+
+            List<String> cids = cidsOf(index.search("comum raro", 3));
+
+            assertEquals(3, cids.size());
+            assertTrue(cids.containsAll(List.of("cid7", "cid150", "cid299")));
+        }
+    }
+
+    @Test
+    void replaysLogOnReopen() throws IOException {
+        Path log = dir.resolve("lexical.log");
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            index.addDocument("a", "relatório anual");
+            index.addDocument("b", "manual técnico");
+            index.addDocument("a", "repetido");
+        }
+
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            assertEquals(2, index.size());
+            assertEquals(List.of("b"), cidsOf(index.search("manual", 5)));
+        }
+    }
+
+    @Test
+    void truncatesRecordWithImpossibleLength() throws IOException {
+        Path log = dir.resolve("lexical.log");
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            index.addDocument("a", "relatório anual");
+        }
+        long good = Files.size(log);
+        Files.write(log, ByteBuffer.allocate(8).putInt(Integer.MAX_VALUE).putInt(0).array(), StandardOpenOption.APPEND);
+
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            assertEquals(1, index.size());
+        }
+        assertEquals(good, Files.size(log));
+    }
+
+    @Test
+    void dropsRecordWithBadChecksum() throws IOException {
+        Path log = dir.resolve("lexical.log");
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            index.addDocument("a", "relatório anual");
+            index.addDocument("b", "manual técnico");
+        }
+        long size = Files.size(log);
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+            file.seek(size - 1);
+            int last = file.read();
+            file.seek(size - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            assertEquals(1, index.size());
+            index.addDocument("c", "novo documento");
+        }
+        try (LexicalIndex index = new LexicalIndex(log)) {
+            assertEquals(2, index.size());
+            assertEquals(List.of("c"), cidsOf(index.search("novo", 5)));
+        }
+    }
+
+    private static List<String> cidsOf(List<SearchHit> hits) {
+        List<String> cids = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            cids.add(hit.getCid());
+        }
+        return cids;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sdt.peers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterMembershipTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void unknownClusterSizeIsNotConfigured() {
+        ClusterMembership membership = new ClusterMembership(1000, 0);
+        membership.onHeartbeat("peer-1");
+
+        assertFalse(membership.isConfigured());
+    }
+
+    @Test
+    void majorityBaseNeverDropsBelowConfiguredPeers() {
+        ClusterMembership membership = new ClusterMembership(1000, 3);
+        membership.onHeartbeat("peer-1");
+
+        Set<String> configuration = membership.snapshotConfiguration();
+        // um líder reiniciado que só ouviu um peer precisa de 2 votos
+        assertEquals(3, membership.quorumBase(configuration));
+        assertEquals(2, ClusterMembership.majorityOf(membership.quorumBase(configuration)));
+    }
+
+    @Test
+    void peerLeaveOnlyMarksThePeerDown() {
+        ClusterMembership membership = new ClusterMembership(60_000, 2);
+        membership.onHeartbeat("peer-1");
+        membership.onHeartbeat("peer-2");
+        membership.onHeartbeat("peer-3");
+
+        membership.onLeave("peer-3");
+
+        assertEquals(Set.of("peer-1", "peer-2", "peer-3"), membership.snapshotConfiguration());
+        assertFalse(membership.isAlive("peer-3"));
+
+        membership.removeMember("peer-3");
+        assertEquals(Set.of("peer-1", "peer-2"), membership.snapshotConfiguration());
+        membership.removeMember("peer-2");
+        assertEquals(2, membership.quorumBase(membership.snapshotConfiguration()));
+    }
+
+    @Test
+    void membersSurviveRestart() {
+        Path state = dir.resolve("members");
+        ClusterMembership before = new ClusterMembership(60_000, 0, state);
+        before.onHeartbeat("peer-1");
+        before.addMembers(List.of("peer-2", "peer-3"));
+
+        ClusterMembership after = new ClusterMembership(60_000, 0, state);
+
+        assertTrue(after.isConfigured());
+        assertEquals(Set.of("peer-1", "peer-2", "peer-3"), after.snapshotConfiguration());
+        assertFalse(after.isAlive("peer-1"));
+        // ainda sem heartbeats: a base é a configuração guardada
+        assertEquals(3, after.quorumBase(Set.of("peer-1")));
+    }
+}
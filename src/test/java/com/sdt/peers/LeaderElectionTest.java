@@ -0,0 +1,29 @@
+package com.sdt.peers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LeaderElectionTest {
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("leader.election.enabled");
+    }
+
+    @Test
+    void refusesElectionOverTcpHub() throws Exception {
+        System.setProperty("leader.election.enabled", "true");
+        TcpBus bus = TcpBus.listen(0);
+        try {
+            // sem failover do hub nenhuma instância em standby chegaria aos peers
+            assertThrows(IllegalStateException.class, () ->
+                    new LeaderElection(bus, "votes", List.of("votes"), new ClusterMembership(600, 3), () -> 0));
+        } finally {
+            bus.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.sdt.peers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerNodeTest {
+
+    private static final String TOPIC = "test-topic";
+    private static final String[] PROPERTIES = {"peer.history.dir", "peer.pending.ttl.ms", "peer.pending.max.bytes"};
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<PeerNode> peers = new ArrayList<>();
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Entrega as mensagens de forma síncrona e guarda o que o peer publica.
+     */
+    private static final class DirectBus implements MessageBus {
+        final List<String> published = new ArrayList<>();
+        MessageHandler handler;
+
+        @Override
+        public synchronized void publish(String topic, String sender, String payloadJson) {
+            published.add(payloadJson);
+        }
+
+        @Override
+        public Subscription subscribe(String topic, String subscriber, MessageHandler handler) {
+            this.handler = handler;
+            return () -> this.handler = null;
+        }
+
+        void deliver(String payloadJson) {
+            handler.onMessage(payloadJson);
+        }
+
+        synchronized List<String> published() {
+            return new ArrayList<>(published);
+        }
+    }
+
+    @AfterEach
+    void shutdown() {
+        for (PeerNode peer : peers) {
+            peer.shutdown();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    private PeerNode start(String name, DirectBus bus) {
+        System.setProperty("peer.history.dir", dir.toString());
+        PeerNode peer = new PeerNode(name, TOPIC, -1, bus);
+        peers.add(peer);
+        return peer;
+    }
+
+    private String prepare(int version, String cid, int dim) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", "doc_update_request");
+        root.put("version", version);
+        root.put("cid", cid);
+        root.set("embedding", mapper.valueToTree(new float[dim]));
+        return root.toString();
+    }
+
+    private String message(String type, int version) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", type);
+        root.put("version", version);
+        return root.toString();
+    }
+
+    private String voteRequest(int term, String candidate, int version) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("type", "vote_request");
+        root.put("term", term);
+        root.put("candidate", candidate);
+        root.put("version", version);
+        return root.toString();
+    }
+
+    private boolean granted(DirectBus bus) throws Exception {
+        return lastOfType(bus, "vote").path("granted").asBoolean();
+    }
+
+    private JsonNode lastOfType(DirectBus bus, String type) throws Exception {
+        JsonNode last = null;
+        for (String payload : bus.published()) {
+            JsonNode node = mapper.readTree(payload);
+            if (type.equals(node.path("type").asText())) {
+                last = node;
+            }
+        }
+        return last;
+    }
+
+    @Test
+    void abortDiscardsPreparedVersion() {
+        DirectBus bus = new DirectBus();
+        PeerNode peer = start("p-abort", bus);
+
+        bus.deliver(prepare(1, "cid1", 4));
+        assertEquals(1, peer.getPendingCount());
+        assertTrue(peer.getPendingBytes() > 0);
+
+        bus.deliver(message("doc_update_abort", 1));
+        assertEquals(0, peer.getPendingCount());
+        assertEquals(0, peer.getPendingBytes());
+        assertArrayEquals(new long[]{1, 0, 0}, peer.getPendingDiscards());
+
+        // o commit de uma versão abortada não tem nada a aplicar
+        bus.deliver(message("doc_update_commit", 1));
+        assertEquals(0, peer.getConfirmedVersion());
+    }
+
+    @Test
+    void preparedVersionExpiresAfterTtl() throws Exception {
+        System.setProperty("peer.pending.ttl.ms", "20");
+        DirectBus bus = new DirectBus();
+        PeerNode peer = start("p-ttl", bus);
+
+        bus.deliver(prepare(1, "cid1", 4));
+        assertEquals(1, peer.getPendingCount());
+        Thread.sleep(50);
+
+        // a nova tentativa da mesma versão expira primeiro a anterior
+        bus.deliver(prepare(1, "cid1", 4));
+        assertEquals(1, peer.getPendingCount());
+        assertArrayEquals(new long[]{0, 1, 0}, peer.getPendingDiscards());
+
+        bus.deliver(message("doc_update_commit", 1));
+        assertEquals(1, peer.getConfirmedVersion());
+        assertEquals(0, peer.getPendingBytes());
+    }
+
+    @Test
+    void rejectsVersionLargerThanPendingLimit() throws Exception {
+        System.setProperty("peer.pending.max.bytes", "1024");
+        DirectBus bus = new DirectBus();
+        PeerNode peer = start("p-limit", bus);
+
+        bus.deliver(prepare(1, "cid1", 512));
+        assertEquals(0, peer.getPendingCount());
+        JsonNode response = lastOfType(bus, "doc_update_prepare_response");
+        assertFalse(response.path("accepted").asBoolean(true));
+
+        bus.deliver(prepare(1, "cid1", 4));
+        assertEquals(1, peer.getPendingCount());
+        assertTrue(peer.getPendingBytes() <= 1024);
+    }
+
+    @Test
+    void votesOncePerTerm() throws Exception {
+        DirectBus bus = new DirectBus();
+        PeerNode peer = start("p-vote", bus);
+
+        bus.deliver(voteRequest(1, "A", 0));
+        assertTrue(granted(bus));
+        bus.deliver(voteRequest(1, "B", 0));
+        assertFalse(granted(bus));
+        // o mesmo candidato pode repetir o pedido
+        bus.deliver(voteRequest(1, "A", 0));
+        assertTrue(granted(bus));
+
+        // um termo novo liberta o voto; um termo anterior é recusado
+        bus.deliver(voteRequest(2, "B", 0));
+        assertTrue(granted(bus));
+        assertEquals(2, peer.getCurrentTerm());
+        bus.deliver(voteRequest(1, "C", 0));
+        assertFalse(granted(bus));
+        assertEquals(2, lastOfType(bus, "vote").path("term").asInt());
+    }
+
+    @Test
+    void refusesCandidateBehindConfirmedVersion() throws Exception {
+        DirectBus bus = new DirectBus();
+        start("p-behind", bus);
+        bus.deliver(prepare(1, "cid1", 4));
+        bus.deliver(message("doc_update_commit", 1));
+
+        bus.deliver(voteRequest(1, "A", 0));
+        assertFalse(granted(bus));
+        bus.deliver(voteRequest(1, "B", 1));
+        assertTrue(granted(bus));
+    }
+
+    @Test
+    void keepsVoteAcrossRestart() throws Exception {
+        DirectBus bus = new DirectBus();
+        PeerNode peer = start("p-restart", bus);
+        bus.deliver(voteRequest(3, "A", 0));
+        assertTrue(granted(bus));
+        peer.shutdown();
+        peers.remove(peer);
+
+        // reiniciado no mesmo termo: não pode eleger um segundo líder
+        DirectBus restartedBus = new DirectBus();
+        PeerNode restarted = start("p-restart", restartedBus);
+        assertEquals(3, restarted.getCurrentTerm());
+        restartedBus.deliver(voteRequest(3, "B", 0));
+        assertFalse(granted(restartedBus));
+        restartedBus.deliver(voteRequest(3, "A", 0));
+        assertTrue(granted(restartedBus));
+    }
+}
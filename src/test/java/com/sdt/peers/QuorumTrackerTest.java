@@ -0,0 +1,126 @@
+package com.sdt.peers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuorumTrackerTest {
+
+    private static final Set<String> THREE = Set.of("a", "b", "c");
+    private static final Set<String> FIVE = Set.of("a", "b", "c", "d", "e");
+
+    @Test
+    void commitsWhenMajorityVotesSameHash() {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+        assertEquals(2, tracker.getMajorityThreshold());
+
+        assertTrue(tracker.recordVote("a", "h"));
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+        assertTrue(tracker.recordVote("b", "h"));
+
+        assertEquals(QuorumTracker.Outcome.COMMIT, tracker.getOutcome());
+        assertEquals("h", tracker.getWinningHash());
+    }
+
+    @Test
+    void abortsAsSoonAsMajorityBecomesUnreachable() {
+        QuorumTracker tracker = new QuorumTracker(1, FIVE);
+
+        tracker.recordVote("a", "h1");
+        tracker.recordVote("b", "h2");
+        tracker.recordVote("c", "h3");
+        // melhor hash com 1 voto + 2 em falta = 3: a maioria ainda é possível
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+
+        tracker.recordVote("d", null);
+        // 1 + 1 < 3: não espera pelo último peer
+        assertEquals(QuorumTracker.Outcome.ABORT, tracker.getOutcome());
+        assertNull(tracker.getWinningHash());
+        assertEquals(4, tracker.getVotesReceived());
+        assertFalse(tracker.recordVote("e", "h1"));
+    }
+
+    @Test
+    void duplicateVotesAreIgnored() {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+
+        assertTrue(tracker.recordVote("a", "h"));
+        assertFalse(tracker.recordVote("a", "h"));
+        assertFalse(tracker.recordVote("a", null));
+
+        assertEquals(1, tracker.getVotesReceived());
+        assertEquals(1, tracker.getVoteCount("h"));
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+    }
+
+    @Test
+    void votesFromOutsideTheConfigurationAreIgnored() {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+
+        assertFalse(tracker.recordVote("z", "h"));
+        tracker.recordVote("a", "h");
+
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+        assertFalse(tracker.hasVoted("z"));
+    }
+
+    @Test
+    void unavailablePeerCountsAsNegativeVote() {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+
+        tracker.markUnavailable("b");
+        assertTrue(tracker.hasVoted("b"));
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+
+        tracker.recordVote("a", "h");
+        tracker.recordVote("c", "h");
+        assertEquals(QuorumTracker.Outcome.COMMIT, tracker.getOutcome());
+    }
+
+    @Test
+    void abortsWhenTooManyPeersAreUnavailable() {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+
+        tracker.markUnavailable("b");
+        tracker.markUnavailable("c");
+
+        assertEquals(QuorumTracker.Outcome.ABORT, tracker.getOutcome());
+    }
+
+    @Test
+    void majorityIsTakenOverTheConfigurationSize() {
+        // só 2 dos 5 membros estão vivos: nunca há maioria
+        QuorumTracker small = new QuorumTracker(1, Set.of("a", "b"), 5);
+        assertEquals(3, small.getMajorityThreshold());
+        assertEquals(QuorumTracker.Outcome.ABORT, small.getOutcome());
+
+        QuorumTracker tracker = new QuorumTracker(1, THREE, 5);
+        tracker.recordVote("a", "h");
+        tracker.recordVote("b", "h");
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.getOutcome());
+        tracker.recordVote("c", "h");
+        assertEquals(QuorumTracker.Outcome.COMMIT, tracker.getOutcome());
+    }
+
+    @Test
+    void emptyConfigurationAborts() {
+        assertEquals(QuorumTracker.Outcome.ABORT, new QuorumTracker(1, Set.of()).getOutcome());
+    }
+
+    @Test
+    void awaitReturnsPendingOnTimeoutAndOutcomeOnceDecided() throws InterruptedException {
+        QuorumTracker tracker = new QuorumTracker(1, THREE);
+        assertEquals(QuorumTracker.Outcome.PENDING, tracker.await(10, TimeUnit.MILLISECONDS));
+
+        tracker.abort();
+        assertEquals(QuorumTracker.Outcome.ABORT, tracker.await(10, TimeUnit.SECONDS));
+        // uma ronda decidida não muda
+        assertFalse(tracker.recordVote("a", "h"));
+    }
+}
@@ -0,0 +1,176 @@
+package com.sdt.peers;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TcpBusTest {
+
+    private static final byte SUBSCRIBE = 1;
+    private static final byte MESSAGE = 3;
+    private static final String TOPIC = "docs";
+
+    private static byte[] frame(byte type, String topic, String payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] payloadBytes = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 3 + topicBytes.length + payloadBytes.length);
+        buffer.putInt(3 + topicBytes.length + payloadBytes.length).put(type)
+              .putShort((short) topicBytes.length).put(topicBytes).put(payloadBytes);
+        return buffer.array();
+    }
+
+    /**
+     * Lê uma trama MESSAGE do socket e devolve o JSON.
+     */
+    private static String readMessage(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] body = new byte[length];
+        in.readFully(body);
+        ByteBuffer frame = ByteBuffer.wrap(body);
+        assertEquals(MESSAGE, frame.get());
+        int topicLength = frame.getShort() & 0xFFFF;
+        assertEquals(TOPIC, new String(body, 3, topicLength, StandardCharsets.UTF_8));
+        return new String(body, 3 + topicLength, length - 3 - topicLength, StandardCharsets.UTF_8);
+    }
+
+    private static BlockingQueue<String> subscribe(TcpBus bus, String name) {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        bus.subscribe(TOPIC, name, received::add);
+        return received;
+    }
+
+    private static String json(int i, int padding) {
+        char[] pad = new char[padding];
+        Arrays.fill(pad, 'x');
+        return "{\"n\":" + i + ",\"pad\":\"" + new String(pad) + "\"}";
+    }
+
+    @Test
+    void reassemblesFramesSplitAcrossReads() throws Exception {
+        TcpBus leader = TcpBus.listen(0);
+        try (Socket socket = new Socket("localhost", leader.getPort())) {
+            socket.setTcpNoDelay(true);
+            BlockingQueue<String> received = subscribe(leader, "leader");
+            OutputStream out = socket.getOutputStream();
+
+            // uma trama entregue byte a byte
+            for (byte b : frame(MESSAGE, TOPIC, json(1, 10))) {
+                out.write(b);
+                out.flush();
+            }
+            assertEquals(json(1, 10), received.poll(5, TimeUnit.SECONDS));
+
+            // duas tramas e o início de uma terceira no mesmo write
+            byte[] second = frame(MESSAGE, TOPIC, json(2, 10));
+            byte[] third = frame(MESSAGE, TOPIC, json(3, 10));
+            byte[] fourth = frame(MESSAGE, TOPIC, json(4, 10));
+            ByteBuffer batch = ByteBuffer.allocate(second.length + third.length + 5);
+            batch.put(second).put(third).put(fourth, 0, 5);
+            out.write(batch.array());
+            out.flush();
+            assertEquals(json(2, 10), received.poll(5, TimeUnit.SECONDS));
+            assertEquals(json(3, 10), received.poll(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            out.write(fourth, 5, fourth.length - 5);
+            out.flush();
+            assertEquals(json(4, 10), received.poll(5, TimeUnit.SECONDS));
+
+            // maior que o buffer de leitura inicial (64 KiB)
+            String large = json(5, 200_000);
+            out.write(frame(MESSAGE, TOPIC, large));
+            out.flush();
+            assertEquals(large, received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            leader.close();
+        }
+    }
+
+    @Test
+    void forwardsOnlyToSubscribedConnectionsInOrder() throws Exception {
+        TcpBus leader = TcpBus.listen(0);
+        try (Socket socket = new Socket("localhost", leader.getPort())) {
+            BlockingQueue<String> atLeader = subscribe(leader, "leader");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            // sem SUBSCRIBE o líder não reencaminha; a mensagem marca a ordem no servidor
+            out.write(frame(SUBSCRIBE, TOPIC, null));
+            out.write(frame(MESSAGE, TOPIC, json(0, 0)));
+            out.flush();
+            assertEquals(json(0, 0), atLeader.poll(5, TimeUnit.SECONDS));
+
+            for (int i = 1; i <= 100; i++) {
+                leader.publish(TOPIC, "leader", json(i, i));
+            }
+            for (int i = 1; i <= 100; i++) {
+                assertEquals(json(i, i), readMessage(in));
+            }
+            // o líder recebe as suas próprias mensagens, como no pubsub
+            assertEquals(json(1, 1), atLeader.poll(5, TimeUnit.SECONDS));
+        } finally {
+            leader.close();
+        }
+    }
+
+    @Test
+    void dropsConnectionWithInvalidFrameLength() throws Exception {
+        TcpBus leader = TcpBus.listen(0);
+        try (Socket socket = new Socket("localhost", leader.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(ByteBuffer.allocate(4).putInt(-1).array());
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            leader.close();
+        }
+    }
+
+    @Test
+    void peerProcessReceivesMessagesThroughLeader() throws Exception {
+        TcpBus leader = TcpBus.listen(0);
+        TcpBus peers = TcpBus.connect(new InetSocketAddress("localhost", leader.getPort()));
+        try {
+            CountDownLatch subscribed = new CountDownLatch(1);
+            BlockingQueue<String> atPeer = new LinkedBlockingQueue<>();
+            peers.subscribe(TOPIC, "peer", new MessageBus.MessageHandler() {
+                @Override
+                public void onMessage(String payloadJson) {
+                    atPeer.add(payloadJson);
+                }
+
+                @Override
+                public void onSubscribed() {
+                    subscribed.countDown();
+                }
+            });
+            BlockingQueue<String> atLeader = subscribe(leader, "leader");
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+            // a primeira mensagem do peer garante que o SUBSCRIBE já chegou ao líder
+            peers.publish(TOPIC, "peer", json(0, 0));
+            assertEquals(json(0, 0), atPeer.poll(5, TimeUnit.SECONDS));
+            assertEquals(json(0, 0), atLeader.poll(5, TimeUnit.SECONDS));
+
+            leader.publish(TOPIC, "leader", json(1, 0));
+            assertEquals(json(1, 0), atPeer.poll(5, TimeUnit.SECONDS));
+        } finally {
+            peers.close();
+            leader.close();
+        }
+    }
+}
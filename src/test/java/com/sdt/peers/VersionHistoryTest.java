@@ -0,0 +1,128 @@
+package com.sdt.peers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionHistoryTest {
+
+    private static final int VERSIONS = 10;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Versões 1..10 com dois CIDs cada; com 2 versões quentes e segmentos de 2 versões,
+     * as mais antigas vão para o disco.
+     */
+    private VersionHistory filled() throws IOException {
+        VersionHistory history = new VersionHistory(dir, 2, 2);
+        for (int v = 1; v <= VERSIONS; v++) {
+            history.append(v, List.of("c" + v + "a", "c" + v + "b"));
+        }
+        return history;
+    }
+
+    private static List<String> cidsUpTo(int version) {
+        List<String> cids = new ArrayList<>();
+        for (int v = 1; v <= version; v++) {
+            cids.add("c" + v + "a");
+            cids.add("c" + v + "b");
+        }
+        return cids;
+    }
+
+    @Test
+    void compactsOldVersionsToDisk() throws IOException {
+        VersionHistory history = filled();
+
+        assertTrue(history.getSegmentCount() > 0);
+        assertTrue(history.getHotEntries() < 2 * VERSIONS);
+        assertEquals(2 * VERSIONS, history.size());
+        assertEquals(VERSIONS, history.getLastVersion());
+        assertEquals(cidsUpTo(VERSIONS), history.vectorAt(VERSIONS));
+        assertEquals(cidsUpTo(3), history.vectorAt(3));
+    }
+
+    @Test
+    void pageSpanningDiskAndMemory() throws IOException {
+        VersionHistory history = filled();
+        // primeira versão ainda em memória
+        int firstHot = VERSIONS - history.getHotEntries() / 2 + 1;
+        assertTrue(firstHot > 1);
+
+        VersionHistory.Page page = history.read(firstHot - 2, VERSIONS, 4);
+
+        List<VersionHistory.Change> changes = page.getChanges();
+        assertEquals(4, changes.size());
+        assertEquals(firstHot - 1, changes.get(0).getVersion());
+        assertEquals(firstHot, changes.get(3).getVersion());
+        assertEquals(List.of("c" + (firstHot - 1) + "a", "c" + (firstHot - 1) + "b",
+                             "c" + firstHot + "a", "c" + firstHot + "b"), page.getCids());
+        assertTrue(page.hasMore());
+    }
+
+    @Test
+    void pagingNeverSplitsAVersion() throws IOException {
+        VersionHistory history = filled();
+
+        List<String> all = new ArrayList<>();
+        int since = 0;
+        int pages = 0;
+        while (true) {
+            // limite ímpar: cada página termina a versão em curso
+            VersionHistory.Page page = history.read(since, VERSIONS, 3);
+            List<VersionHistory.Change> changes = page.getChanges();
+            assertEquals(0, changes.size() % 2);
+            all.addAll(page.getCids());
+            pages++;
+            if (!page.hasMore()) break;
+            since = changes.get(changes.size() - 1).getVersion();
+        }
+
+        assertEquals(cidsUpTo(VERSIONS), all);
+        assertEquals(VERSIONS / 2, pages);
+    }
+
+    @Test
+    void readStopsAtUpTo() throws IOException {
+        VersionHistory history = filled();
+
+        VersionHistory.Page page = history.read(2, 5, Integer.MAX_VALUE);
+
+        assertEquals(cidsUpTo(5).subList(4, 10), page.getCids());
+        assertFalse(page.hasMore());
+        assertEquals(cidsUpTo(VERSIONS).subList(16, 20), history.cidsAfter(8));
+    }
+
+    @Test
+    void rejectsVersionsOutOfOrder() throws IOException {
+        VersionHistory history = filled();
+
+        assertThrows(IllegalArgumentException.class, () -> history.append(VERSIONS, List.of("x")));
+    }
+
+    @Test
+    void reopeningDropsSegmentsOfPreviousRun() throws IOException {
+        filled();
+
+        VersionHistory reopened = new VersionHistory(dir, 2, 2);
+
+        assertEquals(0, reopened.size());
+        assertEquals(0, reopened.getSegmentCount());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.noneMatch(f -> f.getFileName().toString().endsWith(".hist")));
+        }
+    }
+}